@@ -0,0 +1,42 @@
+package com.example.httpclient;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.HttpHost;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
+import org.springframework.http.HttpRequest;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Límite de conexiones por servicio (id de Eureka): http.client.routes.<service-id>=<conexiones>.
+// Las instancias se registran con puerto aleatorio, así que la ruta del pool (host:port) recién se conoce cuando
+// el LoadBalancer elige la instancia: ahí se le fija el límite, una vez por instancia. El límite es por instancia
+// (el pool no sabe de servicios); las que no tienen entrada usan max-per-route.
+public class ServiceRouteLimits implements LoadBalancerRequestTransformer {
+
+    private final PoolingHttpClientConnectionManager manager;
+    private final Map<String, Integer> limits;
+    private final Set<HttpRoute> applied = ConcurrentHashMap.newKeySet();
+
+    public ServiceRouteLimits(PoolingHttpClientConnectionManager manager, Map<String, Integer> limits) {
+        this.manager = manager;
+        this.limits = Map.copyOf(limits);
+    }
+
+    @Override
+    public HttpRequest transformRequest(HttpRequest request, ServiceInstance instance) {
+        Integer max = limits.get(instance.getServiceId());
+        if (max != null) {
+            // la URI ya viene con el host:port de la instancia elegida, igual que la ruta que arma HttpClient
+            URI uri = request.getURI();
+            int port = uri.getPort() >= 0 ? uri.getPort() : "https".equals(uri.getScheme()) ? 443 : 80;
+            HttpRoute route = new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port));
+            if (applied.add(route)) manager.setMaxPerRoute(route, max);
+        }
+        return request;
+    }
+}
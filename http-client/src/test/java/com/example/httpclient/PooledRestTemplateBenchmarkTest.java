@@ -0,0 +1,190 @@
+package com.example.httpclient;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.HttpHost;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// El RestTemplate @LoadBalanced compartido contra dos servidores HTTP locales registrados como instancias de
+// "pricing-service" e "inventory-service" (SimpleDiscoveryClient, puertos aleatorios como en Eureka):
+//   - carga sostenida desde 8 hilos: las conexiones TCP que ve el servidor (puertos de origen distintos) no pasan
+//     de los hilos, contra una por pedido si el cliente no reutiliza conexiones. Tiempos en el log.
+//   - http.client.routes.inventory-service=2 se aplica a la instancia que eligió el LoadBalancer
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.cloud.loadbalancer.cache.enabled=false",
+        "http.client.routes.inventory-service=2",
+        "http.client.pool-acquire-timeout-ms=10000"
+})
+class PooledRestTemplateBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledRestTemplateBenchmarkTest.class);
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 250;
+
+    private static Server pricing;
+    private static Server inventory;
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    static class App {
+    }
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private PoolingHttpClientConnectionManager httpConnectionManager;
+
+    // Servidor que responde "ok" y anota el puerto de origen de cada pedido (uno por conexión TCP).
+    // Sin nodelay el servidor espera el ACK retrasado del cliente entre encabezados y cuerpo (~40 ms por pedido)
+    static {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final class Server {
+        final HttpServer http;
+        final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+
+        Server() throws IOException {
+            http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            http.setExecutor(Executors.newFixedThreadPool(THREADS * 2));
+            http.createContext("/ping", exchange -> {
+                connections.add(exchange.getRemoteAddress().getPort());
+                exchange.getRequestBody().readAllBytes();
+                byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start();
+        }
+
+        int port() {
+            return http.getAddress().getPort();
+        }
+
+        void stop() {
+            http.stop(0);
+            ((ExecutorService) http.getExecutor()).shutdownNow();
+        }
+    }
+
+    @DynamicPropertySource
+    static void instances(DynamicPropertyRegistry registry) throws IOException {
+        pricing = new Server();
+        inventory = new Server();
+        registry.add("spring.cloud.discovery.client.simple.instances.pricing-service[0].uri",
+                () -> "http://127.0.0.1:" + pricing.port());
+        registry.add("spring.cloud.discovery.client.simple.instances.inventory-service[0].uri",
+                () -> "http://127.0.0.1:" + inventory.port());
+    }
+
+    @AfterAll
+    static void stopServers() {
+        pricing.stop();
+        inventory.stop();
+    }
+
+    @BeforeEach
+    void clean() {
+        pricing.connections.clear();
+        inventory.connections.clear();
+    }
+
+    // THREADS hilos x REQUESTS_PER_THREAD pedidos; devuelve los ms
+    private static long load(Function<Integer, String> call) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            long started = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) assertThat(call.apply(i)).isEqualTo("ok");
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            return (System.nanoTime() - started) / 1_000_000;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void pooledClientReusesConnectionsUnderSustainedLoad() throws Exception {
+        int requests = THREADS * REQUESTS_PER_THREAD;
+
+        load(i -> restTemplate.getForObject("http://pricing-service/ping", String.class));   // calentamiento
+        pricing.connections.clear();
+        long pooledMs = load(i -> restTemplate.getForObject("http://pricing-service/ping", String.class));
+        int pooledConnections = pricing.connections.size();
+
+        // referencia: el mismo cliente sin reutilizar conexiones (una conexión TCP nueva por pedido)
+        long closeMs;
+        int closeConnections;
+        try (CloseableHttpClient noReuse = HttpClients.custom()
+                .setConnectionReuseStrategy((request, response, context) -> false).build()) {
+            RestTemplate perRequest = new RestTemplate(new HttpComponentsClientHttpRequestFactory(noReuse));
+            String direct = "http://127.0.0.1:" + pricing.port() + "/ping";
+            load(i -> perRequest.getForObject(direct, String.class));
+            pricing.connections.clear();
+            closeMs = load(i -> perRequest.getForObject(direct, String.class));
+            closeConnections = pricing.connections.size();
+        }
+
+        log.info("{} pedidos desde {} hilos: pool {} ms ({} pedidos/s) en {} conexiones; " +
+                        "sin reutilizar {} ms ({} pedidos/s) en {} conexiones",
+                requests, THREADS, pooledMs, requests * 1000L / Math.max(1, pooledMs), pooledConnections,
+                closeMs, requests * 1000L / Math.max(1, closeMs), closeConnections);
+
+        // cada hilo reutiliza una conexión keep-alive del pool: ninguna nueva en régimen
+        assertThat(pooledConnections).isBetween(1, THREADS);
+        // (el SO puede repetir un puerto de origen ya cerrado)
+        assertThat(closeConnections).isGreaterThan(requests / 2);
+        assertThat(httpConnectionManager.getTotalStats().getLeased()).isZero();
+    }
+
+    @Test
+    void serviceLimitAppliesToTheInstanceTheLoadBalancerPicked() throws Exception {
+        load(i -> restTemplate.getForObject("http://inventory-service/ping", String.class));
+
+        HttpRoute route = new HttpRoute(new HttpHost("http", "127.0.0.1", inventory.port()));
+        assertThat(httpConnectionManager.getMaxPerRoute(route)).isEqualTo(2);
+        assertThat(inventory.connections).hasSizeLessThanOrEqualTo(2);
+        // las demás instancias siguen con max-per-route
+        assertThat(httpConnectionManager.getMaxPerRoute(new HttpRoute(new HttpHost("http", "127.0.0.1", pricing.port()))))
+                .isEqualTo(httpConnectionManager.getDefaultMaxPerRoute());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.inventoryservice.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Migraciones de datos que ddl-auto=update no hace. Corren al arrancar, después de que Hibernate
+// actualizó el esquema (por eso depende del EntityManagerFactory) y antes de atender requests.
+// Cada paso es idempotente.
+@Component
+public class InventorySchemaMigrations {
+
+    private static final Logger log = LoggerFactory.getLogger(InventorySchemaMigrations.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void migrate() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            foldToolLots();
+            prepareChangeFeed();
+            seedChangeFeed();
+            seedCategoryStats();
+        });
+    }
+
+    private boolean tableExists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table));
+    }
+
+    // Lotes de tools (una fila por estado y cambio) -> una fila de tool_catalog por (name, category, tool_value).
+    // La tabla antigua queda renombrada a tools_legacy.
+    private void foldToolLots() {
+        if (!tableExists("tools")) return;
+
+        int rows = jdbcTemplate.update(
+                "INSERT INTO tool_catalog (name, category, tool_value, available, loaned, in_repair, decommissioned) " +
+                        "SELECT name, category, tool_value, " +
+                        "SUM(CASE WHEN initial_state = 'Disponible' THEN stock ELSE 0 END), " +
+                        "SUM(CASE WHEN initial_state = 'Prestada' THEN stock ELSE 0 END), " +
+                        "SUM(CASE WHEN initial_state = 'En reparación' THEN stock ELSE 0 END), " +
+                        "SUM(CASE WHEN initial_state = 'Dada de baja' THEN stock ELSE 0 END) " +
+                        "FROM tools GROUP BY name, category, tool_value " +
+                        "ON CONFLICT (name, category, tool_value) DO UPDATE SET " +
+                        "available = tool_catalog.available + EXCLUDED.available, " +
+                        "loaned = tool_catalog.loaned + EXCLUDED.loaned, " +
+                        "in_repair = tool_catalog.in_repair + EXCLUDED.in_repair, " +
+                        "decommissioned = tool_catalog.decommissioned + EXCLUDED.decommissioned");
+        jdbcTemplate.execute("ALTER TABLE tools RENAME TO tools_legacy");
+
+        log.info("Migrados los lotes de tools a {} filas de tool_catalog", rows);
+    }
+
+    // Secuencia de los seq del feed, alineada con lo que ya hubiera en tool_changes (solo si va atrasada: una vez
+    // alineada, los escritores solo usan nextval). Los registros anteriores a la columna txid quedan con 0,
+    // bajo cualquier cursor.
+    private void prepareChangeFeed() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS tool_changes_seq");
+        jdbcTemplate.query("SELECT setval('tool_changes_seq', m) FROM (SELECT MAX(seq) AS m FROM tool_changes) t " +
+                "WHERE m >= (SELECT CASE WHEN is_called THEN last_value + 1 ELSE last_value END FROM tool_changes_seq)",
+                rs -> null);
+        int rows = jdbcTemplate.update("UPDATE tool_changes SET txid = 0 WHERE txid IS NULL");
+        if (rows > 0) log.info("txid asignado a {} registros del feed", rows);
+    }
+
+    private boolean isEmpty(String table) {
+        return !Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM " + table + ")", Boolean.class));
+    }
+
+    // Primer arranque con tool_changes: un cambio por fila de catálogo, para que el feed (y su snapshot)
+    // parta con el estado completo. El lock de la tabla (solo si está vacía) espera a los escritores en curso
+    // y deja fuera a los demás hasta el commit de la migración.
+    private void seedChangeFeed() {
+        if (!isEmpty("tool_changes")) return;
+        jdbcTemplate.execute("LOCK TABLE tool_changes IN SHARE ROW EXCLUSIVE MODE");
+        if (!isEmpty("tool_changes")) return;
+
+        int rows = jdbcTemplate.update(
+                "INSERT INTO tool_changes (seq, txid, id_tool, name, category, tool_value, available, loaned, in_repair, decommissioned, deleted, changed_at) " +
+                        "SELECT nextval('tool_changes_seq'), pg_current_xact_id()::text::bigint, id, name, category, tool_value, " +
+                        "available, loaned, in_repair, decommissioned, false, now() " +
+                        "FROM (SELECT * FROM tool_catalog ORDER BY id) c");
+
+        log.info("Feed de cambios inicializado con {} herramientas", rows);
+    }
+
+    // Primer arranque con tool_category_stats: agregados calculados desde tool_catalog; desde ahí los mantiene
+    // ToolChangeFeed con la diferencia de cada cambio (con el mismo lock de tool_changes, así no se cuenta nada dos veces)
+    private void seedCategoryStats() {
+        if (!isEmpty("tool_category_stats") || !isEmpty("tool_category_stats_delta")) return;
+        jdbcTemplate.execute("LOCK TABLE tool_changes IN SHARE ROW EXCLUSIVE MODE");
+        if (!isEmpty("tool_category_stats") || !isEmpty("tool_category_stats_delta")) return;
+
+        int rows = jdbcTemplate.update(
+                "INSERT INTO tool_category_stats (category, tools, available, loaned, in_repair, decommissioned, " +
+                        "available_value, loaned_value, in_repair_value, decommissioned_value) " +
+                        "SELECT category, COUNT(*), SUM(available), SUM(loaned), SUM(in_repair), SUM(decommissioned), " +
+                        "SUM(available * tool_value), SUM(loaned * tool_value), SUM(in_repair * tool_value), SUM(decommissioned * tool_value) " +
+                        "FROM tool_catalog GROUP BY category");
+
+        log.info("Agregados por categoría inicializados ({} categorías)", rows);
+    }
+}
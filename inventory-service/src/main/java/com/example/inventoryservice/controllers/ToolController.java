@@ -1,11 +1,22 @@
 package com.example.inventoryservice.controllers;
 
 import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.services.ToolAvailabilityCache;
+import com.example.inventoryservice.services.ToolCategoryStats;
+import com.example.inventoryservice.services.ToolChangeFeed;
+import com.example.inventoryservice.services.ToolImportService;
 import com.example.inventoryservice.services.ToolService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -16,6 +27,42 @@ public class ToolController {
     @Autowired
     private ToolService toolService;
 
+    @Autowired
+    private ToolAvailabilityCache availabilityCache;
+
+    @Autowired
+    private ToolImportService toolImportService;
+
+    @Autowired
+    private ToolChangeFeed toolChangeFeed;
+
+    @Autowired
+    private ToolCategoryStats toolCategoryStats;
+
+    // 400 solo para validaciones (IllegalArgumentException, incluida la falta de stock). Un choque de concurrencia
+    // (la misma reserva reintentada a la vez choca en la PK, lock, serialización) es 409 y cualquier otra falla
+    // (BD caída, timeout) es 500: quien llama (loan-service) los reintenta en vez de darlos por rechazados.
+    private static ResponseEntity<?> error(Exception e) {
+        if (e instanceof IllegalArgumentException) return ResponseEntity.badRequest().body(e.getMessage());
+        if (e instanceof DataIntegrityViolationException || e instanceof ConcurrencyFailureException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+    }
+
+    // items de un body en lote: lista de objetos JSON (cualquier otra cosa es un 400, no un ClassCastException)
+    private static List<Map<String, Object>> items(Object raw) {
+        if (!(raw instanceof List<?> list)) throw new IllegalArgumentException("items debe ser una lista");
+        List<Map<String, Object>> items = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (!(item instanceof Map<?, ?> map)) throw new IllegalArgumentException("Cada item debe ser un objeto");
+            Map<String, Object> typed = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> e : map.entrySet()) typed.put(String.valueOf(e.getKey()), e.getValue());
+            items.add(typed);
+        }
+        return items;
+    }
+
     // ------------------ RF1.1 Registrar nuevas herramientas ------------------
     // rutPerson: rut de quien realiza la operación (lo validas en el front)
     @PostMapping
@@ -24,23 +71,27 @@ public class ToolController {
             @RequestParam String rutPerson
     ) {
         try {
-            return ResponseEntity.ok(toolService.saveTool(tool, rutPerson));
+            return ResponseEntity.ok(toolService.view(toolService.saveTool(tool, rutPerson), "Disponible"));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
     // ------------------ RF1.2 Dar de baja herramientas ------------------
+    // fromState: estado del que salen las unidades ("Disponible", "Prestada", "En reparación"). Es obligatorio:
+    // antes lo decía el id del lote, ahora idTool es la herramienta de catálogo con todos sus estados.
+    // Respuesta con el formato de antes (initialState = fromState, stock = lo que queda en ese estado) más los contadores.
     @PutMapping("/{idTool}/deactivate")
     public ResponseEntity<?> deactivateTool(
             @PathVariable Long idTool,
             @RequestParam String rutPerson,
-            @RequestParam int quantity
+            @RequestParam int quantity,
+            @RequestParam String fromState
     ) {
         try {
-            return ResponseEntity.ok(toolService.deactivateTool(idTool, rutPerson, quantity));
+            return ResponseEntity.ok(toolService.view(toolService.deactivateTool(idTool, rutPerson, quantity, fromState), fromState));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
@@ -52,37 +103,41 @@ public class ToolController {
             @RequestParam int quantity
     ) {
         try {
-            return ResponseEntity.ok(toolService.loanTool(idTool, rutPerson, quantity));
+            return ResponseEntity.ok(toolService.view(toolService.loanTool(idTool, rutPerson, quantity), "Disponible"));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
     // ------------------ Reparación ------------------
+    // fromState obligatorio: "Disponible" o "Prestada"
     @PutMapping("/{idTool}/repair")
     public ResponseEntity<?> repairTool(
             @PathVariable Long idTool,
             @RequestParam String rutPerson,
-            @RequestParam int quantity
+            @RequestParam int quantity,
+            @RequestParam String fromState
     ) {
         try {
-            return ResponseEntity.ok(toolService.repairTool(idTool, rutPerson, quantity));
+            return ResponseEntity.ok(toolService.view(toolService.repairTool(idTool, rutPerson, quantity, fromState), fromState));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
     // ------------------ Volver a Disponible (devolución / reingreso) ------------------
+    // fromState obligatorio: "Prestada", "En reparación" o "Dada de baja"
     @PutMapping("/{idTool}/available")
     public ResponseEntity<?> availableTool(
             @PathVariable Long idTool,
             @RequestParam String rutPerson,
-            @RequestParam int quantity
+            @RequestParam int quantity,
+            @RequestParam String fromState
     ) {
         try {
-            return ResponseEntity.ok(toolService.availableTool(idTool, rutPerson, quantity));
+            return ResponseEntity.ok(toolService.view(toolService.availableTool(idTool, rutPerson, quantity, fromState), fromState));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
@@ -90,9 +145,9 @@ public class ToolController {
     @GetMapping("/{idTool}")
     public ResponseEntity<?> getToolById(@PathVariable Long idTool) {
         try {
-            return ResponseEntity.ok(toolService.getToolById(idTool));
+            return ResponseEntity.ok(toolService.view(toolService.getToolById(idTool), "Disponible"));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
@@ -111,9 +166,9 @@ public class ToolController {
             }
             double newValue = Double.parseDouble(body.get("toolValue").toString());
             ToolEntity updated = toolService.updateToolValue(idTool, newValue);
-            return ResponseEntity.ok(updated);
+            return ResponseEntity.ok(toolService.view(updated, "Disponible"));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
@@ -122,10 +177,158 @@ public class ToolController {
         try {
             return ResponseEntity.ok(toolService.searchByName(name));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
+    // Búsqueda por prefijo o aproximada sobre nombre y categoría, con ranking:
+    // GET /search?q=tala&mode=prefix|fuzzy&limit=10 (con ?name= sigue siendo la búsqueda exacta)
+    @GetMapping(value = "/search", params = "q")
+    public ResponseEntity<?> searchTools(
+            @RequestParam String q,
+            @RequestParam(required = false) String mode,
+            @RequestParam(required = false) Integer limit
+    ) {
+        try {
+            return ResponseEntity.ok(toolService.searchTools(q, mode, limit));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // ------------------ Import masivo del catálogo ------------------
+    // Body: CSV (encabezado name,category,toolValue,stock) o NDJSON ({"name":..,"category":..,"toolValue":..,"stock":..} por línea).
+    // Se procesa mientras llega; format por defecto según Content-Type. Responde el avance final.
+    // Si falló a la mitad, reenviar el mismo archivo con el mismo importId sigue desde el último bloque confirmado.
+    @PostMapping("/import")
+    public ResponseEntity<?> importTools(
+            HttpServletRequest request,
+            @RequestParam String rutPerson,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String importId
+    ) {
+        try {
+            String contentType = request.getContentType() != null ? request.getContentType() : "";
+            String fmt = format != null ? format : (contentType.contains("json") ? "ndjson" : "csv");
+            return ResponseEntity.ok(toolImportService.importTools(request.getInputStream(), fmt, rutPerson, importId));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Avance de un import (también mientras está corriendo, con el importId enviado en el POST)
+    @GetMapping("/import/{importId}")
+    public ResponseEntity<?> importProgress(@PathVariable String importId) {
+        try {
+            return ResponseEntity.ok(toolImportService.getProgress(importId));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // ------------------ Disponibilidad (desde memoria) ------------------
+    // GET /availability?names=Taladro,Sierra -> [ { name, available, loaned, inRepair, decommissioned, totalValue } ]
+    @GetMapping("/availability")
+    public ResponseEntity<?> availability(@RequestParam List<String> names) {
+        try {
+            return ResponseEntity.ok(toolService.availability(names));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
 
+    // Catálogo completo; con If-None-Match igual al ETag responde 304 sin cuerpo
+    @GetMapping("/availability/snapshot")
+    public ResponseEntity<?> availabilitySnapshot(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        try {
+            String etag = availabilityCache.etag();
+            if (etag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+            Map<String, Object> snapshot = availabilityCache.snapshot();
+            return ResponseEntity.ok().eTag(String.valueOf(snapshot.get("etag"))).body(snapshot);
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // ------------------ Agregados por categoría y estado ------------------
+    @GetMapping("/stats")
+    public ResponseEntity<?> stats() {
+        try {
+            return ResponseEntity.ok(toolCategoryStats.stats());
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // ------------------ Feed de cambios (réplicas locales) ------------------
+    // Cambios desde el cursor after (0 o la position de la respuesta anterior). Si no hay, espera hasta waitMs
+    // (long-poll); seguir con after = position. Un cambio puede repetirse: gana el seq mayor por herramienta.
+    // lagMs: hace cuánto la respuesta ya estaba completa (crece mientras una transacción larga frena position)
+    @GetMapping("/changes")
+    public ResponseEntity<?> changes(
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "500") int limit,
+            @RequestParam(defaultValue = "0") long waitMs
+    ) {
+        try {
+            return ResponseEntity.ok(toolChangeFeed.changes(after, limit, waitMs));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Estado vigente de todas las herramientas y la position desde la que seguir con /changes
+    @GetMapping("/changes/snapshot")
+    public ResponseEntity<?> changesSnapshot() {
+        try {
+            return ResponseEntity.ok(toolChangeFeed.snapshot());
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // ------------------ Reservas en lote (las usa loan-service) ------------------
+    // Body: { "rutPerson": "...", "reference": "opcional (idempotencia)", "items": [ { "name": "Taladro", "quantity": 1 } ] }
+    @PostMapping("/reservations/batch")
+    public ResponseEntity<?> reserveBatch(@RequestBody Map<String, Object> body) {
+        try {
+            if (body == null || !body.containsKey("items")) {
+                return ResponseEntity.badRequest().body("items es requerido");
+            }
+            String rutPerson = body.get("rutPerson") != null ? body.get("rutPerson").toString() : null;
+            String reference = body.get("reference") != null ? body.get("reference").toString() : null;
+            return ResponseEntity.ok(toolService.reserveBatch(rutPerson, items(body.get("items")), reference));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Compensación: libera lo prestado por una reserva con reference (idempotente)
+    @PostMapping("/reservations/{reference}/release")
+    public ResponseEntity<?> releaseReservation(@PathVariable String reference) {
+        try {
+            return ResponseEntity.ok(toolService.releaseReservation(reference));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Body: { "rutPerson": "...", "reference": "opcional (idempotencia)",
+    //         "items": [ { "name": "Taladro", "quantity": 1, "action": "available|repair|deactivate" } ] }
+    @PostMapping("/reservations/batch/return")
+    public ResponseEntity<?> returnBatch(@RequestBody Map<String, Object> body) {
+        try {
+            if (body == null || !body.containsKey("items")) {
+                return ResponseEntity.badRequest().body("items es requerido");
+            }
+            String rutPerson = body.get("rutPerson") != null ? body.get("rutPerson").toString() : null;
+            String reference = body.get("reference") != null ? body.get("reference").toString() : null;
+            return ResponseEntity.ok(toolService.returnBatch(rutPerson, items(body.get("items")), reference));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
 
 }
@@ -0,0 +1,43 @@
+package com.example.inventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Movimiento pendiente de enviar a kardex-service. Se escribe en la misma transacción que el cambio de stock;
+// KardexOutboxRelay lo entrega en orden (por id) y lo borra al confirmarse.
+@Entity
+@Table(name = "kardex_outbox", indexes = {
+        @Index(name = "idx_kardex_outbox_status_id", columnList = "status, id")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KardexOutboxEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(unique = true, nullable = false)
+    private Long id;
+
+    private String rutCustomer;
+    private String movementType;
+    private LocalDate movementDate;
+    private String toolName;
+    private int toolQuantity;
+
+    // "PENDING" o "DEAD" (kardex lo rechazó max-attempts veces; queda para revisión)
+    private String status;
+
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,35 @@
+package com.example.inventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Diferencia pendiente de una categoría (mismas columnas que tool_category_stats). ToolChangeFeed solo inserta
+// filas nuevas, así dos cambios de la misma categoría no se esperan por la fila agregada; ToolCategoryStats
+// las suma a tool_category_stats cada fold-ms y las borra.
+@Entity
+@Table(name = "tool_category_stats_delta")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolCategoryStatsDeltaEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(unique = true, nullable = false)
+    private Long id;
+
+    private String category;
+
+    private long tools;
+    private long available;
+    private long loaned;
+    private long inRepair;
+    private long decommissioned;
+
+    private double availableValue;
+    private double loanedValue;
+    private double inRepairValue;
+    private double decommissionedValue;
+}
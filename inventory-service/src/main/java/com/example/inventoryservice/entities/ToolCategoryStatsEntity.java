@@ -0,0 +1,31 @@
+package com.example.inventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Contadores agregados por categoría (GET /api/v1/tools/stats): unidades y valor de reposición por estado.
+// ToolCategoryStats les suma las diferencias que ToolChangeFeed deja en tool_category_stats_delta.
+@Entity
+@Table(name = "tool_category_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolCategoryStatsEntity {
+
+    @Id
+    @Column(unique = true, nullable = false)
+    private String category;
+
+    private long tools;            // filas de catálogo
+    private long available;
+    private long loaned;
+    private long inRepair;
+    private long decommissioned;
+
+    private double availableValue;
+    private double loanedValue;
+    private double inRepairValue;
+    private double decommissionedValue;
+}
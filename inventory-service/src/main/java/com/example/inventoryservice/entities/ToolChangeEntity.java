@@ -0,0 +1,40 @@
+package com.example.inventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Registro de cambios del catálogo (GET /api/v1/tools/changes): estado completo de la fila después de cada cambio.
+// seq sale de la secuencia tool_changes_seq (para una misma herramienta crece en orden de commit, ver ToolChangeFeed);
+// txid es la transacción que escribió el registro y ordena la lectura de GET /changes.
+// Se compacta dejando solo el último cambio de cada herramienta; deleted = true si la fila se eliminó.
+@Entity
+@Table(name = "tool_changes", indexes = {
+        @Index(name = "idx_tool_changes_tool_seq", columnList = "idTool, seq"),
+        @Index(name = "idx_tool_changes_txid_seq", columnList = "txid, seq")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolChangeEntity {
+
+    @Id
+    @Column(unique = true, nullable = false)
+    private Long seq;
+
+    private Long txid;
+    private Long idTool;
+    private String name;
+    private String category;
+    private double toolValue;
+    private int available;
+    private int loaned;
+    private int inRepair;
+    private int decommissioned;
+    private boolean deleted;
+
+    private LocalDateTime changedAt;
+}
@@ -1,4 +1,5 @@
 package com.example.inventoryservice.entities;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -6,8 +7,14 @@ import lombok.NoArgsConstructor;
 import jakarta.persistence.*;
 
 
+// Una fila por herramienta de catálogo (name, category, toolValue) con un contador por estado.
+// Antes cada cambio de estado creaba un "lote" en la tabla tools; InventorySchemaMigrations la suma aquí.
 @Entity
-@Table(name = "tools")
+@Table(name = "tool_catalog", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_tool_catalog_name_category_value", columnNames = {"name", "category", "toolValue"})
+}, indexes = {
+        @Index(name = "idx_tool_catalog_name", columnList = "name")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -24,8 +31,16 @@ public class ToolEntity {
     // voy a hacer el rental fee general, no por herramienta.
     // El precio del loan va a ser rentalFee*días y va a estar en pricing-service
     //private double rentalFee;
-    private String initialState;
     private String category;
+
+    // Unidades por estado: "Disponible", "Prestada", "En reparación", "Dada de baja"
+    private int available;
+    private int loaned;
+    private int inRepair;
+    private int decommissioned;
+
+    // Solo en el body de POST /api/v1/tools: unidades a ingresar como Disponible
+    @Transient
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private int stock;
 }
-
@@ -0,0 +1,34 @@
+package com.example.inventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Avance confirmado de un import masivo (POST /api/v1/tools/import con importId): cada bloque mueve lastLine en la
+// misma transacción que lo aplica. Reenviar el mismo archivo con el mismo importId sigue desde la línea siguiente,
+// así un import que falló a la mitad se puede reintentar sin sumar dos veces el stock de los bloques ya confirmados.
+@Entity
+@Table(name = "tool_imports")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolImportEntity {
+
+    @Id
+    @Column(nullable = false)
+    private String importId;
+
+    private String format;
+    private String rutPerson;
+
+    // Última línea del archivo incluida en un bloque confirmado (0: ninguno)
+    private long lastLine;
+    private long rowsImported;
+    private long chunksCommitted;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
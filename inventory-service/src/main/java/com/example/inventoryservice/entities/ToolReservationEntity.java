@@ -0,0 +1,34 @@
+package com.example.inventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Reserva en lote identificada por una referencia del cliente (loan-service): permite reintentar
+// la misma reserva sin prestar dos veces y liberarla después (compensación). Las devoluciones en lote
+// con referencia quedan aquí también ("Devuelta"), para no aplicarlas dos veces.
+@Entity
+@Table(name = "tool_reservations")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolReservationEntity {
+
+    @Id
+    @Column(nullable = false)
+    private String reference;
+
+    // "Reservada", "Liberada", "Cancelada" (se liberó antes de que llegara la reserva) o "Devuelta"
+    private String status;
+
+    private String rutPerson;
+
+    // Resultado de reserveBatch / returnBatch en JSON (se devuelve igual en los reintentos)
+    @Column(columnDefinition = "TEXT")
+    private String results;
+
+    private LocalDateTime createdAt;
+}
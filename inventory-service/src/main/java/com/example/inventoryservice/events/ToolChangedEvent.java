@@ -0,0 +1,17 @@
+package com.example.inventoryservice.events;
+
+import com.example.inventoryservice.entities.ToolEntity;
+
+import java.util.List;
+
+// Lo publica ToolChangeFeed con las filas de catálogo que registró en tool_changes; tool == null si la fila
+// se eliminó. seq es el del registro del feed: para una misma herramienta crece en orden de commit.
+// Los cachés en memoria (ToolNameIndex, ToolAvailabilityCache) lo aplican al confirmar la transacción y
+// descartan lo que no sea más nuevo que el seq que ya tienen de esa herramienta.
+// ToolChangeFeed.follow() lo vuelve a publicar con lo que lee del feed (cambios de otras instancias);
+// snapshot == true: changes es el último registro de cada herramienta y reemplaza el caché entero.
+public record ToolChangedEvent(List<Change> changes, boolean snapshot) {
+
+    public record Change(long idTool, ToolEntity tool, long seq) {
+    }
+}
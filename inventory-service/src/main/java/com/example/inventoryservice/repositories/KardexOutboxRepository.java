@@ -0,0 +1,20 @@
+package com.example.inventoryservice.repositories;
+
+import com.example.inventoryservice.entities.KardexOutboxEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface KardexOutboxRepository extends JpaRepository<KardexOutboxEntity, Long> {
+
+    // Cabeza de la cola, bloqueada mientras el relay la toma (otra instancia espera y luego ve el lease)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<KardexOutboxEntity> findByStatusOrderByIdAsc(String status, Limit limit);
+
+    long countByStatus(String status);
+}
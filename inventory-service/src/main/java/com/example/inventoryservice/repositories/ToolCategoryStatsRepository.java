@@ -0,0 +1,52 @@
+package com.example.inventoryservice.repositories;
+
+import com.example.inventoryservice.entities.ToolCategoryStatsEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ToolCategoryStatsRepository extends JpaRepository<ToolCategoryStatsEntity, String> {
+
+    // Deja la diferencia de un cambio como fila nueva (no toca la fila de la categoría)
+    @Modifying
+    @Query(value = "INSERT INTO tool_category_stats_delta (category, tools, available, loaned, in_repair, decommissioned, " +
+            "available_value, loaned_value, in_repair_value, decommissioned_value) " +
+            "VALUES (:category, :dTools, :dAvailable, :dLoaned, :dInRepair, :dDecommissioned, " +
+            ":dAvailableValue, :dLoanedValue, :dInRepairValue, :dDecommissionedValue)",
+            nativeQuery = true)
+    int addDelta(@Param("category") String category,
+                 @Param("dTools") long dTools,
+                 @Param("dAvailable") long dAvailable,
+                 @Param("dLoaned") long dLoaned,
+                 @Param("dInRepair") long dInRepair,
+                 @Param("dDecommissioned") long dDecommissioned,
+                 @Param("dAvailableValue") double dAvailableValue,
+                 @Param("dLoanedValue") double dLoanedValue,
+                 @Param("dInRepairValue") double dInRepairValue,
+                 @Param("dDecommissionedValue") double dDecommissionedValue);
+
+    // Pasa las diferencias pendientes a su categoría (la crea si es la primera herramienta) en un solo statement:
+    // cada fila se borra y se suma una vez aunque dos instancias plieguen a la vez
+    @Modifying
+    @Query(value = "WITH moved AS (DELETE FROM tool_category_stats_delta RETURNING *) " +
+            "INSERT INTO tool_category_stats (category, tools, available, loaned, in_repair, decommissioned, " +
+            "available_value, loaned_value, in_repair_value, decommissioned_value) " +
+            "SELECT category, SUM(tools), SUM(available), SUM(loaned), SUM(in_repair), SUM(decommissioned), " +
+            "SUM(available_value), SUM(loaned_value), SUM(in_repair_value), SUM(decommissioned_value) " +
+            "FROM moved GROUP BY category " +
+            "ON CONFLICT (category) DO UPDATE SET " +
+            "tools = tool_category_stats.tools + EXCLUDED.tools, " +
+            "available = tool_category_stats.available + EXCLUDED.available, " +
+            "loaned = tool_category_stats.loaned + EXCLUDED.loaned, " +
+            "in_repair = tool_category_stats.in_repair + EXCLUDED.in_repair, " +
+            "decommissioned = tool_category_stats.decommissioned + EXCLUDED.decommissioned, " +
+            "available_value = tool_category_stats.available_value + EXCLUDED.available_value, " +
+            "loaned_value = tool_category_stats.loaned_value + EXCLUDED.loaned_value, " +
+            "in_repair_value = tool_category_stats.in_repair_value + EXCLUDED.in_repair_value, " +
+            "decommissioned_value = tool_category_stats.decommissioned_value + EXCLUDED.decommissioned_value",
+            nativeQuery = true)
+    int foldDeltas();
+}
@@ -0,0 +1,43 @@
+package com.example.inventoryservice.repositories;
+
+import com.example.inventoryservice.entities.ToolChangeEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ToolChangeRepository extends JpaRepository<ToolChangeEntity, Long> {
+
+    // Registros de transacciones terminadas en [from, to), en orden de txid y dentro de cada una por seq
+    List<ToolChangeEntity> findByTxidGreaterThanEqualAndTxidLessThanOrderByTxidAscSeqAsc(Long from, Long to, Limit limit);
+
+    List<ToolChangeEntity> findByTxidAndSeqGreaterThanOrderBySeqAsc(Long txid, Long seq);
+
+    // Último registro de cada una de esas herramientas (el "antes" de un cambio en bloque): una búsqueda hacia atrás
+    // en idx_tool_changes_tool_seq por herramienta, sin leer su historia. Solo lectura: no entran al flush
+    @Query(value = "SELECT c.* FROM unnest(CAST(:ids AS bigint[])) AS t(id_tool) CROSS JOIN LATERAL " +
+            "(SELECT * FROM tool_changes WHERE id_tool = t.id_tool ORDER BY seq DESC LIMIT 1) c", nativeQuery = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    List<ToolChangeEntity> findLatestByIdToolIn(@Param("ids") Long[] ids);
+
+    // Estado vigente: el último cambio de cada herramienta (deleted = true si ya no está en el catálogo)
+    @Query("SELECT c FROM ToolChangeEntity c WHERE c.seq = " +
+            "(SELECT MAX(n.seq) FROM ToolChangeEntity n WHERE n.idTool = c.idTool) ORDER BY c.idTool")
+    List<ToolChangeEntity> findLatestPerTool();
+
+    // Compactación: cambios antiguos que ya tienen uno más nuevo de la misma herramienta
+    @Modifying
+    @Query("DELETE FROM ToolChangeEntity c WHERE c.changedAt < :before AND EXISTS " +
+            "(SELECT 1 FROM ToolChangeEntity n WHERE n.idTool = c.idTool AND n.seq > c.seq)")
+    int deleteSuperseded(@Param("before") LocalDateTime before);
+}
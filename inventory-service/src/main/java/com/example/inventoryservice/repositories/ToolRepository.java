@@ -1,7 +1,12 @@
 package com.example.inventoryservice.repositories;
 
 import com.example.inventoryservice.entities.ToolEntity;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -11,9 +16,40 @@ public interface ToolRepository extends JpaRepository<ToolEntity, Long> {
     ToolEntity findByid(long id);
 
     List<ToolEntity> findBycategory(String category);
-    List<ToolEntity> findAllByinitialState(String category);
     List<ToolEntity> findAll();
     List<ToolEntity> findByname(String name);
     List<ToolEntity> findBytoolValue(double loans);
 
-}
\ No newline at end of file
+    ToolEntity findByNameAndCategoryAndToolValue(String name, String category, double toolValue);
+
+    List<ToolEntity> findBynameOrderByIdAsc(String name);
+
+    // Para juntar dos filas al cambiar toolValue (updateToolValue)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select t from ToolEntity t where t.id = :id")
+    ToolEntity findByIdForUpdate(@Param("id") long id);
+
+    // Cambio de estado atómico: suma los deltas solo si ningún contador queda negativo.
+    // Devuelve 0 si no había unidades suficientes (o no existe): no hay lectura previa que se pueda quedar vieja.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update ToolEntity t set t.available = t.available + :dAvailable, t.loaned = t.loaned + :dLoaned, " +
+            "t.inRepair = t.inRepair + :dInRepair, t.decommissioned = t.decommissioned + :dDecommissioned " +
+            "where t.id = :id and t.available + :dAvailable >= 0 and t.loaned + :dLoaned >= 0 " +
+            "and t.inRepair + :dInRepair >= 0 and t.decommissioned + :dDecommissioned >= 0")
+    int applyDelta(@Param("id") long id,
+                   @Param("dAvailable") int dAvailable,
+                   @Param("dLoaned") int dLoaned,
+                   @Param("dInRepair") int dInRepair,
+                   @Param("dDecommissioned") int dDecommissioned);
+
+    // Ingreso: crea la fila de catálogo o suma a Disponible, sin carrera entre dos altas iguales
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "INSERT INTO tool_catalog (name, category, tool_value, available, loaned, in_repair, decommissioned) " +
+            "VALUES (:name, :category, :toolValue, :quantity, 0, 0, 0) " +
+            "ON CONFLICT (name, category, tool_value) DO UPDATE SET available = tool_catalog.available + EXCLUDED.available",
+            nativeQuery = true)
+    int addAvailable(@Param("name") String name,
+                     @Param("category") String category,
+                     @Param("toolValue") double toolValue,
+                     @Param("quantity") int quantity);
+}
@@ -0,0 +1,16 @@
+package com.example.inventoryservice.repositories;
+
+import com.example.inventoryservice.entities.ToolReservationEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ToolReservationRepository extends JpaRepository<ToolReservationEntity, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<ToolReservationEntity> findByReference(String reference);
+}
@@ -0,0 +1,208 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.KardexOutboxEntity;
+import com.example.inventoryservice.repositories.KardexOutboxRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Entrega kardex_outbox a kardex-service, en orden de id y sin transacción abierta durante las llamadas:
+//   1) toma la cabeza de la cola (si ya toca) y le pone un lease (transacción corta)
+//   2) envía el lote completo en un solo POST /movements/batch
+//   3) borra lo entregado y programa el reintento con backoff (transacción corta)
+// Cada movimiento lleva sourceRef, así un reenvío tras un timeout no se duplica en kardex.
+@Service
+public class KardexOutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexOutboxRelay.class);
+
+    private static final String KARDEX_BATCH_URL = "http://kardex-service/api/v1/kardex/movements/batch";
+
+    @Autowired
+    private KardexOutboxRepository outboxRepository;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${inventory.kardex-outbox.batch-size:100}")
+    private int batchSize;
+
+    // Rechazos (400/422) de kardex antes de apartar el movimiento como DEAD; lo demás se reintenta siempre
+    @Value("${inventory.kardex-outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${inventory.kardex-outbox.backoff-ms:1000}")
+    private long backoffMs;
+
+    @Value("${inventory.kardex-outbox.max-backoff-ms:60000}")
+    private long maxBackoffMs;
+
+    @Value("${inventory.kardex-outbox.lease-ms:60000}")
+    private long leaseMs;
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("inventory.kardex.outbox.backlog", outboxRepository, r -> r.countByStatus("PENDING"))
+                .description("Movimientos pendientes de enviar a kardex-service")
+                .register(meterRegistry);
+        Gauge.builder("inventory.kardex.outbox.dead", outboxRepository, r -> r.countByStatus("DEAD"))
+                .description("Movimientos rechazados por kardex-service")
+                .register(meterRegistry);
+    }
+
+    // ------------------ Helpers ------------------
+
+    private TransactionTemplate tx() {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    private LocalDateTime afterMs(long ms) {
+        return LocalDateTime.now().plusNanos(ms * 1_000_000L);
+    }
+
+    public static String sourceRef(long idOutbox) {
+        return "inventory-outbox-" + idOutbox;
+    }
+
+    private Map<String, Object> body(KardexOutboxEntity movement) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("rutCustomer", movement.getRutCustomer());
+        body.put("movementType", movement.getMovementType());
+        body.put("movementDate", movement.getMovementDate().toString()); // ISO string
+        body.put("toolName", movement.getToolName());
+        body.put("toolQuantity", movement.getToolQuantity());
+        body.put("sourceRef", sourceRef(movement.getId()));
+        return body;
+    }
+
+    // Resultado por ítem, en el mismo orden: { index, status: OK | DUPLICATE | ERROR, error }
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> send(List<KardexOutboxEntity> batch) {
+        List<Map<String, Object>> movements = new ArrayList<>(batch.size());
+        for (KardexOutboxEntity movement : batch) movements.add(body(movement));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<List> resp = restTemplate.exchange(KARDEX_BATCH_URL, HttpMethod.POST, new HttpEntity<>(movements, headers), List.class);
+        List<Map<String, Object>> results = resp.getBody();
+        if (results == null || results.size() != batch.size()) {
+            throw new IllegalStateException("Respuesta incompleta de kardex-service");
+        }
+        return results;
+    }
+
+    // Toma hasta batchSize movimientos si la cabeza de la cola ya toca (no hay reintento ni lease vigente)
+    private List<KardexOutboxEntity> claim() {
+        return tx().execute(status -> {
+            List<KardexOutboxEntity> head = outboxRepository.findByStatusOrderByIdAsc("PENDING", Limit.of(batchSize));
+            if (head.isEmpty()) return head;
+
+            LocalDateTime first = head.get(0).getNextAttemptAt();
+            if (first != null && first.isAfter(LocalDateTime.now())) return List.of();
+
+            LocalDateTime lease = afterMs(leaseMs);
+            for (KardexOutboxEntity movement : head) movement.setNextAttemptAt(lease);
+            return outboxRepository.saveAll(head);
+        });
+    }
+
+    // ------------------ Relay ------------------
+
+    @Scheduled(initialDelayString = "${inventory.kardex-outbox.relay-ms:500}",
+            fixedDelayString = "${inventory.kardex-outbox.relay-ms:500}")
+    public void relay() {
+        List<KardexOutboxEntity> batch;
+        while (!(batch = claim()).isEmpty()) {
+            if (!deliver(batch)) return;
+        }
+    }
+
+    // Devuelve false si el lote quedó esperando reintento
+    private boolean deliver(List<KardexOutboxEntity> batch) {
+        List<Map<String, Object>> results;
+        try {
+            results = send(batch);
+        } catch (Exception e) {
+            retryLater(batch, e);
+            return false;
+        }
+
+        List<Long> delivered = new ArrayList<>();
+        Map<Long, String> rejected = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Object> result = results.get(i);
+            if ("ERROR".equals(result.get("status"))) rejected.put(batch.get(i).getId(), String.valueOf(result.get("error")));
+            else delivered.add(batch.get(i).getId());
+        }
+
+        tx().executeWithoutResult(status -> {
+            outboxRepository.deleteAllByIdInBatch(delivered);
+            // error de validación en kardex: no se va a aceptar nunca, se aparta para no bloquear la cola
+            for (Map.Entry<Long, String> r : rejected.entrySet()) {
+                outboxRepository.findById(r.getKey()).ifPresent(movement -> {
+                    movement.setAttempts(movement.getAttempts() + 1);
+                    movement.setLastError(r.getValue());
+                    movement.setStatus("DEAD");
+                    log.error("Movimiento {} rechazado por kardex-service, queda DEAD: {}", movement.getId(), r.getValue());
+                });
+            }
+        });
+        return true;
+    }
+
+    // Solo 400/422 son rechazos de kardex (el lote no pasa la validación); 409, 5xx y errores de red son
+    // transitorios (BD caída, lock, partición en creación) y se reintentan sin límite
+    private static boolean rejected(Exception failure) {
+        return failure instanceof HttpClientErrorException e
+                && (e.getStatusCode().value() == 400 || e.getStatusCode().value() == 422);
+    }
+
+    // Falló el POST completo: la cabeza cuenta el intento y espera con backoff; el resto suelta el lease
+    private void retryLater(List<KardexOutboxEntity> batch, Exception failure) {
+        tx().executeWithoutResult(status -> {
+            KardexOutboxEntity movement = outboxRepository.findById(batch.get(0).getId()).orElse(null);
+            if (movement == null) return;
+            movement.setAttempts(movement.getAttempts() + 1);
+            movement.setLastError(failure.getMessage());
+
+            boolean rejected = rejected(failure);
+            if (rejected && movement.getAttempts() >= maxAttempts) {
+                // no se puede entregar nunca: se aparta para no bloquear la cola
+                movement.setStatus("DEAD");
+                log.error("Movimiento {} rechazado por kardex-service, queda DEAD: {}", movement.getId(), failure.getMessage());
+            } else {
+                long delay = Math.min(maxBackoffMs, backoffMs << Math.min(movement.getAttempts() - 1, 20));
+                movement.setNextAttemptAt(afterMs(delay));
+                log.warn("No se pudo enviar el lote de {} movimientos a kardex-service (intento {}): {}",
+                        batch.size(), movement.getAttempts(), failure.getMessage());
+            }
+            outboxRepository.save(movement);
+
+            // sale recién cuando la cabeza se pueda entregar
+            for (KardexOutboxEntity rest : batch.subList(1, batch.size())) {
+                outboxRepository.findById(rest.getId()).ifPresent(r -> r.setNextAttemptAt(null));
+            }
+        });
+    }
+}
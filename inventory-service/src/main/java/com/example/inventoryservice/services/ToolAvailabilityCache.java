@@ -0,0 +1,169 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.events.ToolChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resumen de disponibilidad por nombre (suma de las filas de catálogo con ese nombre), en memoria:
+// GET /availability y /availability/snapshot nunca consultan la BD.
+// Cada resumen es un Map inmutable que se reemplaza entero, así las lecturas no necesitan lock.
+// Se alimenta solo de ToolChangedEvent (propios al confirmar, de otras instancias por ToolChangeFeed.follow(),
+// foto completa cada resync-ms) y descarta lo que no sea más nuevo que el seq aplicado de cada herramienta.
+// El ETag del snapshot sale de los pares (herramienta, seq) vigentes: dos instancias con el mismo estado del
+// feed dan el mismo ETag, sin importar en qué orden les llegaron los cambios.
+@Service
+public class ToolAvailabilityCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolAvailabilityCache.class);
+
+    // Filas de catálogo (para recalcular el resumen de un nombre); solo se tocan con el lock del objeto
+    private final Map<Long, ToolEntity> tools = new HashMap<>();
+    private final Map<String, Set<Long>> idsByName = new HashMap<>();
+
+    private final Map<Long, Long> seqs = new HashMap<>();       // incluye las eliminadas
+
+    private final Map<String, Map<String, Object>> summaries = new ConcurrentHashMap<>();
+    // Suma de mix(idTool, seq) de las filas vigentes
+    private volatile long stateHash = 0;
+
+    // ------------------ Helpers ------------------
+
+    private static Map<String, Object> emptySummary(String name) {
+        return summaryOf(name, List.of());
+    }
+
+    private static Map<String, Object> summaryOf(String name, Collection<ToolEntity> rows) {
+        int available = 0, loaned = 0, inRepair = 0, decommissioned = 0;
+        double totalValue = 0;
+        for (ToolEntity t : rows) {
+            available += t.getAvailable();
+            loaned += t.getLoaned();
+            inRepair += t.getInRepair();
+            decommissioned += t.getDecommissioned();
+            // valor de reposición de las unidades que siguen en inventario (no las dadas de baja)
+            totalValue += t.getToolValue() * (t.getAvailable() + t.getLoaned() + t.getInRepair());
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("name", name);
+        m.put("available", available);
+        m.put("loaned", loaned);
+        m.put("inRepair", inRepair);
+        m.put("decommissioned", decommissioned);
+        m.put("totalValue", totalValue);
+        return Collections.unmodifiableMap(m);
+    }
+
+    private void recompute(String name) {
+        Set<Long> ids = idsByName.get(name);
+        if (ids == null || ids.isEmpty()) {
+            idsByName.remove(name);
+            summaries.remove(name);
+            return;
+        }
+        List<ToolEntity> rows = new ArrayList<>(ids.size());
+        for (Long id : ids) rows.add(tools.get(id));
+        summaries.put(name, summaryOf(name, rows));
+    }
+
+    // splitmix64: cada (idTool, seq) aporta 64 bits bien repartidos a la suma
+    private static long mix(long idTool, long seq) {
+        long z = idTool * 0x9E3779B97F4A7C15L + seq;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void removeRow(long idTool) {
+        ToolEntity old = tools.remove(idTool);
+        if (old == null) return;
+        Set<Long> ids = idsByName.get(old.getName());
+        if (ids != null) ids.remove(idTool);
+        recompute(old.getName());
+    }
+
+    private void putRow(ToolEntity tool) {
+        removeRow(tool.getId());
+        tools.put(tool.getId(), tool);
+        idsByName.computeIfAbsent(tool.getName(), k -> new HashSet<>()).add(tool.getId());
+        recompute(tool.getName());
+    }
+
+    // ------------------ Mantención ------------------
+
+    // Foto completa: se arma aparte y los resúmenes se reemplazan de una vez (los que ya no existen se quitan)
+    private void replaceAll(List<ToolChangedEvent.Change> changes) {
+        tools.clear();
+        idsByName.clear();
+        seqs.clear();
+        long hash = 0;
+        for (ToolChangedEvent.Change change : changes) {
+            seqs.put(change.idTool(), change.seq());
+            if (change.tool() == null) continue;
+            tools.put(change.idTool(), change.tool());
+            idsByName.computeIfAbsent(change.tool().getName(), k -> new HashSet<>()).add(change.idTool());
+            hash += mix(change.idTool(), change.seq());
+        }
+        summaries.keySet().retainAll(idsByName.keySet());
+        for (String name : idsByName.keySet()) recompute(name);
+        stateHash = hash;
+        log.info("ToolAvailabilityCache: {} nombres", idsByName.size());
+    }
+
+    // Al confirmar la transacción que hizo el cambio
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onToolChanged(ToolChangedEvent event) {
+        if (event.snapshot()) {
+            replaceAll(event.changes());
+            return;
+        }
+        long hash = stateHash;
+        for (ToolChangedEvent.Change change : event.changes()) {
+            Long applied = seqs.get(change.idTool());
+            if (applied != null && applied >= change.seq()) continue;
+            if (applied != null && tools.containsKey(change.idTool())) hash -= mix(change.idTool(), applied);
+            seqs.put(change.idTool(), change.seq());
+
+            if (change.tool() == null) {
+                removeRow(change.idTool());
+            } else {
+                putRow(change.tool());
+                hash += mix(change.idTool(), change.seq());
+            }
+        }
+        stateHash = hash;
+    }
+
+    // ------------------ Lecturas (sin BD) ------------------
+
+    // Nombre exacto (como findByname); si no existe, contadores en cero
+    public Map<String, Object> summary(String name) {
+        Map<String, Object> s = summaries.get(name);
+        return s != null ? s : emptySummary(name);
+    }
+
+    public String etag() {
+        return "\"" + Long.toHexString(stateHash) + "\"";
+    }
+
+    // Catálogo completo ordenado por nombre; ETag y cuerpo salen del mismo estado (se copian con el lock)
+    public Map<String, Object> snapshot() {
+        String etag;
+        List<Map<String, Object>> all;
+        synchronized (this) {
+            etag = etag();
+            all = new ArrayList<>(summaries.values());
+        }
+        all.sort(Comparator.comparing(s -> String.valueOf(s.get("name"))));
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("etag", etag);
+        out.put("tools", all);
+        return out;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolCategoryStatsEntity;
+import com.example.inventoryservice.entities.ToolChangeEntity;
+import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.repositories.ToolCategoryStatsRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+// Agregados por categoría y por estado (GET /api/v1/tools/stats) sin recorrer el catálogo:
+// tool_category_stats tiene una fila por categoría y ToolChangeFeed le pasa cada bloque de cambios como
+// (antes, después), con "antes" sacado del último registro del feed de cada herramienta. La diferencia se
+// inserta en tool_category_stats_delta en la misma transacción del cambio (sin esperar por la fila de la
+// categoría) y fold() la pasa a tool_category_stats cada fold-ms. Las lecturas suman ambas tablas.
+@Service
+public class ToolCategoryStats {
+
+    private static final String CURRENT_STATS =
+            "SELECT category, SUM(tools) AS tools, SUM(available) AS available, SUM(loaned) AS loaned, " +
+                    "SUM(in_repair) AS in_repair, SUM(decommissioned) AS decommissioned, " +
+                    "SUM(available_value) AS available_value, SUM(loaned_value) AS loaned_value, " +
+                    "SUM(in_repair_value) AS in_repair_value, SUM(decommissioned_value) AS decommissioned_value FROM (" +
+                    "SELECT category, tools, available, loaned, in_repair, decommissioned, available_value, loaned_value, " +
+                    "in_repair_value, decommissioned_value FROM tool_category_stats UNION ALL " +
+                    "SELECT category, tools, available, loaned, in_repair, decommissioned, available_value, loaned_value, " +
+                    "in_repair_value, decommissioned_value FROM tool_category_stats_delta" +
+                    ") s GROUP BY category ORDER BY category";
+
+    @Autowired
+    private ToolCategoryStatsRepository statsRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // ------------------ Mantención ------------------
+
+    // [tools, available, loaned, inRepair, decommissioned] y el valor de reposición de cada estado
+    private static void accumulate(Map<String, double[]> deltas, String category, int sign,
+                                   int available, int loaned, int inRepair, int decommissioned, double toolValue) {
+        double[] d = deltas.computeIfAbsent(category, k -> new double[9]);
+        d[0] += sign;
+        d[1] += sign * available;
+        d[2] += sign * loaned;
+        d[3] += sign * inRepair;
+        d[4] += sign * decommissioned;
+        d[5] += sign * available * toolValue;
+        d[6] += sign * loaned * toolValue;
+        d[7] += sign * inRepair * toolValue;
+        d[8] += sign * decommissioned * toolValue;
+    }
+
+    // Un bloque de cambios: before = último registro del feed de cada herramienta tocada (las que no tenían
+    // registro no aparecen); after = filas que siguen en el catálogo. Una escritura por categoría afectada.
+    public void apply(Collection<ToolChangeEntity> before, Collection<ToolEntity> after) {
+        Map<String, double[]> deltas = new LinkedHashMap<>();
+        for (ToolChangeEntity b : before) {
+            if (b.isDeleted()) continue;
+            accumulate(deltas, b.getCategory(), -1, b.getAvailable(), b.getLoaned(),
+                    b.getInRepair(), b.getDecommissioned(), b.getToolValue());
+        }
+        for (ToolEntity a : after) {
+            accumulate(deltas, a.getCategory(), 1, a.getAvailable(), a.getLoaned(),
+                    a.getInRepair(), a.getDecommissioned(), a.getToolValue());
+        }
+
+        for (Map.Entry<String, double[]> e : deltas.entrySet()) {
+            double[] d = e.getValue();
+            if (Arrays.stream(d).allMatch(x -> x == 0)) continue;
+            statsRepository.addDelta(e.getKey(), (long) d[0], (long) d[1], (long) d[2], (long) d[3], (long) d[4],
+                    d[5], d[6], d[7], d[8]);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${inventory.category-stats.fold-ms:5000}",
+            fixedDelayString = "${inventory.category-stats.fold-ms:5000}")
+    public void fold() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> statsRepository.foldDeltas());
+    }
+
+    // ------------------ Lectura ------------------
+
+    private static Map<String, Object> view(long tools, long available, long loaned, long inRepair, long decommissioned,
+                                            double availableValue, double loanedValue, double inRepairValue,
+                                            double decommissionedValue) {
+        long units = available + loaned + inRepair + decommissioned;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("tools", tools);
+        m.put("units", units);
+        m.put("available", available);
+        m.put("loaned", loaned);
+        m.put("inRepair", inRepair);
+        m.put("decommissioned", decommissioned);
+        m.put("inventoryValue", availableValue + loanedValue + inRepairValue);
+        m.put("valueAtRisk", loanedValue + inRepairValue);       // prestado + en reparación
+        m.put("decommissionRate", units == 0 ? 0.0 : (double) decommissioned / units);
+        return m;
+    }
+
+    // Fila agregada + diferencias aún sin plegar, en un solo statement (una fila plegada está en una tabla o en la otra)
+    private List<ToolCategoryStatsEntity> current() {
+        return jdbcTemplate.query(CURRENT_STATS, (rs, rowNum) -> new ToolCategoryStatsEntity(
+                rs.getString("category"), rs.getLong("tools"), rs.getLong("available"), rs.getLong("loaned"),
+                rs.getLong("in_repair"), rs.getLong("decommissioned"), rs.getDouble("available_value"),
+                rs.getDouble("loaned_value"), rs.getDouble("in_repair_value"), rs.getDouble("decommissioned_value")));
+    }
+
+    // Una fila por categoría más el total por estado; el costo depende de la cantidad de categorías (y de las
+    // diferencias de los últimos fold-ms), no del catálogo
+    public Map<String, Object> stats() {
+        long[] total = new long[5];
+        double[] totalValue = new double[4];
+        List<Map<String, Object>> categories = new ArrayList<>();
+
+        for (ToolCategoryStatsEntity s : current()) {
+            if (s.getTools() == 0) continue;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("category", s.getCategory());
+            m.putAll(view(s.getTools(), s.getAvailable(), s.getLoaned(), s.getInRepair(), s.getDecommissioned(),
+                    s.getAvailableValue(), s.getLoanedValue(), s.getInRepairValue(), s.getDecommissionedValue()));
+            categories.add(m);
+
+            total[0] += s.getTools();
+            total[1] += s.getAvailable();
+            total[2] += s.getLoaned();
+            total[3] += s.getInRepair();
+            total[4] += s.getDecommissioned();
+            totalValue[0] += s.getAvailableValue();
+            totalValue[1] += s.getLoanedValue();
+            totalValue[2] += s.getInRepairValue();
+            totalValue[3] += s.getDecommissionedValue();
+        }
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("totals", view(total[0], total[1], total[2], total[3], total[4],
+                totalValue[0], totalValue[1], totalValue[2], totalValue[3]));
+        out.put("categories", categories);
+        return out;
+    }
+}
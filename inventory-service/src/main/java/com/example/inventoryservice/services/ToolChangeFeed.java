@@ -0,0 +1,337 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolChangeEntity;
+import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.events.ToolChangedEvent;
+import com.example.inventoryservice.repositories.ToolChangeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Registro de cambios del catálogo para réplicas locales (loan-service, pricing, reporting):
+//   - ToolService / ToolImportService llaman a record() dentro de la transacción del cambio, con el lock de las
+//     filas de tool_catalog ya tomado: seq sale de la secuencia tool_changes_seq y, para una misma herramienta,
+//     crece en orden de commit. Escritores de herramientas distintas no se esperan entre sí.
+//   - un bloque de filas (un chunk del import) se escribe con un INSERT y publica un solo ToolChangedEvent
+//   - cada registro guarda el txid de su transacción. GET /changes solo entrega registros con txid menor que el
+//     xmin de la foto actual (pg_snapshot_xmin): esas transacciones ya terminaron, así que nada confirmado más
+//     tarde puede quedar detrás del cursor. El cursor (position) es ese límite.
+//   - una transacción larga (de cualquier tabla) deja el límite quieto hasta que termina. Por eso cada respuesta
+//     lleva lagMs: hace cuánto la lectura ya estaba completa. Se saca de las fotos vistas por esta instancia
+//     (xmax de la foto y cuándo se tomó): si position >= xmax de una foto tomada en T, todo lo confirmado antes
+//     de T está bajo position. Las réplicas miden su antigüedad con eso y no con la hora de la respuesta.
+//   - GET /changes espera (long-poll) hasta wait-ms si no hay nada nuevo
+//   - con el registro anterior de cada herramienta actualiza tool_category_stats (ToolCategoryStats)
+//   - follow() lee el feed cada follow-ms y se lo pasa a los cachés en memoria de esta instancia como
+//     ToolChangedEvent (así ven los cambios de otras instancias); cada resync-ms les manda la foto completa
+//   - se compacta cada compact-ms dejando el último cambio por herramienta (las eliminaciones se conservan)
+@Service
+public class ToolChangeFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolChangeFeed.class);
+
+    private static final String INSERT_CHANGES =
+            "INSERT INTO tool_changes (seq, txid, id_tool, name, category, tool_value, available, loaned, in_repair, " +
+                    "decommissioned, deleted, changed_at) " +
+                    "SELECT c.seq, pg_current_xact_id()::text::bigint, c.id_tool, c.name, c.category, c.tool_value, " +
+                    "c.available, c.loaned, c.in_repair, c.decommissioned, c.deleted, ? " +
+                    "FROM unnest(?::bigint[], ?::bigint[], ?::text[], ?::text[], ?::float8[], ?::int4[], ?::int4[], " +
+                    "?::int4[], ?::int4[], ?::boolean[]) " +
+                    "AS c(seq, id_tool, name, category, tool_value, available, loaned, in_repair, decommissioned, deleted)";
+
+    // xmin: transacciones con txid menor ya terminaron (confirmadas o no). xmax: las que empiecen después
+    // tendrán txid mayor o igual
+    private static final String HORIZON = "SELECT pg_snapshot_xmin(s)::text::bigint, pg_snapshot_xmax(s)::text::bigint " +
+            "FROM pg_current_snapshot() s";
+
+    // Cuánto se recuerdan las fotos para calcular lagMs; un cursor más atrasado que esto recibe lagMs null
+    private static final long OBSERVATIONS_MS = 600_000;
+
+    // Intervalo de relectura mientras se espera: cubre cambios confirmados por otras instancias
+    private static final long POLL_SLICE_MS = 1000;
+
+    private static final int FOLLOW_BATCH = 1000;
+
+    @Autowired
+    private ToolChangeRepository changeRepository;
+
+    @Autowired
+    private ToolCategoryStats categoryStats;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${inventory.change-feed.retention-hours:24}")
+    private long retentionHours;
+
+    @Value("${inventory.change-feed.resync-ms:600000}")
+    private long resyncMs;
+
+    private final Object newChanges = new Object();
+
+    // xmax de cada foto -> cuándo se tomó (ms de esta JVM); crecen juntos
+    private final TreeMap<Long, Long> observations = new TreeMap<>();
+
+    // Hasta dónde los cachés de esta instancia recibieron el feed; -1: falta la foto inicial
+    private long followed = -1;
+    private long followedSnapshotAt = 0;
+
+    // ------------------ Escritura ------------------
+
+    // changes: id -> fila ya actualizada (null si se eliminó). Se escribe en la transacción de quien llama;
+    // los cachés en memoria reciben el ToolChangedEvent al confirmar.
+    public void record(Map<Long, ToolEntity> changes) {
+        if (changes.isEmpty()) return;
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            int n = changes.size();
+            List<Long> seqs = jdbcTemplate.queryForList(
+                    "SELECT nextval('tool_changes_seq') FROM generate_series(1, ?)", Long.class, n);
+
+            Long[] seq = new Long[n];
+            Long[] idTool = new Long[n];
+            String[] name = new String[n];
+            String[] category = new String[n];
+            Double[] toolValue = new Double[n];
+            Integer[] available = new Integer[n];
+            Integer[] loaned = new Integer[n];
+            Integer[] inRepair = new Integer[n];
+            Integer[] decommissioned = new Integer[n];
+            Boolean[] deleted = new Boolean[n];
+            // los últimos registros de estas herramientas son el "antes" del cambio para los agregados por categoría
+            List<ToolChangeEntity> before = changeRepository.findLatestByIdToolIn(changes.keySet().toArray(Long[]::new));
+            List<ToolChangedEvent.Change> published = new ArrayList<>(n);
+
+            int i = 0;
+            for (Map.Entry<Long, ToolEntity> e : changes.entrySet()) {
+                ToolEntity tool = e.getValue();
+
+                seq[i] = seqs.get(i);
+                idTool[i] = e.getKey();
+                name[i] = tool != null ? tool.getName() : null;
+                category[i] = tool != null ? tool.getCategory() : null;
+                toolValue[i] = tool != null ? tool.getToolValue() : 0;
+                available[i] = tool != null ? tool.getAvailable() : 0;
+                loaned[i] = tool != null ? tool.getLoaned() : 0;
+                inRepair[i] = tool != null ? tool.getInRepair() : 0;
+                decommissioned[i] = tool != null ? tool.getDecommissioned() : 0;
+                deleted[i] = tool == null;
+                published.add(new ToolChangedEvent.Change(e.getKey(), tool, seq[i]));
+                i++;
+            }
+
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(INSERT_CHANGES);
+                ps.setTimestamp(1, now);
+                ps.setArray(2, con.createArrayOf("int8", seq));
+                ps.setArray(3, con.createArrayOf("int8", idTool));
+                ps.setArray(4, con.createArrayOf("text", name));
+                ps.setArray(5, con.createArrayOf("text", category));
+                ps.setArray(6, con.createArrayOf("float8", toolValue));
+                ps.setArray(7, con.createArrayOf("int4", available));
+                ps.setArray(8, con.createArrayOf("int4", loaned));
+                ps.setArray(9, con.createArrayOf("int4", inRepair));
+                ps.setArray(10, con.createArrayOf("int4", decommissioned));
+                ps.setArray(11, con.createArrayOf("bool", deleted));
+                return ps;
+            });
+
+            // después del INSERT: con tool_changes ya tomada, la siembra de InventorySchemaMigrations no se cruza
+            categoryStats.apply(before, changes.values().stream().filter(Objects::nonNull).toList());
+
+            eventPublisher.publishEvent(new ToolChangedEvent(published, false));
+        });
+    }
+
+    // Despierta a los long-poll de esta instancia cuando el cambio ya es visible
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCommitted(ToolChangedEvent event) {
+        synchronized (newChanges) {
+            newChanges.notifyAll();
+        }
+    }
+
+    // ------------------ Lecturas ------------------
+
+    private static Map<String, Object> view(ToolChangeEntity c) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("seq", c.getSeq());
+        m.put("idTool", c.getIdTool());
+        m.put("deleted", c.isDeleted());
+        if (!c.isDeleted()) {
+            m.put("name", c.getName());
+            m.put("category", c.getCategory());
+            m.put("toolValue", c.getToolValue());
+            m.put("available", c.getAvailable());
+            m.put("loaned", c.getLoaned());
+            m.put("inRepair", c.getInRepair());
+            m.put("decommissioned", c.getDecommissioned());
+        }
+        return m;
+    }
+
+    // Límite de lectura; anota xmax con la hora de antes de la consulta (lo confirmado antes ya está en la foto)
+    private long horizon() {
+        long takenAt = System.currentTimeMillis();
+        long[] snapshot = jdbcTemplate.queryForObject(HORIZON, (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2)});
+        synchronized (observations) {
+            observations.put(snapshot[1], takenAt);
+            Map.Entry<Long, Long> oldest;
+            while ((oldest = observations.firstEntry()) != null && oldest.getValue() < takenAt - OBSERVATIONS_MS) {
+                observations.pollFirstEntry();
+            }
+        }
+        return snapshot[0];
+    }
+
+    // Hace cuánto (ms) lo leído hasta position estaba completo; null si no hay una foto conocida bajo position
+    private Long lagMs(long position) {
+        Map.Entry<Long, Long> seen;
+        synchronized (observations) {
+            seen = observations.floorEntry(position);
+        }
+        return seen != null ? Math.max(0, System.currentTimeMillis() - seen.getValue()) : null;
+    }
+
+    // Registros de transacciones ya terminadas desde position (a lo más ~limit: una transacción nunca se corta
+    // a la mitad). El límite se calcula antes de leer, así la lectura ve todo lo confirmado bajo él.
+    private Map.Entry<Long, List<ToolChangeEntity>> readFrom(long position, int limit) {
+        long horizon = horizon();
+        if (horizon <= position) return Map.entry(position, List.of());
+
+        List<ToolChangeEntity> rows = new ArrayList<>(
+                changeRepository.findByTxidGreaterThanEqualAndTxidLessThanOrderByTxidAscSeqAsc(position, horizon, Limit.of(limit)));
+        if (rows.size() < limit) return Map.entry(horizon, rows);
+
+        ToolChangeEntity last = rows.get(rows.size() - 1);
+        rows.addAll(changeRepository.findByTxidAndSeqGreaterThanOrderBySeqAsc(last.getTxid(), last.getSeq()));
+        return Map.entry(last.getTxid() + 1, rows);
+    }
+
+    private static List<ToolChangedEvent.Change> asChanges(List<ToolChangeEntity> rows) {
+        List<ToolChangedEvent.Change> changes = new ArrayList<>(rows.size());
+        for (ToolChangeEntity c : rows) {
+            ToolEntity tool = null;
+            if (!c.isDeleted()) {
+                tool = new ToolEntity(c.getIdTool(), c.getName(), c.getToolValue(), c.getCategory(),
+                        c.getAvailable(), c.getLoaned(), c.getInRepair(), c.getDecommissioned(), 0);
+            }
+            changes.add(new ToolChangedEvent.Change(c.getIdTool(), tool, c.getSeq()));
+        }
+        return changes;
+    }
+
+    // Cambios desde el cursor after (a lo más ~limit). Si no hay, espera hasta waitMs a que llegue alguno.
+    // position es el cursor para la siguiente llamada. Un mismo cambio puede llegar de nuevo después de un
+    // snapshot: gana el seq mayor de cada herramienta.
+    public Map<String, Object> changes(long after, int limit, long waitMs) {
+        if (after < 0) throw new IllegalArgumentException("after no puede ser negativo");
+        if (limit <= 0 || limit > 1000) throw new IllegalArgumentException("limit debe estar entre 1 y 1000");
+        if (waitMs < 0 || waitMs > 30000) throw new IllegalArgumentException("waitMs debe estar entre 0 y 30000");
+
+        long deadline = System.currentTimeMillis() + waitMs;
+        Map.Entry<Long, List<ToolChangeEntity>> read = readFrom(after, limit);
+        while (read.getValue().isEmpty() && System.currentTimeMillis() < deadline) {
+            synchronized (newChanges) {
+                try {
+                    newChanges.wait(Math.max(1, Math.min(POLL_SLICE_MS, deadline - System.currentTimeMillis())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            read = readFrom(read.getKey(), limit);
+        }
+
+        List<Map<String, Object>> changes = new ArrayList<>(read.getValue().size());
+        for (ToolChangeEntity c : read.getValue()) changes.add(view(c));
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("position", read.getKey());
+        out.put("lagMs", lagMs(read.getKey()));
+        out.put("changes", changes);
+        return out;
+    }
+
+    // Último registro de cada herramienta (eliminadas incluidas, para que un cambio más viejo que llegue después
+    // por /changes no la reviva) y la position desde la que seguir. REPEATABLE READ: el límite sale de la misma
+    // foto que las filas, y todo lo que esa foto no ve queda sobre él.
+    private Map.Entry<Long, List<ToolChangeEntity>> readSnapshot() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        return tx.execute(status -> {
+            long position = horizon();
+            return Map.entry(position, changeRepository.findLatestPerTool());
+        });
+    }
+
+    // La foto trae todo lo confirmado antes de tomarse (también lo que está sobre position): lagMs es su edad
+    public Map<String, Object> snapshot() {
+        long takenAt = System.currentTimeMillis();
+        Map.Entry<Long, List<ToolChangeEntity>> read = readSnapshot();
+        List<Map<String, Object>> tools = new ArrayList<>(read.getValue().size());
+        for (ToolChangeEntity c : read.getValue()) tools.add(view(c));
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("position", read.getKey());
+        out.put("lagMs", System.currentTimeMillis() - takenAt);
+        out.put("tools", tools);
+        return out;
+    }
+
+    // ------------------ Cachés en memoria ------------------
+
+    // Foto completa al arrancar y cada resync-ms; entre medio, lo nuevo del feed desde la última position.
+    // Lo que los cachés ya aplicaron por su propio evento llega de nuevo y se descarta por seq.
+    @Scheduled(fixedDelayString = "${inventory.change-feed.follow-ms:1000}")
+    public synchronized void follow() {
+        if (followed < 0 || System.currentTimeMillis() - followedSnapshotAt >= resyncMs) {
+            Map.Entry<Long, List<ToolChangeEntity>> read = readSnapshot();
+            eventPublisher.publishEvent(new ToolChangedEvent(asChanges(read.getValue()), true));
+            followed = read.getKey();
+            followedSnapshotAt = System.currentTimeMillis();
+            return;
+        }
+
+        while (true) {
+            Map.Entry<Long, List<ToolChangeEntity>> read = readFrom(followed, FOLLOW_BATCH);
+            if (!read.getValue().isEmpty()) {
+                eventPublisher.publishEvent(new ToolChangedEvent(asChanges(read.getValue()), false));
+            }
+            followed = read.getKey();
+            if (read.getValue().size() < FOLLOW_BATCH) return;
+        }
+    }
+
+    // ------------------ Compactación ------------------
+
+    @Scheduled(initialDelayString = "${inventory.change-feed.compact-ms:3600000}",
+            fixedDelayString = "${inventory.change-feed.compact-ms:3600000}")
+    public void compact() {
+        Integer removed = new TransactionTemplate(transactionManager).execute(status ->
+                changeRepository.deleteSuperseded(LocalDateTime.now().minusHours(retentionHours)));
+        if (removed != null && removed > 0) log.info("ToolChangeFeed: {} cambios compactados", removed);
+    }
+}
@@ -0,0 +1,333 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Import masivo del catálogo (POST /api/v1/tools/import): lee el archivo línea a línea (CSV o NDJSON),
+// agrupa cada bloque de chunk-size filas por (name, category, toolValue) y lo aplica en una transacción:
+//   - un INSERT ... SELECT FROM unnest(...) ON CONFLICT DO UPDATE para todo el bloque
+//   - un INSERT en kardex_outbox con un "Ingreso" por herramienta del bloque
+// El avance queda en memoria y se consulta con GET /import/{importId}. Lo confirmado queda además en tool_imports
+// (hasta qué línea del archivo): reenviar el mismo archivo con el mismo importId retoma desde ahí, sin volver a
+// sumar los bloques ya aplicados. Sin importId se genera uno nuevo y el reenvío es otro import.
+@Service
+public class ToolImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolImportService.class);
+
+    private static final int MAX_ERRORS = 100;
+    private static final int MAX_TRACKED_IMPORTS = 100;
+
+    private static final String UPSERT_CATALOG =
+            "INSERT INTO tool_catalog (name, category, tool_value, available, loaned, in_repair, decommissioned) " +
+                    "SELECT t.name, t.category, t.tool_value, t.quantity, 0, 0, 0 " +
+                    "FROM unnest(?::text[], ?::text[], ?::float8[], ?::int[]) AS t(name, category, tool_value, quantity) " +
+                    "ON CONFLICT (name, category, tool_value) DO UPDATE SET available = tool_catalog.available + EXCLUDED.available " +
+                    "RETURNING id, name, tool_value, category, available, loaned, in_repair, decommissioned";
+
+    private static final String INSERT_OUTBOX =
+            "INSERT INTO kardex_outbox (rut_customer, movement_type, movement_date, tool_name, tool_quantity, status, attempts, created_at) " +
+                    "SELECT ?, 'Ingreso', ?, t.tool_name, t.quantity, 'PENDING', 0, ? " +
+                    "FROM unnest(?::text[], ?::int[]) WITH ORDINALITY AS t(tool_name, quantity, ord) ORDER BY t.ord";
+
+    // Un reintento que llega mientras otro sigue aplicando bloques (otra instancia) no mueve la fila: se revierte
+    private static final String ADVANCE_IMPORT =
+            "UPDATE tool_imports SET last_line = ?, rows_imported = rows_imported + ?, " +
+                    "chunks_committed = chunks_committed + 1, updated_at = ? WHERE import_id = ? AND last_line = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ToolChangeFeed changeFeed;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${inventory.import.chunk-size:5000}")
+    private int chunkSize;
+
+    private final Map<String, Map<String, Object>> imports = new ConcurrentHashMap<>();
+
+    private record Key(String name, String category, double toolValue) {}
+
+    // ------------------ Avance ------------------
+
+    // Un import terminado (DONE o FAILED) se reemplaza: el reenvío retoma desde lo confirmado
+    private Map<String, Object> startProgress(String importId, String format) {
+        if (imports.size() >= MAX_TRACKED_IMPORTS) {
+            // se olvidan los imports terminados más antiguos
+            imports.entrySet().stream()
+                    .filter(e -> !"RUNNING".equals(e.getValue().get("status")))
+                    .min(Comparator.comparing(e -> String.valueOf(e.getValue().get("startedAt"))))
+                    .ifPresent(e -> imports.remove(e.getKey()));
+        }
+        Map<String, Object> progress = new ConcurrentHashMap<>();
+        progress.put("importId", importId);
+        progress.put("format", format);
+        progress.put("status", "RUNNING");
+        progress.put("rowsRead", 0L);
+        progress.put("rowsSkipped", 0L);
+        progress.put("rowsImported", 0L);
+        progress.put("rowsRejected", 0L);
+        progress.put("toolsMerged", 0L);
+        progress.put("chunksCommitted", 0L);
+        progress.put("errors", Collections.synchronizedList(new ArrayList<String>()));
+        progress.put("startedAt", LocalDateTime.now().toString());
+        Map<String, Object> previous = imports.putIfAbsent(importId, progress);
+        if (previous != null && ("RUNNING".equals(previous.get("status")) || !imports.replace(importId, previous, progress))) {
+            throw new IllegalArgumentException("El import " + importId + " está en curso");
+        }
+        return progress;
+    }
+
+    // Registra el import si es nuevo y devuelve la última línea ya confirmada (0 si es nuevo)
+    private long resumeLine(String importId, String format, String rutPerson) {
+        LocalDateTime now = LocalDateTime.now();
+        jdbcTemplate.update("INSERT INTO tool_imports (import_id, format, rut_person, last_line, rows_imported, " +
+                "chunks_committed, created_at, updated_at) VALUES (?, ?, ?, 0, 0, 0, ?, ?) ON CONFLICT (import_id) DO NOTHING",
+                importId, format, rutPerson, now, now);
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT format, last_line FROM tool_imports WHERE import_id = ?", importId);
+        if (!format.equals(row.get("format"))) {
+            throw new IllegalArgumentException("El import " + importId + " se inició con format " + row.get("format"));
+        }
+        return ((Number) row.get("last_line")).longValue();
+    }
+
+    private static void add(Map<String, Object> progress, String field, long delta) {
+        progress.merge(field, delta, (a, b) -> (Long) a + (Long) b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void reject(Map<String, Object> progress, long line, String error) {
+        add(progress, "rowsRejected", 1);
+        List<String> errors = (List<String>) progress.get("errors");
+        if (errors.size() < MAX_ERRORS) errors.add("línea " + line + ": " + error);
+    }
+
+    public Map<String, Object> getProgress(String importId) {
+        Map<String, Object> progress = imports.get(importId);
+        if (progress == null) throw new IllegalArgumentException("Import no encontrado");
+        return progress;
+    }
+
+    // ------------------ Parseo ------------------
+
+    // CSV simple con comillas dobles ("a,b" y "" como comilla escapada)
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString().trim());
+        return fields;
+    }
+
+    private ToolEntity toTool(Map<String, ?> row) {
+        ToolEntity tool = new ToolEntity();
+        Object name = row.get("name");
+        Object category = row.get("category");
+        Object toolValue = row.get("toolValue");
+        Object stock = row.get("stock");
+
+        if (name == null || name.toString().isBlank()) throw new IllegalArgumentException("Nombre requerido");
+        if (category == null || category.toString().isBlank()) throw new IllegalArgumentException("Categoría requerida");
+        tool.setName(name.toString().trim());
+        tool.setCategory(category.toString().trim());
+        try {
+            tool.setToolValue(Double.parseDouble(String.valueOf(toolValue)));
+            tool.setStock(Integer.parseInt(String.valueOf(stock)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("toolValue / stock inválidos");
+        }
+        if (tool.getToolValue() <= 0) throw new IllegalArgumentException("Valor de reposición inválido");
+        if (tool.getStock() <= 0) throw new IllegalArgumentException("Stock debe ser mayor a 0");
+        return tool;
+    }
+
+    // ------------------ Escritura por bloque ------------------
+
+    // Aplica el bloque y mueve tool_imports de fromLine a toLine en la misma transacción; devuelve la última
+    // línea confirmada
+    private long flush(Map<Key, Integer> chunk, String rutPerson, Map<String, Object> progress, long rowsInChunk,
+                       String importId, long fromLine, long toLine) {
+        if (chunk.isEmpty()) return fromLine;
+
+        int n = chunk.size();
+        String[] names = new String[n];
+        String[] categories = new String[n];
+        Double[] values = new Double[n];
+        Integer[] quantities = new Integer[n];
+        int i = 0;
+        for (Map.Entry<Key, Integer> e : chunk.entrySet()) {
+            names[i] = e.getKey().name();
+            categories[i] = e.getKey().category();
+            values[i] = e.getKey().toolValue();
+            quantities[i] = e.getValue();
+            i++;
+        }
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            // primero la fila del import: un intento paralelo del mismo importId espera aquí y después no la encuentra
+            if (jdbcTemplate.update(ADVANCE_IMPORT, toLine, rowsInChunk, Timestamp.valueOf(LocalDateTime.now()),
+                    importId, fromLine) != 1) {
+                throw new IllegalStateException("El import " + importId + " avanzó en otro intento");
+            }
+
+            // las filas ya actualizadas vuelven en el RETURNING: sin releerlas ni dejar miles de entidades en la
+            // sesión (cada consulta posterior de la transacción las revisaría al hacer flush)
+            List<ToolEntity> merged = jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(UPSERT_CATALOG);
+                ps.setArray(1, con.createArrayOf("text", names));
+                ps.setArray(2, con.createArrayOf("text", categories));
+                ps.setArray(3, con.createArrayOf("float8", values));
+                ps.setArray(4, con.createArrayOf("int4", quantities));
+                return ps;
+            }, (rs, rowNum) -> new ToolEntity(rs.getLong("id"), rs.getString("name"), rs.getDouble("tool_value"),
+                    rs.getString("category"), rs.getInt("available"), rs.getInt("loaned"), rs.getInt("in_repair"),
+                    rs.getInt("decommissioned"), 0));
+
+            LocalDateTime now = LocalDateTime.now();
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(INSERT_OUTBOX);
+                ps.setString(1, rutPerson);
+                ps.setDate(2, Date.valueOf(LocalDate.now()));
+                ps.setTimestamp(3, Timestamp.valueOf(now));
+                ps.setArray(4, con.createArrayOf("text", names));
+                ps.setArray(5, con.createArrayOf("int4", quantities));
+                return ps;
+            });
+
+            // un solo registro en bloque en el feed; los cachés en memoria (índice de nombres, disponibilidad)
+            // lo reciben al confirmar
+            Map<Long, ToolEntity> changed = new LinkedHashMap<>();
+            for (ToolEntity tool : merged) changed.put(tool.getId(), tool);
+            changeFeed.record(changed);
+        });
+
+        add(progress, "rowsImported", rowsInChunk);
+        add(progress, "toolsMerged", n);
+        add(progress, "chunksCommitted", 1);
+        chunk.clear();
+        return toLine;
+    }
+
+    // ------------------ Import ------------------
+
+    // format: "csv" (primera línea = encabezado con name,category,toolValue,stock) o "ndjson" (un objeto por línea).
+    // Cada bloque confirmado queda aplicado aunque un bloque posterior falle (el avance indica hasta dónde llegó);
+    // reenviando el mismo archivo con el mismo importId se saltan las líneas ya confirmadas (rowsSkipped).
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> importTools(InputStream body, String format, String rutPerson, String importId) {
+        if (rutPerson == null || rutPerson.isBlank()) throw new IllegalArgumentException("rutPerson es requerido");
+        if (!"csv".equals(format) && !"ndjson".equals(format)) throw new IllegalArgumentException("format inválido: " + format);
+
+        String id = importId != null && !importId.isBlank() ? importId : UUID.randomUUID().toString();
+        Map<String, Object> progress = startProgress(id, format);
+
+        Map<Key, Integer> chunk = new LinkedHashMap<>();
+        long rowsInChunk = 0;
+        long lineNumber = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            long committedLine = resumeLine(id, format, rutPerson);
+            if (committedLine > 0) progress.put("resumedAfterLine", committedLine);
+            List<String> header = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+
+                if ("csv".equals(format) && header == null) {
+                    header = splitCsv(line.replace("\uFEFF", "")); // BOM de Excel
+                    if (!header.containsAll(List.of("name", "category", "toolValue", "stock"))) {
+                        throw new IllegalArgumentException("El encabezado CSV debe tener name,category,toolValue,stock");
+                    }
+                    continue;
+                }
+                if (lineNumber <= committedLine) {
+                    add(progress, "rowsSkipped", 1);
+                    continue;
+                }
+
+                add(progress, "rowsRead", 1);
+                ToolEntity tool;
+                try {
+                    Map<String, Object> row;
+                    if ("csv".equals(format)) {
+                        List<String> fields = splitCsv(line);
+                        row = new HashMap<>();
+                        for (int c = 0; c < header.size() && c < fields.size(); c++) row.put(header.get(c), fields.get(c));
+                    } else {
+                        row = objectMapper.readValue(line, Map.class);
+                    }
+                    tool = toTool(row);
+                } catch (Exception e) {
+                    reject(progress, lineNumber, e.getMessage());
+                    continue;
+                }
+
+                chunk.merge(new Key(tool.getName(), tool.getCategory(), tool.getToolValue()), tool.getStock(), Integer::sum);
+                rowsInChunk++;
+                if (rowsInChunk >= chunkSize) {
+                    committedLine = flush(chunk, rutPerson, progress, rowsInChunk, id, committedLine, lineNumber);
+                    rowsInChunk = 0;
+                }
+            }
+            flush(chunk, rutPerson, progress, rowsInChunk, id, committedLine, lineNumber);
+
+            progress.put("status", "DONE");
+        } catch (IOException | RuntimeException e) {
+            progress.put("status", "FAILED");
+            ((List<String>) progress.get("errors")).add("línea " + lineNumber + ": " + e.getMessage());
+            log.error("Import {} falló en la línea {}", id, lineNumber, e);
+        } finally {
+            progress.put("finishedAt", LocalDateTime.now().toString());
+        }
+        return progress;
+    }
+}
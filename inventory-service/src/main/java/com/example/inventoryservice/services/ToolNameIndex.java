@@ -0,0 +1,219 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.events.ToolChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Índice en memoria de nombres y categorías del catálogo para GET /search?q=:
+//   prefix: diccionario ordenado de términos (nombre completo, palabras del nombre y de la categoría)
+//   fuzzy:  trigramas de las palabras, ranking por similitud (Dice) con el texto buscado
+// Sin mayúsculas ni tildes ("taladro" encuentra "Taladro Percutor"). Se alimenta solo de ToolChangedEvent:
+// los cambios de esta instancia al confirmar, los de otras por ToolChangeFeed.follow() y la foto completa al
+// arrancar y cada resync-ms. Los eventos pueden llegar fuera de orden (dos commits seguidos de la misma
+// herramienta, o un cambio propio que vuelve por el feed): se guarda el seq aplicado por herramienta y se
+// descarta lo que no sea más nuevo.
+@Service
+public class ToolNameIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolNameIndex.class);
+
+    // Similitud mínima para que un resultado fuzzy cuente
+    private static final double MIN_SIMILARITY = 0.3;
+
+    private record Entry(ToolEntity tool, String name, String category, Set<String> grams) {}
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final Map<Long, Long> seqs = new HashMap<>();       // incluye las eliminadas
+    private final NavigableMap<String, Set<Long>> terms = new TreeMap<>();
+    private final Map<String, Set<Long>> trigrams = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // ------------------ Normalización ------------------
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        String plain = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return plain.toLowerCase(Locale.ROOT).trim().replaceAll("\\s+", " ");
+    }
+
+    private static List<String> words(String normalized) {
+        if (normalized.isEmpty()) return List.of();
+        return Arrays.asList(normalized.split(" "));
+    }
+
+    private static Set<String> trigramsOf(String normalized) {
+        Set<String> grams = new HashSet<>();
+        for (String word : words(normalized)) {
+            String padded = " " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    // ------------------ Mantención ------------------
+
+    private static void link(Map<String, Set<Long>> index, String key, long id) {
+        index.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+    }
+
+    private static void unlink(Map<String, Set<Long>> index, String key, long id) {
+        Set<Long> ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) index.remove(key);
+    }
+
+    private Set<String> termsOf(Entry e) {
+        Set<String> keys = new HashSet<>(words(e.name()));
+        keys.add(e.name());
+        keys.addAll(words(e.category()));
+        return keys;
+    }
+
+    private void removeLocked(long id) {
+        Entry old = entries.remove(id);
+        if (old == null) return;
+        for (String term : termsOf(old)) unlink(terms, term, id);
+        for (String gram : old.grams()) unlink(trigrams, gram, id);
+    }
+
+    private void putLocked(ToolEntity tool) {
+        removeLocked(tool.getId());
+        String name = normalize(tool.getName());
+        String category = normalize(tool.getCategory());
+        Set<String> grams = trigramsOf(name + " " + category);
+
+        Entry e = new Entry(tool, name, category, grams);
+        entries.put(tool.getId(), e);
+        for (String term : termsOf(e)) link(terms, term, tool.getId());
+        for (String gram : grams) link(trigrams, gram, tool.getId());
+    }
+
+    // Al confirmar la transacción que hizo el cambio (si hace rollback, el índice no cambia)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onToolChanged(ToolChangedEvent event) {
+        int indexed;
+        lock.writeLock().lock();
+        try {
+            if (event.snapshot()) {
+                entries.clear();
+                seqs.clear();
+                terms.clear();
+                trigrams.clear();
+            }
+            for (ToolChangedEvent.Change change : event.changes()) {
+                if (seqs.getOrDefault(change.idTool(), -1L) >= change.seq()) continue;
+                seqs.put(change.idTool(), change.seq());
+                if (change.tool() == null) removeLocked(change.idTool());
+                else putLocked(change.tool());
+            }
+            indexed = entries.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (event.snapshot()) log.info("ToolNameIndex: {} herramientas indexadas", indexed);
+    }
+
+    // ------------------ Búsqueda ------------------
+
+    private Map<String, Object> result(Entry e, double score) {
+        ToolEntity tool = e.tool();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("id", tool.getId());
+        m.put("name", tool.getName());
+        m.put("category", tool.getCategory());
+        m.put("toolValue", tool.getToolValue());
+        m.put("available", tool.getAvailable());
+        m.put("loaned", tool.getLoaned());
+        m.put("inRepair", tool.getInRepair());
+        m.put("decommissioned", tool.getDecommissioned());
+        m.put("score", score);
+        return m;
+    }
+
+    // Puntaje prefix: nombre exacto > nombre empieza con q > alguna palabra del nombre > solo categoría
+    private double prefixScore(Entry e, String q, List<String> qWords) {
+        if (e.name().equals(q)) return 1.0;
+        if (e.name().startsWith(q)) return 0.9;
+        boolean allInName = qWords.stream().allMatch(w -> words(e.name()).stream().anyMatch(n -> n.startsWith(w)));
+        if (allInName) return 0.7;
+        return 0.4;
+    }
+
+    private Set<Long> idsWithPrefix(String prefix) {
+        Set<Long> ids = new HashSet<>();
+        for (Set<Long> match : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) ids.addAll(match);
+        return ids;
+    }
+
+    private double dice(Set<String> a, Set<String> b) {
+        int common = 0;
+        for (String gram : a) if (b.contains(gram)) common++;
+        return 2.0 * common / (a.size() + b.size());
+    }
+
+    // Mejores "limit" por puntaje (desempate: nombre más corto, luego alfabético) sin ordenar todos los candidatos
+    private List<Map<String, Object>> top(Map<Long, Double> scores, int limit) {
+        Comparator<Map.Entry<Long, Double>> order = Comparator
+                .comparing((Map.Entry<Long, Double> s) -> s.getValue())
+                .thenComparing(s -> -entries.get(s.getKey()).name().length())
+                .thenComparing(s -> entries.get(s.getKey()).name(), Comparator.reverseOrder());
+
+        PriorityQueue<Map.Entry<Long, Double>> heap = new PriorityQueue<>(order);
+        for (Map.Entry<Long, Double> s : scores.entrySet()) {
+            heap.offer(s);
+            if (heap.size() > limit) heap.poll();
+        }
+
+        List<Map<String, Object>> out = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            Map.Entry<Long, Double> s = heap.poll();
+            out.add(result(entries.get(s.getKey()), s.getValue()));
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    public List<Map<String, Object>> search(String query, String mode, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty()) throw new IllegalArgumentException("q es requerido");
+
+        lock.readLock().lock();
+        try {
+            Map<Long, Double> scores = new HashMap<>();
+
+            if ("fuzzy".equals(mode)) {
+                Set<String> qGrams = trigramsOf(q);
+                Set<Long> candidates = new HashSet<>();
+                for (String gram : qGrams) candidates.addAll(trigrams.getOrDefault(gram, Set.of()));
+                for (Long id : candidates) {
+                    double similarity = dice(qGrams, entries.get(id).grams());
+                    if (similarity >= MIN_SIMILARITY) scores.put(id, similarity);
+                }
+            } else {
+                // cada palabra de q debe ser prefijo de algún término (nombre o categoría)
+                List<String> qWords = words(q);
+                Set<Long> candidates = null;
+                for (String word : qWords) {
+                    Set<Long> ids = idsWithPrefix(word);
+                    if (candidates == null) candidates = ids;
+                    else candidates.retainAll(ids);
+                    if (candidates.isEmpty()) break;
+                }
+                candidates.addAll(idsWithPrefix(q));
+                for (Long id : candidates) scores.put(id, prefixScore(entries.get(id), q, qWords));
+            }
+
+            return top(scores, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package com.example.inventoryservice.services;
 
 
+import com.example.inventoryservice.entities.KardexOutboxEntity;
 import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.entities.ToolReservationEntity;
+import com.example.inventoryservice.repositories.KardexOutboxRepository;
 import com.example.inventoryservice.repositories.ToolRepository;
+import com.example.inventoryservice.repositories.ToolReservationRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
 
 @Service
@@ -19,11 +24,22 @@ public class ToolService {
     private ToolRepository toolRepository;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private ToolReservationRepository reservationRepository;
 
-    // Service name register in Eureka
-    // (debes crear este endpoint en kardex-service)
-    private static final String KARDEX_SERVICE_URL = "http://kardex-service/api/v1/kardex/movements";
+    @Autowired
+    private KardexOutboxRepository kardexOutboxRepository;
+
+    @Autowired
+    private ToolNameIndex toolNameIndex;
+
+    @Autowired
+    private ToolAvailabilityCache availabilityCache;
+
+    @Autowired
+    private ToolChangeFeed changeFeed;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
     private final List<String> states = Arrays.asList(
             "Disponible", "Prestada", "En reparación", "Dada de baja"
@@ -57,263 +73,483 @@ public class ToolService {
             throw new IllegalArgumentException("Estado inválido: " + state);
     }
 
+    // El movimiento queda en kardex_outbox dentro de la misma transacción; KardexOutboxRelay lo envía a
+    // kardex-service después. Así el stock no depende de que kardex responda (ni espera su latencia).
     private void postKardexMovement(String rutPerson, String movementType, String toolName, int qty) {
-        // Sin DTO: enviamos Map -> JSON
-        Map<String, Object> body = new HashMap<>();
-        body.put("rutCustomer", rutPerson);
-        body.put("movementType", movementType);
-        body.put("movementDate", LocalDate.now().toString()); // ISO string
-        body.put("toolName", toolName);
-        body.put("toolQuantity", qty);
+        KardexOutboxEntity movement = new KardexOutboxEntity();
+        movement.setRutCustomer(rutPerson);
+        movement.setMovementType(movementType);
+        movement.setMovementDate(LocalDate.now());
+        movement.setToolName(toolName);
+        movement.setToolQuantity(qty);
+        movement.setStatus("PENDING");
+        movement.setAttempts(0);
+        movement.setCreatedAt(LocalDateTime.now());
+        kardexOutboxRepository.save(movement);
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    // ------------------ Contadores por estado ------------------
 
-        HttpEntity<Map<String, Object>> req = new HttpEntity<>(body, headers);
+    private int countOf(ToolEntity tool, String state) {
+        return switch (state) {
+            case "Disponible" -> tool.getAvailable();
+            case "Prestada" -> tool.getLoaned();
+            case "En reparación" -> tool.getInRepair();
+            default -> tool.getDecommissioned();
+        };
+    }
 
-        try {
-            restTemplate.exchange(KARDEX_SERVICE_URL, HttpMethod.POST, req, Void.class);
-        } catch (Exception e) {
-            // Decide si quieres "no romper" la operación si kardex falla.
-            // Por trazabilidad, normalmente conviene FALLAR.
-            throw new RuntimeException("No se pudo registrar el movimiento en Kardex (kardex-service)", e);
+    private void addTo(ToolEntity tool, String state, int delta) {
+        switch (state) {
+            case "Disponible" -> tool.setAvailable(tool.getAvailable() + delta);
+            case "Prestada" -> tool.setLoaned(tool.getLoaned() + delta);
+            case "En reparación" -> tool.setInRepair(tool.getInRepair() + delta);
+            default -> tool.setDecommissioned(tool.getDecommissioned() + delta);
         }
     }
 
-    // ------------------ RF1.1 Registrar nuevas herramientas ------------------
+    // Un solo UPDATE condicional (stock >= cantidad en el WHERE): dos requests concurrentes no pueden
+    // prestar la misma unidad, y no se bloquea la fila antes de tiempo
+    private boolean move(Long idTool, String fromState, String toState, int quantity) {
+        int[] delta = new int[states.size()];
+        delta[states.indexOf(fromState)] -= quantity;
+        delta[states.indexOf(toState)] += quantity;
+        return toolRepository.applyDelta(idTool, delta[0], delta[1], delta[2], delta[3]) == 1;
+    }
 
-    @Transactional
-    public ToolEntity saveTool(ToolEntity tool, String rutPerson) {
+    // Registra la fila ya actualizada en el feed (tool_changes); los cachés en memoria (índice de nombres,
+    // disponibilidad) la reciben al confirmar. Se llama con la fila ya bloqueada por el UPDATE.
+    private void toolChanged(ToolEntity tool) {
+        changeFeed.record(Map.of(tool.getId(), tool));
+    }
 
-        validateNewTool(tool);
+    private void reindex(Long idTool) {
+        toolChanged(toolRepository.findByid(idTool));
+    }
 
-        // Estado inicial (regla negocio: válido; y normalmente al registrar queda Disponible)
-        tool.setInitialState("Disponible");
-        validateState(tool.getInitialState());
-
-        // Si existe misma herramienta (mismo nombre, categoría, valor, fee, estado Disponible),
-        // sumo stock al registro existente.
-        List<ToolEntity> existingTools = toolRepository.findByname(tool.getName());
-        ToolEntity toolToSave = tool;
-        boolean merged = false;
-
-        for (ToolEntity existing : existingTools) {
-            boolean same =
-                    "Disponible".equals(existing.getInitialState()) &&
-                            Objects.equals(existing.getCategory(), tool.getCategory()) &&
-                            existing.getToolValue() == tool.getToolValue();
-
-            if (same) {
-                existing.setStock(existing.getStock() + tool.getStock());
-                toolToSave = existing;
-                merged = true;
-                break;
-            }
+    // Mueve unidades entre estados y registra el movimiento en Kardex
+    private ToolEntity transition(Long idTool, String rutPerson, int quantity, String fromState, String toState,
+                                  List<String> allowedFrom, String movementType, String quantityMsg, String stockMsg) {
+        validateQuantity(quantity, quantityMsg);
+        validateState(fromState);
+        if (!allowedFrom.contains(fromState)) {
+            throw new IllegalArgumentException("No se puede pasar de " + fromState + " a " + toState);
         }
+        if (idTool == null) throw new IllegalArgumentException("Herramienta no encontrada");
 
-        if (!merged) {
-            // si es nuevo registro, ya quedó como Disponible arriba
+        if (!move(idTool, fromState, toState, quantity)) {
+            if (toolRepository.findByid(idTool) == null) throw new IllegalArgumentException("Herramienta no encontrada");
+            throw new IllegalArgumentException(stockMsg);
         }
 
-        ToolEntity savedTool = toolRepository.save(toolToSave);
+        ToolEntity tool = toolRepository.findByid(idTool);
+        postKardexMovement(rutPerson, movementType, tool.getName(), quantity);
+        toolChanged(tool);
+        return tool;
+    }
 
-        // Regla de negocio: registrar herramienta genera movimiento en Kardex
-        postKardexMovement(rutPerson, "Ingreso", savedTool.getName(), tool.getStock());
+    // Registro con el formato del modelo anterior (id, name, category, toolValue, initialState, stock)
+    private Map<String, Object> lot(ToolEntity tool, String state, int stock) {
+        Map<String, Object> lot = new LinkedHashMap<>();
+        lot.put("id", tool.getId());
+        lot.put("name", tool.getName());
+        lot.put("category", tool.getCategory());
+        lot.put("toolValue", tool.getToolValue());
+        lot.put("initialState", state);
+        lot.put("stock", stock);
+        return lot;
+    }
 
-        return savedTool;
+    // Vista compatible con el modelo anterior: un "lote" por estado con unidades
+    private List<Map<String, Object>> lotView(ToolEntity tool) {
+        List<Map<String, Object>> lots = new ArrayList<>();
+        for (String state : states) {
+            int stock = countOf(tool, state);
+            if (stock > 0) lots.add(lot(tool, state, stock));
+        }
+        return lots;
     }
 
-    // ------------------ RF1.2 Dar de baja herramientas ------------------
-    // (tú lo validarás por front, acá solo usamos rutPerson para trazabilidad)
+    // Respuesta de los endpoints que antes devolvían un lote: el registro del estado indicado (initialState/stock
+    // como antes) más los contadores de todos los estados
+    public Map<String, Object> view(ToolEntity tool, String state) {
+        Map<String, Object> view = lot(tool, state, countOf(tool, state));
+        view.put("available", tool.getAvailable());
+        view.put("loaned", tool.getLoaned());
+        view.put("inRepair", tool.getInRepair());
+        view.put("decommissioned", tool.getDecommissioned());
+        return view;
+    }
+
+    // Antes el id de un lote decía de qué estado salían las unidades; el id de catálogo no lo dice,
+    // así que quien llama debe indicarlo (sin adivinar un estado por defecto)
+    private String requireFromState(String fromState) {
+        if (fromState == null || fromState.isBlank()) {
+            throw new IllegalArgumentException("fromState es requerido: estado del que salen las unidades");
+        }
+        return fromState;
+    }
+
+    // ------------------ RF1.1 Registrar nuevas herramientas ------------------
 
     @Transactional
-    public ToolEntity deactivateTool(Long idTool, String rutPerson, int quantityToDeactivate) {
+    public ToolEntity saveTool(ToolEntity tool, String rutPerson) {
 
-        ToolEntity tool = toolRepository.findByid(idTool);
-        if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
+        validateNewTool(tool);
 
-        validateQuantity(quantityToDeactivate, "La cantidad a dar de baja debe ser mayor que 0");
+        // Misma herramienta (nombre, categoría, valor): se suma a su fila de catálogo como Disponible
+        toolRepository.addAvailable(tool.getName(), tool.getCategory(), tool.getToolValue(), tool.getStock());
+        ToolEntity savedTool = toolRepository.findByNameAndCategoryAndToolValue(tool.getName(), tool.getCategory(), tool.getToolValue());
 
-        if (quantityToDeactivate > tool.getStock()) {
-            throw new IllegalArgumentException("No se puede dar de baja más unidades de las existentes");
-        }
+        // Regla de negocio: registrar herramienta genera movimiento en Kardex
+        postKardexMovement(rutPerson, "Ingreso", savedTool.getName(), tool.getStock());
+        toolChanged(savedTool);
 
-        // Reduce stock del registro actual
-        tool.setStock(tool.getStock() - quantityToDeactivate);
+        return savedTool;
+    }
 
-        // Si quedó 0, marcamos estado Dada de baja (tu lógica original)
-        if (tool.getStock() == 0) {
-            tool.setInitialState("Dada de baja");
-        }
+    // ------------------ RF1.2 Dar de baja herramientas ------------------
+    // (tú lo validarás por front, acá solo usamos rutPerson para trazabilidad)
+    // fromState: estado desde el que salen las unidades (Disponible, Prestada o En reparación)
 
-        toolRepository.save(tool);
+    @Transactional
+    public ToolEntity deactivateTool(Long idTool, String rutPerson, int quantityToDeactivate, String fromState) {
+        return transition(idTool, rutPerson, quantityToDeactivate, requireFromState(fromState), "Dada de baja",
+                Arrays.asList("Disponible", "Prestada", "En reparación"), "Baja",
+                "La cantidad a dar de baja debe ser mayor que 0",
+                "No se puede dar de baja más unidades de las existentes");
+    }
 
-        // Registramos un nuevo “lote” de herramientas dadas de baja (tu lógica original)
-        ToolEntity dtool = new ToolEntity();
-        dtool.setName(tool.getName());
-        dtool.setCategory(tool.getCategory());
-        dtool.setToolValue(tool.getToolValue());
-        dtool.setInitialState("Dada de baja");
-        dtool.setStock(quantityToDeactivate);
-        toolRepository.save(dtool);
+    // ------------------ Marcar herramientas como disponibles (devolución / reingreso) ------------------
+    // fromState: Prestada (devolución), En reparación o Dada de baja
 
-        // Kardex
-        postKardexMovement(rutPerson, "Baja", tool.getName(), quantityToDeactivate);
+    @Transactional
+    public ToolEntity availableTool(Long idTool, String rutPerson, int quantityToActivate, String fromState) {
+        return transition(idTool, rutPerson, quantityToActivate, requireFromState(fromState), "Disponible",
+                Arrays.asList("Prestada", "En reparación", "Dada de baja"), "Devolución",
+                "La cantidad a activar debe ser mayor que 0",
+                "No se puede activar más unidades de las existentes en ese estado");
+    }
 
-        return tool;
+    // ------------------ Préstamo ------------------
+
+    @Transactional
+    public ToolEntity loanTool(Long idTool, String rutPerson, int quantityToLoan) {
+        // Solo se presta desde Disponible
+        return transition(idTool, rutPerson, quantityToLoan, "Disponible", "Prestada",
+                List.of("Disponible"), "Préstamo",
+                "La cantidad a prestar debe ser mayor que 0",
+                "No se puede prestar más unidades de las existentes");
     }
 
-    // ------------------ Marcar herramientas como disponibles (devolución / reingreso) ------------------
+    // ------------------ Reparación ------------------
+    // fromState: Disponible o Prestada (devuelta dañada); no se repara lo dado de baja
 
     @Transactional
-    public ToolEntity availableTool(Long idTool, String rutPerson, int quantityToActivate) {
+    public ToolEntity repairTool(Long idTool, String rutPerson, int quantityToRepair, String fromState) {
+        return transition(idTool, rutPerson, quantityToRepair, requireFromState(fromState), "En reparación",
+                Arrays.asList("Disponible", "Prestada"), "Reparación",
+                "La cantidad a reparar debe ser mayor que 0",
+                "No se puede enviar a reparación más unidades de las existentes");
+    }
 
+    @Transactional(readOnly = true)
+    public ToolEntity getToolById(Long idTool) {
         ToolEntity tool = toolRepository.findByid(idTool);
         if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
+        return tool;
+    }
 
-        validateQuantity(quantityToActivate, "La cantidad a activar debe ser mayor que 0");
+    // Si ya existe otra fila con el nuevo valor (mismo nombre y categoría), se juntan sus contadores
+    @Transactional
+    public ToolEntity updateToolValue(Long idTool, double newValue) {
+        ToolEntity tool = toolRepository.findByIdForUpdate(idTool);
+        if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
+        if (newValue <= 0) throw new IllegalArgumentException("Valor de reposición inválido");
 
-        if (quantityToActivate > tool.getStock()) {
-            throw new IllegalArgumentException("No se puede activar más unidades de las existentes en ese registro");
+        ToolEntity same = toolRepository.findByNameAndCategoryAndToolValue(tool.getName(), tool.getCategory(), newValue);
+        if (same != null && !same.getId().equals(tool.getId())) {
+            ToolEntity target = toolRepository.findByIdForUpdate(same.getId());
+            for (String state : states) addTo(target, state, countOf(tool, state));
+            toolRepository.delete(tool);
+            ToolEntity merged = toolRepository.save(target);
+            Map<Long, ToolEntity> changes = new LinkedHashMap<>();
+            changes.put(tool.getId(), null);
+            changes.put(merged.getId(), merged);
+            changeFeed.record(changes);
+            return merged;
         }
 
-        // Buscar si ya existe un registro Disponible con mismo nombre/categoría/valor/fee para sumar stock
-        List<ToolEntity> existingTools = toolRepository.findByname(tool.getName());
-        ToolEntity targetAvailable = null;
+        tool.setToolValue(newValue);
+        ToolEntity saved = toolRepository.save(tool);
+        toolChanged(saved);
+        return saved;
+    }
 
-        for (ToolEntity existing : existingTools) {
-            boolean same =
-                    "Disponible".equals(existing.getInitialState()) &&
-                            Objects.equals(existing.getCategory(), tool.getCategory()) &&
-                            existing.getToolValue() == tool.getToolValue();
+    // Búsqueda aproximada desde ToolNameIndex (sin ir a la BD). mode: prefix (por defecto) o fuzzy
+    public List<Map<String, Object>> searchTools(String q, String mode, Integer limit) {
+        if (mode != null && !mode.equals("prefix") && !mode.equals("fuzzy"))
+            throw new IllegalArgumentException("mode inválido: " + mode);
+        int size = limit == null ? 10 : limit;
+        if (size <= 0 || size > 100) throw new IllegalArgumentException("limit debe estar entre 1 y 100");
+        return toolNameIndex.search(q, mode == null ? "prefix" : mode, size);
+    }
 
-            if (same) {
-                targetAvailable = existing;
-                break;
-            }
+    // Disponibilidad por nombre desde memoria (ToolAvailabilityCache), en el orden pedido
+    public List<Map<String, Object>> availability(List<String> names) {
+        if (names == null || names.isEmpty()) throw new IllegalArgumentException("names es requerido");
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (String name : names) {
+            if (name == null || name.isBlank()) continue;
+            out.add(availabilityCache.summary(name.trim()));
         }
+        return out;
+    }
 
-        if (targetAvailable == null) {
-            // Creamos un registro Disponible
-            ToolEntity newAvailable = new ToolEntity();
-            newAvailable.setName(tool.getName());
-            newAvailable.setCategory(tool.getCategory());
-            newAvailable.setToolValue(tool.getToolValue());
-            newAvailable.setInitialState("Disponible");
-            newAvailable.setStock(quantityToActivate);
-            toolRepository.save(newAvailable);
-        } else {
-            targetAvailable.setStock(targetAvailable.getStock() + quantityToActivate);
-            toolRepository.save(targetAvailable);
-        }
+    // Mismo formato que antes (un registro por estado con stock), ahora armado desde el catálogo
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> searchByName(String name) {
+        if (name == null || name.isBlank()) throw new IllegalArgumentException("name es requerido");
+        List<Map<String, Object>> lots = new ArrayList<>();
+        for (ToolEntity tool : toolRepository.findByname(name)) lots.addAll(lotView(tool));
+        return lots;
+    }
 
-        // Restar del registro origen (por ejemplo: Prestada / En reparación / Dada de baja)
-        tool.setStock(tool.getStock() - quantityToActivate);
-        if (tool.getStock() <= 0) {
-            toolRepository.delete(tool);
-        } else {
-            toolRepository.save(tool);
-        }
+    // ------------------ Reservas en lote (loan-service) ------------------
+    // Un préstamo de N herramientas se resuelve en una sola llamada y una sola transacción:
+    // si algún nombre no tiene stock, se hace rollback de todo el lote.
 
-        postKardexMovement(rutPerson, "Devolución", tool.getName(), quantityToActivate);
+    private static final List<String> batchActions = Arrays.asList("available", "repair", "deactivate");
 
-        return tool;
-    }
+    // Agrupa items { name, quantity, action } sumando cantidades por (name, action), respetando el orden
+    private List<Map<String, Object>> groupItems(List<Map<String, Object>> items, boolean withAction) {
+        if (items == null || items.isEmpty()) throw new IllegalArgumentException("items es requerido");
 
-    // ------------------ Préstamo ------------------
+        Map<String, Map<String, Object>> grouped = new LinkedHashMap<>();
+        for (Map<String, Object> item : items) {
+            if (item == null || item.get("name") == null || item.get("name").toString().isBlank())
+                throw new IllegalArgumentException("Cada item requiere name");
 
-    @Transactional
-    public ToolEntity loanTool(Long idTool, String rutPerson, int quantityToLoan) {
+            String name = item.get("name").toString();
+            int quantity = item.get("quantity") != null ? Integer.parseInt(item.get("quantity").toString()) : 1;
+            validateQuantity(quantity, "La cantidad debe ser mayor que 0: " + name);
 
-        ToolEntity tool = toolRepository.findByid(idTool);
-        if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
-
-        validateQuantity(quantityToLoan, "La cantidad a prestar debe ser mayor que 0");
+            String action = null;
+            if (withAction) {
+                action = item.get("action") != null ? item.get("action").toString() : "available";
+                if (!batchActions.contains(action)) throw new IllegalArgumentException("Acción inválida: " + action);
+            }
 
-        if (quantityToLoan > tool.getStock()) {
-            throw new IllegalArgumentException("No se puede prestar más unidades de las existentes");
+            Map<String, Object> group = grouped.computeIfAbsent(name + "|" + action, k -> {
+                Map<String, Object> g = new LinkedHashMap<>();
+                g.put("name", name);
+                g.put("quantity", 0);
+                return g;
+            });
+            if (withAction) group.put("action", action);
+            group.put("quantity", (int) group.get("quantity") + quantity);
         }
+        return new ArrayList<>(grouped.values());
+    }
 
-        // Solo deberías prestar desde Disponible (si quieres forzar la regla)
-        if (!"Disponible".equals(tool.getInitialState())) {
-            throw new IllegalArgumentException("Solo se pueden prestar herramientas en estado Disponible");
-        }
+    // Resultado por nombre: filas de catálogo tocadas ("lots", se mantiene el nombre) y valor de reposición total (lo usa loan-service para multas)
+    private Map<String, Object> batchResult(Map<String, Object> group, List<Map<String, Object>> lots, double totalValue) {
+        Map<String, Object> result = new LinkedHashMap<>(group);
+        result.put("lots", lots);
+        result.put("totalValue", totalValue);
+        return result;
+    }
 
-        // Reduce stock del registro Disponible
-        tool.setStock(tool.getStock() - quantityToLoan);
-        toolRepository.save(tool);
+    private Map<String, Object> lotResult(ToolEntity lot, int quantity) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("idTool", lot.getId());
+        m.put("quantity", quantity);
+        m.put("toolValue", lot.getToolValue());
+        return m;
+    }
 
-        // Crear registro “Prestada”
-        ToolEntity ptool = new ToolEntity();
-        ptool.setName(tool.getName());
-        ptool.setCategory(tool.getCategory());
-        ptool.setToolValue(tool.getToolValue());
-        ptool.setInitialState("Prestada");
-        ptool.setStock(quantityToLoan);
-        toolRepository.save(ptool);
+    // Body: { "rutPerson": "...", "reference": "opcional", "items": [ { "name": "Taladro", "quantity": 1 } ] }
+    // Con reference, repetir la llamada devuelve el resultado original sin volver a prestar.
+    @Transactional
+    public List<Map<String, Object>> reserveBatch(String rutPerson, List<Map<String, Object>> items, String reference) {
+        if (rutPerson == null || rutPerson.isBlank()) throw new IllegalArgumentException("rutPerson es requerido");
+
+        if (reference != null) {
+            Optional<ToolReservationEntity> existing = reservationRepository.findByReference(reference);
+            if (existing.isPresent()) {
+                if (!"Reservada".equals(existing.get().getStatus())) {
+                    throw new IllegalArgumentException("La reserva " + reference + " ya fue liberada o cancelada");
+                }
+                return readResults(existing.get().getResults());
+            }
+        }
 
-        postKardexMovement(rutPerson, "Préstamo", tool.getName(), quantityToLoan);
+        List<Map<String, Object>> results = reserveBatch(rutPerson, items);
 
-        return tool;
+        if (reference != null) {
+            reservationRepository.save(new ToolReservationEntity(
+                    reference, "Reservada", rutPerson, writeResults(results), LocalDateTime.now()));
+        }
+        return results;
     }
 
-    // ------------------ Reparación ------------------
-
+    // Compensación: devuelve a Disponible lo que prestó la reserva "reference".
+    // Si la reserva aún no existe, queda "Cancelada" para que no se aplique si llega tarde.
     @Transactional
-    public ToolEntity repairTool(Long idTool, String rutPerson, int quantityToRepair) {
+    public List<Map<String, Object>> releaseReservation(String reference) {
+        if (reference == null || reference.isBlank()) throw new IllegalArgumentException("reference es requerido");
 
-        ToolEntity tool = toolRepository.findByid(idTool);
-        if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
+        Optional<ToolReservationEntity> existing = reservationRepository.findByReference(reference);
+        if (existing.isEmpty()) {
+            reservationRepository.save(new ToolReservationEntity(reference, "Cancelada", null, null, LocalDateTime.now()));
+            return new ArrayList<>();
+        }
 
-        validateQuantity(quantityToRepair, "La cantidad a reparar debe ser mayor que 0");
+        ToolReservationEntity reservation = existing.get();
+        if (!"Reservada".equals(reservation.getStatus())) return new ArrayList<>();
 
-        if (quantityToRepair > tool.getStock()) {
-            throw new IllegalArgumentException("No se puede enviar a reparación más unidades de las existentes");
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (Map<String, Object> reserved : readResults(reservation.getResults())) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", reserved.get("name"));
+            item.put("quantity", reserved.get("quantity"));
+            item.put("action", "available");
+            items.add(item);
         }
 
-        // Si quieres, puedes permitir reparación desde Disponible o Prestada, etc.
-        // Aquí solo evitamos "Dada de baja"
-        if ("Dada de baja".equals(tool.getInitialState())) {
-            throw new IllegalArgumentException("No se puede reparar una herramienta dada de baja");
-        }
+        List<Map<String, Object>> results = returnBatch(reservation.getRutPerson(), items);
+        reservation.setStatus("Liberada");
+        reservationRepository.save(reservation);
+        return results;
+    }
 
-        tool.setStock(tool.getStock() - quantityToRepair);
-        toolRepository.save(tool);
+    private List<Map<String, Object>> readResults(String json) {
+        try {
+            return objectMapper.readValue(json, new TypeReference<List<Map<String, Object>>>() {});
+        } catch (Exception e) {
+            throw new RuntimeException("Reserva con resultado ilegible", e);
+        }
+    }
 
-        // Crear registro “En reparación”
-        ToolEntity rtool = new ToolEntity();
-        rtool.setName(tool.getName());
-        rtool.setCategory(tool.getCategory());
-        rtool.setToolValue(tool.getToolValue());
-        rtool.setInitialState("En reparación");
-        rtool.setStock(quantityToRepair);
-        toolRepository.save(rtool);
+    private String writeResults(List<Map<String, Object>> results) {
+        try {
+            return objectMapper.writeValueAsString(results);
+        } catch (Exception e) {
+            throw new RuntimeException("No se pudo guardar el resultado de la reserva", e);
+        }
+    }
 
-        postKardexMovement(rutPerson, "Reparación", tool.getName(), quantityToRepair);
+    // Body: { "rutPerson": "...", "items": [ { "name": "Taladro", "quantity": 1 } ] }
+    @Transactional
+    public List<Map<String, Object>> reserveBatch(String rutPerson, List<Map<String, Object>> items) {
+        if (rutPerson == null || rutPerson.isBlank()) throw new IllegalArgumentException("rutPerson es requerido");
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> group : groupItems(items, false)) {
+            String name = group.get("name").toString();
+            int remaining = (int) group.get("quantity");
+
+            List<Map<String, Object>> lots = new ArrayList<>();
+            double totalValue = 0;
+
+            for (ToolEntity lot : toolRepository.findBynameOrderByIdAsc(name)) {
+                int available = lot.getAvailable();
+                while (remaining > 0 && available > 0) {
+                    int qty = Math.min(remaining, available);
+                    if (!move(lot.getId(), "Disponible", "Prestada", qty)) {
+                        // otro request tomó unidades entre la lectura y el UPDATE: se relee y se reintenta con lo que quede
+                        available = toolRepository.findByid(lot.getId()).getAvailable();
+                        continue;
+                    }
+                    postKardexMovement(rutPerson, "Préstamo", lot.getName(), qty);
+                    reindex(lot.getId());
+
+                    lots.add(lotResult(lot, qty));
+                    totalValue += lot.getToolValue() * qty;
+                    remaining -= qty;
+                    available = 0;
+                }
+                if (remaining == 0) break;
+            }
 
-        return tool;
+            if (remaining > 0) {
+                throw new IllegalArgumentException("No hay stock disponible para la herramienta: " + name);
+            }
+            results.add(batchResult(group, lots, totalValue));
+        }
+        return results;
     }
 
-    @Transactional(readOnly = true)
-    public ToolEntity getToolById(Long idTool) {
-        ToolEntity tool = toolRepository.findByid(idTool);
-        if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
-        return tool;
+    // Devolución en lote con reference (loan-service): repetir la llamada devuelve el resultado original sin
+    // volver a mover unidades. Queda en tool_reservations como "Devuelta".
+    @Transactional
+    public List<Map<String, Object>> returnBatch(String rutPerson, List<Map<String, Object>> items, String reference) {
+        if (reference == null) return returnBatch(rutPerson, items);
+
+        Optional<ToolReservationEntity> existing = reservationRepository.findByReference(reference);
+        if (existing.isPresent()) {
+            if (!"Devuelta".equals(existing.get().getStatus())) {
+                throw new IllegalArgumentException("La referencia " + reference + " no corresponde a una devolución");
+            }
+            return readResults(existing.get().getResults());
+        }
+
+        List<Map<String, Object>> results = returnBatch(rutPerson, items);
+        reservationRepository.save(new ToolReservationEntity(
+                reference, "Devuelta", rutPerson, writeResults(results), LocalDateTime.now()));
+        return results;
     }
 
+    // Body: { "rutPerson": "...", "items": [ { "name": "Taladro", "quantity": 1, "action": "available|repair|deactivate" } ] }
     @Transactional
-    public ToolEntity updateToolValue(Long idTool, double newValue) {
-        ToolEntity tool = toolRepository.findByid(idTool);
-        if (tool == null) throw new IllegalArgumentException("Herramienta no encontrada");
-        if (newValue <= 0) throw new IllegalArgumentException("Valor de reposición inválido");
-        tool.setToolValue(newValue);
-        return toolRepository.save(tool);
-    }
+    public List<Map<String, Object>> returnBatch(String rutPerson, List<Map<String, Object>> items) {
+        if (rutPerson == null || rutPerson.isBlank()) throw new IllegalArgumentException("rutPerson es requerido");
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> group : groupItems(items, true)) {
+            String name = group.get("name").toString();
+            String action = group.get("action").toString();
+            int remaining = (int) group.get("quantity");
+
+            List<Map<String, Object>> lots = new ArrayList<>();
+            double totalValue = 0;
+
+            String toState = switch (action) {
+                case "deactivate" -> "Dada de baja";
+                case "repair" -> "En reparación";
+                default -> "Disponible";
+            };
+            String movementType = switch (action) {
+                case "deactivate" -> "Baja";
+                case "repair" -> "Reparación";
+                default -> "Devolución";
+            };
+
+            for (ToolEntity lot : toolRepository.findBynameOrderByIdAsc(name)) {
+                int loaned = lot.getLoaned();
+                while (remaining > 0 && loaned > 0) {
+                    int qty = Math.min(remaining, loaned);
+                    if (!move(lot.getId(), "Prestada", toState, qty)) {
+                        loaned = toolRepository.findByid(lot.getId()).getLoaned();
+                        continue;
+                    }
+                    postKardexMovement(rutPerson, movementType, lot.getName(), qty);
+                    reindex(lot.getId());
+
+                    lots.add(lotResult(lot, qty));
+                    totalValue += lot.getToolValue() * qty;
+                    remaining -= qty;
+                    loaned = 0;
+                }
+                if (remaining == 0) break;
+            }
 
-    @Transactional(readOnly = true)
-    public List<ToolEntity> searchByName(String name) {
-        if (name == null || name.isBlank()) throw new IllegalArgumentException("name es requerido");
-        return toolRepository.findByname(name);
+            if (remaining > 0) {
+                throw new IllegalArgumentException("No se encontró herramienta en estado 'Prestada': " + name);
+            }
+            results.add(batchResult(group, lots, totalValue));
+        }
+        return results;
     }
 
 
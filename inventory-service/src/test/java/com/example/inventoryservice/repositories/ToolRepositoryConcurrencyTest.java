@@ -0,0 +1,128 @@
+package com.example.inventoryservice.repositories;
+
+import com.example.inventoryservice.entities.ToolEntity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// applyDelta contra Postgres real: muchos préstamos y devoluciones en paralelo sobre la misma herramienta
+// nunca dejan un contador negativo ni prestan más unidades de las que hay.
+// Sin config server (spring.config.name apunta a un archivo que no existe) y solo con la capa JPA.
+@DataJpaTest(properties = {
+        "spring.config.name=inventory-test",
+        "spring.cloud.config.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Testcontainers(disabledWithoutDocker = true)
+class ToolRepositoryConcurrencyTest {
+
+    private static final int THREADS = 32;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private ToolRepository toolRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ToolEntity tool(String name, int available) {
+        return toolRepository.save(new ToolEntity(null, name, 15000, "Eléctricas", available, 0, 0, 0, 0));
+    }
+
+    // Corre las tareas a la vez (todas esperan la misma señal) y devuelve cuántas aplicaron su cambio
+    private int race(List<Callable<Boolean>> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Callable<Boolean> task : tasks) {
+                results.add(pool.submit(() -> {
+                    go.await();
+                    return task.call();
+                }));
+            }
+            go.countDown();
+            int applied = 0;
+            for (Future<Boolean> r : results) if (r.get(60, TimeUnit.SECONDS)) applied++;
+            return applied;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Callable<Boolean> delta(long id, int dAvailable, int dLoaned) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        return () -> tx.execute(status -> toolRepository.applyDelta(id, dAvailable, dLoaned, 0, 0) == 1);
+    }
+
+    @Test
+    void parallelLoansNeverOversell() throws Exception {
+        long id = tool("Taladro", 10).getId();
+
+        List<Callable<Boolean>> loans = new ArrayList<>();
+        for (int i = 0; i < 200; i++) loans.add(delta(id, -1, 1));
+
+        assertThat(race(loans)).isEqualTo(10);
+        ToolEntity after = toolRepository.findById(id).orElseThrow();
+        assertThat(after.getAvailable()).isZero();
+        assertThat(after.getLoaned()).isEqualTo(10);
+    }
+
+    @Test
+    void parallelMultiUnitLoansLeaveTheRemainder() throws Exception {
+        long id = tool("Sierra", 10).getId();
+
+        List<Callable<Boolean>> loans = new ArrayList<>();
+        for (int i = 0; i < 100; i++) loans.add(delta(id, -3, 3));
+
+        assertThat(race(loans)).isEqualTo(3);
+        ToolEntity after = toolRepository.findById(id).orElseThrow();
+        assertThat(after.getAvailable()).isEqualTo(1);
+        assertThat(after.getLoaned()).isEqualTo(9);
+    }
+
+    // Préstamos y devoluciones mezclados: el total no cambia y lo prestado cuadra con lo que se aplicó
+    @Test
+    void mixedLoansAndReturnsKeepTotals() throws Exception {
+        long id = tool("Martillo", 5).getId();
+
+        List<Callable<Boolean>> loans = new ArrayList<>();
+        List<Callable<Boolean>> returns = new ArrayList<>();
+        for (int i = 0; i < 150; i++) loans.add(delta(id, -1, 1));
+        for (int i = 0; i < 150; i++) returns.add(delta(id, 1, -1));
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> loaned = pool.submit(() -> race(loans));
+            Future<Integer> returned = pool.submit(() -> race(returns));
+            int net = loaned.get(120, TimeUnit.SECONDS) - returned.get(120, TimeUnit.SECONDS);
+
+            ToolEntity after = toolRepository.findById(id).orElseThrow();
+            assertThat(after.getAvailable()).isGreaterThanOrEqualTo(0);
+            assertThat(after.getLoaned()).isGreaterThanOrEqualTo(0).isEqualTo(net);
+            assertThat(after.getAvailable() + after.getLoaned()).isEqualTo(5);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
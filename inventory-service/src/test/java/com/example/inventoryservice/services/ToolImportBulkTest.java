@@ -0,0 +1,153 @@
+package com.example.inventoryservice.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// POST /tools/import contra Postgres real: 100k filas CSV (2.000 herramientas distintas) en bloques de
+// chunk-size, con el tiempo y las filas/s en el log (no se exige un tiempo). Un segundo import del mismo
+// archivo se suma al stock existente; reenviar con el mismo importId uno que se cortó a la mitad no suma dos veces
+// los bloques que ya habían confirmado.
+@SpringBootTest(properties = {
+        "spring.config.name=inventory-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "inventory.import.chunk-size=5000",
+        "inventory.kardex-outbox.relay-ms=3600000"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class ToolImportBulkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolImportBulkTest.class);
+
+    private static final int ROWS = 100_000;
+    private static final int TOOLS = 2_000;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private ToolImportService importService;
+
+    @Autowired
+    private ToolCategoryStats categoryStats;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void clean() {
+        jdbcTemplate.execute("TRUNCATE tool_catalog, kardex_outbox, tool_changes, tool_category_stats, tool_category_stats_delta, tool_imports");
+    }
+
+    // stock 1..5 por fila: total conocido de antemano
+    private static byte[] csv() {
+        StringBuilder out = new StringBuilder("name,category,toolValue,stock\n");
+        for (int i = 0; i < ROWS; i++) {
+            int tool = i % TOOLS;
+            out.append("\"Herramienta ").append(tool).append(", modelo ").append(tool % 7).append('"')
+                    .append(",Categoría ").append(tool % 12)
+                    .append(',').append(10000 + tool)
+                    .append(',').append(1 + i % 5).append('\n');
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> statsTotals() {
+        return (Map<String, Object>) categoryStats.stats().get("totals");
+    }
+
+    private Map<String, Object> importCsv(byte[] file, String importId) {
+        return importService.importTools(new ByteArrayInputStream(file), "csv", "11111111-1", importId);
+    }
+
+    @Test
+    void importsOneHundredThousandRows() {
+        byte[] file = csv();
+        long expectedStock = 3L * ROWS;
+
+        long started = System.nanoTime();
+        Map<String, Object> progress = importCsv(file, "bulk-1");
+        long ms = (System.nanoTime() - started) / 1_000_000;
+        log.info("Import de {} filas ({} KB) en {} ms ({} filas/s), {} bloques",
+                ROWS, file.length / 1024, ms, ROWS * 1000L / Math.max(1, ms), progress.get("chunksCommitted"));
+
+        assertThat(progress.get("status")).isEqualTo("DONE");
+        assertThat(progress.get("rowsImported")).isEqualTo((long) ROWS);
+        assertThat(progress.get("rowsRejected")).isEqualTo(0L);
+        assertThat(progress.get("chunksCommitted")).isEqualTo((long) ROWS / 5000);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM tool_catalog", Long.class)).isEqualTo(TOOLS);
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(available) FROM tool_catalog", Long.class)).isEqualTo(expectedStock);
+        // un "Ingreso" por herramienta y bloque, con las unidades del bloque
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM kardex_outbox", Long.class))
+                .isEqualTo(progress.get("toolsMerged"));
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(tool_quantity) FROM kardex_outbox", Long.class)).isEqualTo(expectedStock);
+        // los agregados por categoría restan el registro anterior de cada herramienta en cada bloque
+        assertThat(statsTotals()).containsEntry("tools", (long) TOOLS).containsEntry("available", expectedStock);
+
+        Map<String, Object> again = importCsv(file, "bulk-2");
+        assertThat(again.get("status")).isEqualTo("DONE");
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM tool_catalog", Long.class)).isEqualTo(TOOLS);
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(available) FROM tool_catalog", Long.class)).isEqualTo(2 * expectedStock);
+        assertThat(statsTotals()).containsEntry("tools", (long) TOOLS).containsEntry("available", 2 * expectedStock);
+    }
+
+    // La subida se corta (el cliente cae) a mitad de archivo: quedan algunos bloques confirmados y el import FAILED.
+    // El reenvío completo con el mismo importId deja el stock como si se hubiera importado una sola vez.
+    @Test
+    void resubmittingAFailedImportDoesNotAddCommittedChunksTwice() {
+        byte[] file = csv();
+        long expectedStock = 3L * ROWS;
+
+        InputStream cut = new FilterInputStream(new ByteArrayInputStream(file)) {
+            private long read = 0;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (read > file.length / 2) throw new IOException("conexión cerrada");
+                int n = super.read(b, off, len);
+                if (n > 0) read += n;
+                return n;
+            }
+        };
+        Map<String, Object> failed = importService.importTools(cut, "csv", "11111111-1", "retry-1");
+        assertThat(failed.get("status")).isEqualTo("FAILED");
+        long committed = (Long) failed.get("chunksCommitted");
+        assertThat(committed).isPositive();
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(available) FROM tool_catalog", Long.class))
+                .isLessThan(expectedStock);
+
+        Map<String, Object> retried = importCsv(file, "retry-1");
+        assertThat(retried.get("status")).isEqualTo("DONE");
+        assertThat(retried.get("rowsSkipped")).isEqualTo(committed * 5000);
+        assertThat((Long) retried.get("chunksCommitted")).isEqualTo(ROWS / 5000 - committed);
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(available) FROM tool_catalog", Long.class)).isEqualTo(expectedStock);
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(tool_quantity) FROM kardex_outbox", Long.class)).isEqualTo(expectedStock);
+        assertThat(statsTotals()).containsEntry("available", expectedStock);
+
+        // un tercer envío ya no aplica nada
+        Map<String, Object> again = importCsv(file, "retry-1");
+        assertThat(again.get("rowsSkipped")).isEqualTo((long) ROWS);
+        assertThat(jdbcTemplate.queryForObject("SELECT SUM(available) FROM tool_catalog", Long.class)).isEqualTo(expectedStock);
+    }
+}
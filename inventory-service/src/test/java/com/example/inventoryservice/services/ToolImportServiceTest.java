@@ -0,0 +1,192 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class ToolImportServiceTest {
+
+    private ToolImportService importService;
+    private JdbcTemplate jdbcTemplate;
+    private ToolChangeFeed changeFeed;
+    private String importFormat;
+    private long lastLine = 0;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.query(any(PreparedStatementCreator.class), any(RowMapper.class))).thenReturn(
+                List.of(new ToolEntity(1L, "Taladro", 15000, "Eléctricas", 3, 0, 0, 0, 0)));
+        // tool_imports: import nuevo y cada bloque mueve su fila
+        when(jdbcTemplate.update(startsWith("INSERT INTO tool_imports"), any(Object[].class))).thenAnswer(inv -> {
+            importFormat = inv.getArgument(2);
+            return 1;
+        });
+        when(jdbcTemplate.queryForMap(startsWith("SELECT format, last_line"), any()))
+                .thenAnswer(inv -> Map.of("format", importFormat, "last_line", lastLine));
+        when(jdbcTemplate.update(startsWith("UPDATE tool_imports"), any(Object[].class))).thenReturn(1);
+        changeFeed = mock(ToolChangeFeed.class);
+
+        importService = new ToolImportService();
+        ReflectionTestUtils.setField(importService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(importService, "transactionManager", mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(importService, "changeFeed", changeFeed);
+        ReflectionTestUtils.setField(importService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(importService, "chunkSize", 100);
+    }
+
+    private Map<String, Object> importText(String format, String text) {
+        return importService.importTools(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)),
+                format, "12345678-9", null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> errors(Map<String, Object> progress) {
+        return (List<String>) progress.get("errors");
+    }
+
+    // ------------------ splitCsv ------------------
+
+    @Test
+    void splitsPlainFieldsAndTrimsThem() {
+        assertThat(ToolImportService.splitCsv("Taladro, Eléctricas ,15000,3"))
+                .containsExactly("Taladro", "Eléctricas", "15000", "3");
+    }
+
+    @Test
+    void keepsCommasAndEscapedQuotesInsideQuotes() {
+        assertThat(ToolImportService.splitCsv("\"Llave 10,5 mm\",Manuales,\"Sierra \"\"Pro\"\"\",2"))
+                .containsExactly("Llave 10,5 mm", "Manuales", "Sierra \"Pro\"", "2");
+    }
+
+    @Test
+    void keepsEmptyFields() {
+        assertThat(ToolImportService.splitCsv(",a,,")).containsExactly("", "a", "", "");
+        assertThat(ToolImportService.splitCsv("\"\"")).containsExactly("");
+    }
+
+    // ------------------ Import ------------------
+
+    @Test
+    void csvRejectsBadRowsAndImportsTheRest() {
+        Map<String, Object> progress = importText("csv", String.join("\n",
+                "\uFEFFstock,name,category,toolValue",   // BOM de Excel y columnas en otro orden
+                "3,Taladro,Eléctricas,15000",
+                "2,\"Llave 10,5 mm\",Manuales,4000",
+                "1,Martillo,,3000",
+                "x,Sierra,Eléctricas,20000",
+                "",
+                "0,Escalera,Altura,50000",
+                "4,Taladro,Eléctricas,15000"));
+
+        assertThat(progress.get("status")).isEqualTo("DONE");
+        assertThat(progress.get("rowsRead")).isEqualTo(6L);
+        assertThat(progress.get("rowsImported")).isEqualTo(3L);
+        assertThat(progress.get("rowsRejected")).isEqualTo(3L);
+        assertThat(progress.get("toolsMerged")).isEqualTo(2L);   // las dos filas de Taladro se suman
+        assertThat(errors(progress)).containsExactly(
+                "línea 4: Categoría requerida",
+                "línea 5: toolValue / stock inválidos",
+                "línea 7: Stock debe ser mayor a 0");
+        verify(changeFeed).record(any());
+    }
+
+    @Test
+    void csvWithoutRequiredHeaderFails() {
+        Map<String, Object> progress = importText("csv", "name,category,value\nTaladro,Eléctricas,15000");
+
+        assertThat(progress.get("status")).isEqualTo("FAILED");
+        assertThat(errors(progress)).singleElement().asString().contains("encabezado");
+        verifyNoInteractions(changeFeed);
+    }
+
+    @Test
+    void ndjsonRejectsMalformedLines() {
+        Map<String, Object> progress = importText("ndjson", String.join("\n",
+                "{\"name\":\"Taladro\",\"category\":\"Eléctricas\",\"toolValue\":15000,\"stock\":2}",
+                "{\"name\":\"Sierra\",",
+                "{\"category\":\"Manuales\",\"toolValue\":3000,\"stock\":1}",
+                "{\"name\":\"Martillo\",\"category\":\"Manuales\",\"toolValue\":-1,\"stock\":1}",
+                "{\"name\":\"Martillo\",\"category\":\"Manuales\",\"toolValue\":\"3000\",\"stock\":\"5\"}"));
+
+        assertThat(progress.get("status")).isEqualTo("DONE");
+        assertThat(progress.get("rowsImported")).isEqualTo(2L);
+        assertThat(progress.get("rowsRejected")).isEqualTo(3L);
+        assertThat(errors(progress)).hasSize(3);
+        assertThat(errors(progress).get(0)).startsWith("línea 2: ");
+        assertThat(errors(progress).get(1)).isEqualTo("línea 3: Nombre requerido");
+        assertThat(errors(progress).get(2)).isEqualTo("línea 4: Valor de reposición inválido");
+    }
+
+    @Test
+    void commitsOneChunkPerChunkSizeRows() {
+        ReflectionTestUtils.setField(importService, "chunkSize", 2);
+        Map<String, Object> progress = importText("ndjson", String.join("\n",
+                "{\"name\":\"A\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}",
+                "{\"name\":\"B\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}",
+                "{\"name\":\"C\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}"));
+
+        assertThat(progress.get("chunksCommitted")).isEqualTo(2L);
+        assertThat(progress.get("rowsImported")).isEqualTo(3L);
+        verify(changeFeed, times(2)).record(any());
+    }
+
+    @Test
+    void rejectsUnknownFormat() {
+        assertThatThrownBy(() -> importText("xml", "<tools/>")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Reenvío de un import que falló después de confirmar el bloque que termina en la línea 2
+    @Test
+    void resubmittedImportSkipsCommittedLines() {
+        ReflectionTestUtils.setField(importService, "chunkSize", 2);
+        String file = String.join("\n",
+                "{\"name\":\"A\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}",
+                "{\"name\":\"B\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}",
+                "{\"name\":\"C\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}");
+        importService.importTools(new ByteArrayInputStream(new byte[0]), "ndjson", "12345678-9", "import-1");
+        lastLine = 2;
+
+        Map<String, Object> progress = importService.importTools(
+                new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)), "ndjson", "12345678-9", "import-1");
+
+        assertThat(progress.get("status")).isEqualTo("DONE");
+        assertThat(progress.get("resumedAfterLine")).isEqualTo(2L);
+        assertThat(progress.get("rowsSkipped")).isEqualTo(2L);
+        assertThat(progress.get("rowsImported")).isEqualTo(1L);
+        // el bloque nuevo mueve tool_imports de la línea 2 a la 3
+        verify(jdbcTemplate).update(startsWith("UPDATE tool_imports"), eq(3L), eq(1L), any(), eq("import-1"), eq(2L));
+    }
+
+    // Otro intento del mismo importId ya movió tool_imports: el bloque se revierte y el import queda FAILED
+    @Test
+    void chunkIsNotAppliedWhenAnotherAttemptAdvancedTheImport() {
+        when(jdbcTemplate.update(startsWith("UPDATE tool_imports"), any(Object[].class))).thenReturn(0);
+
+        Map<String, Object> progress = importText("ndjson", "{\"name\":\"A\",\"category\":\"C\",\"toolValue\":1,\"stock\":1}");
+
+        assertThat(progress.get("status")).isEqualTo("FAILED");
+        assertThat(progress.get("chunksCommitted")).isEqualTo(0L);
+        assertThat(errors(progress)).singleElement().asString().contains("avanzó en otro intento");
+        verifyNoInteractions(changeFeed);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.inventoryservice.services;
+
+import com.example.inventoryservice.entities.ToolEntity;
+import com.example.inventoryservice.events.ToolChangedEvent;
+import com.example.inventoryservice.events.ToolChangedEvent.Change;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ToolNameIndexTest {
+
+    private ToolNameIndex index;
+
+    private static ToolEntity tool(long id, String name, String category) {
+        return new ToolEntity(id, name, 10000, category, 1, 0, 0, 0, 1);
+    }
+
+    private static Change change(long seq, ToolEntity tool) {
+        return new Change(tool.getId(), tool, seq);
+    }
+
+    private List<Object> names(String q, String mode) {
+        return index.search(q, mode, 10).stream().map(r -> r.get("name")).toList();
+    }
+
+    @BeforeEach
+    void setUp() {
+        index = new ToolNameIndex();
+        index.onToolChanged(new ToolChangedEvent(List.of(
+                change(1, tool(1, "Taladro", "Eléctricas")),
+                change(2, tool(2, "Taladro Percutor", "Eléctricas")),
+                change(3, tool(3, "Sierra Circular", "Eléctricas")),
+                change(4, tool(4, "Martillo", "Manuales")),
+                change(5, tool(5, "Llave Inglesa", "Manuales"))), true));
+    }
+
+    @Test
+    void prefixRanksExactNameFirstAndIgnoresCaseAndAccents() {
+        assertThat(names("TALADRO", "prefix")).containsExactly("Taladro", "Taladro Percutor");
+        assertThat(names("tal", "prefix")).containsExactly("Taladro", "Taladro Percutor");
+        assertThat(names("percutor", "prefix")).containsExactly("Taladro Percutor");
+        assertThat(names("electricas", "prefix")).containsExactlyInAnyOrder("Taladro", "Taladro Percutor", "Sierra Circular");
+    }
+
+    @Test
+    void prefixRequiresEveryWord() {
+        assertThat(names("tal perc", "prefix")).containsExactly("Taladro Percutor");
+        assertThat(names("sierra man", "prefix")).isEmpty();
+        // palabra del nombre + palabra de la categoría
+        assertThat(names("martillo manuales", "prefix")).containsExactly("Martillo");
+    }
+
+    @Test
+    void nameMatchScoresAboveCategoryMatch() {
+        List<Map<String, Object>> results = index.search("man", "prefix", 10);
+        assertThat(results).extracting(r -> r.get("name")).containsExactlyInAnyOrder("Martillo", "Llave Inglesa");
+        assertThat(results).allSatisfy(r -> assertThat((double) r.get("score")).isEqualTo(0.4));
+        assertThat(index.search("mart", "prefix", 10).get(0).get("score")).isEqualTo(0.9);
+    }
+
+    @Test
+    void fuzzyToleratesTypos() {
+        assertThat(names("taldro", "fuzzy")).startsWith("Taladro");
+        assertThat(names("sierra circulr", "fuzzy")).first().isEqualTo("Sierra Circular");
+        assertThat(names("xyz", "fuzzy")).isEmpty();
+    }
+
+    @Test
+    void limitKeepsTheBestResults() {
+        assertThat(index.search("electricas taladro", "prefix", 1)).extracting(r -> r.get("name")).containsExactly("Taladro");
+    }
+
+    @Test
+    void appliesChangesInSeqOrderOnly() {
+        index.onToolChanged(new ToolChangedEvent(List.of(change(10, tool(4, "Mazo", "Manuales"))), false));
+        // llega tarde un cambio anterior de la misma herramienta: se descarta
+        index.onToolChanged(new ToolChangedEvent(List.of(change(6, tool(4, "Martillo Viejo", "Manuales"))), false));
+
+        assertThat(names("mazo", "prefix")).containsExactly("Mazo");
+        assertThat(names("martillo", "prefix")).isEmpty();
+    }
+
+    @Test
+    void deletionRemovesTheToolAndOlderChangesDoNotRevive() {
+        index.onToolChanged(new ToolChangedEvent(List.of(new Change(5, null, 20)), false));
+        index.onToolChanged(new ToolChangedEvent(List.of(change(7, tool(5, "Llave Inglesa", "Manuales"))), false));
+
+        assertThat(names("llave", "prefix")).isEmpty();
+        assertThat(names("lave inglesa", "fuzzy")).isEmpty();
+    }
+
+    @Test
+    void snapshotReplacesEverything() {
+        index.onToolChanged(new ToolChangedEvent(List.of(change(1, tool(9, "Escalera", "Altura"))), true));
+
+        assertThat(names("taladro", "prefix")).isEmpty();
+        assertThat(names("esc", "prefix")).containsExactly("Escalera");
+    }
+
+    @Test
+    void blankQueryIsRejected() {
+        assertThatThrownBy(() -> index.search("  ", "prefix", 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.kardexservice.config;
+
+import com.example.kardexservice.services.KardexPartitionService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+// Migraciones de datos que ddl-auto=update no hace. Corren al arrancar, después de que Hibernate
+// actualizó el esquema (por eso depende del EntityManagerFactory) y antes de atender requests.
+// Cada paso es idempotente.
+@Component
+public class KardexSchemaMigrations {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexSchemaMigrations.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private KardexPartitionService partitionService;
+
+    @PostConstruct
+    public void migrate() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            partitionKardex();
+            createHistoryIndexes();
+            addCommitOrder();
+            alignKardexSequence();
+            backfillDailyRollup();
+        });
+    }
+
+    private boolean tableExists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table));
+    }
+
+    // kardex (tabla normal, creada por Hibernate) -> tabla particionada por mes en movement_date.
+    // PK (id, movement_date) y sourceRef único con movement_date: Postgres exige la columna de partición en ambos.
+    // La tabla antigua queda renombrada a kardex_legacy.
+    private void partitionKardex() {
+        List<String> kind = jdbcTemplate.queryForList("SELECT relkind::text FROM pg_class WHERE oid = to_regclass('kardex')", String.class);
+        if (kind.isEmpty() || !"r".equals(kind.get(0))) return;   // no existe o ya está particionada ('p')
+
+        jdbcTemplate.execute("ALTER TABLE kardex RENAME TO kardex_legacy");
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS kardex_pkey RENAME TO kardex_legacy_pkey");
+        jdbcTemplate.execute("CREATE TABLE kardex (" +
+                "id bigint NOT NULL, rut_customer varchar(255), movement_type varchar(255), movement_date date NOT NULL, " +
+                "tool_name varchar(255), tool_quantity integer NOT NULL, source_ref varchar(255), " +
+                "CONSTRAINT kardex_pkey PRIMARY KEY (id, movement_date), " +
+                "CONSTRAINT uk_kardex_source_ref_date UNIQUE (source_ref, movement_date)" +
+                ") PARTITION BY RANGE (movement_date)");
+        jdbcTemplate.execute("CREATE INDEX idx_kardex_type_date ON kardex (movement_type, movement_date)");
+
+        // una partición por cada mes con movimientos, más el actual
+        Map<String, Object> range = jdbcTemplate.queryForMap(
+                "SELECT COALESCE(MIN(movement_date), CURRENT_DATE) AS first, COALESCE(MAX(movement_date), CURRENT_DATE) AS last FROM kardex_legacy");
+        YearMonth first = YearMonth.from(((Date) range.get("first")).toLocalDate());
+        YearMonth last = YearMonth.from(((Date) range.get("last")).toLocalDate());
+        if (last.isBefore(YearMonth.now())) last = YearMonth.now();
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) partitionService.createPartition(month);
+
+        int rows = jdbcTemplate.update("INSERT INTO kardex (id, rut_customer, movement_type, movement_date, tool_name, tool_quantity, source_ref) " +
+                "SELECT id, rut_customer, movement_type, COALESCE(movement_date, CURRENT_DATE), tool_name, tool_quantity, source_ref " +
+                "FROM kardex_legacy");
+
+        log.info("kardex particionada por mes ({} a {}), {} movimientos copiados", first, last, rows);
+    }
+
+    // Historial por herramienta / cliente paginado por (movement_date, id): cada página es un rango del índice.
+    // (tool_name, movement_date, id) reemplaza a idx_kardex_tool_date.
+    private void createHistoryIndexes() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_kardex_tool_date_id ON kardex (tool_name, movement_date, id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_kardex_customer_date_id ON kardex (rut_customer, movement_date, id)");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_kardex_tool_date");
+    }
+
+    // txid de la transacción que guardó cada movimiento (lo pone la BD; no está en KardexEntity): KardexColumnStore
+    // lee en orden de commit desde su position. Las filas anteriores a la columna quedan en NULL, bajo cualquier cursor.
+    private void addCommitOrder() {
+        jdbcTemplate.execute("ALTER TABLE kardex ADD COLUMN IF NOT EXISTS txid bigint");
+        jdbcTemplate.execute("ALTER TABLE kardex ALTER COLUMN txid SET DEFAULT pg_current_xact_id()::text::bigint");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_kardex_txid ON kardex (txid)");
+    }
+
+    // kardex pasó de IDENTITY a kardex_seq: la secuencia debe quedar por sobre los ids ya usados
+    // (+50 por el optimizador pooled de Hibernate, que toma el valor de la secuencia como tope del bloque)
+    private void alignKardexSequence() {
+        if (!tableExists("kardex_seq")) return;
+        jdbcTemplate.queryForObject(
+                "SELECT setval('kardex_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM kardex) + 50, " +
+                        "(SELECT last_value FROM kardex_seq)))", Long.class);
+    }
+
+    // Primer arranque con kardex_daily_rollup: se arma desde los movimientos existentes. El lock evita que un
+    // movimiento guardado por otra instancia durante el backfill quede contado dos veces (o ninguna).
+    private void backfillDailyRollup() {
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM kardex_daily_rollup)", Boolean.class))) return;
+
+        jdbcTemplate.execute("LOCK TABLE kardex IN SHARE ROW EXCLUSIVE MODE");
+        int rows = jdbcTemplate.update(
+                "INSERT INTO kardex_daily_rollup (day, tool_name, movement_type, movements, quantity) " +
+                        "SELECT movement_date, tool_name, movement_type, COUNT(*), SUM(tool_quantity) FROM kardex " +
+                        "WHERE movement_date IS NOT NULL AND tool_name IS NOT NULL AND movement_type IS NOT NULL " +
+                        "GROUP BY movement_date, tool_name, movement_type " +
+                        "ON CONFLICT (day, tool_name, movement_type) DO NOTHING");
+
+        log.info("kardex_daily_rollup inicializado con {} casillas", rows);
+    }
+}
@@ -2,11 +2,18 @@ package com.example.kardexservice.controllers;
 
 import com.example.kardexservice.entities.KardexEntity;
 import com.example.kardexservice.repositories.KardexRepository;
+import com.example.kardexservice.services.KardexColumnStore;
 import com.example.kardexservice.services.KardexService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
 import java.util.List;
@@ -22,6 +29,20 @@ public class KardexController {
     @Autowired
     private KardexService kardexService;
 
+    @Autowired
+    private KardexColumnStore columnStore;
+
+    // 400 solo para validaciones (IllegalArgumentException). Un choque de concurrencia (el mismo sourceRef
+    // insertado a la vez, lock) es 409 y cualquier otra falla (BD caída, timeout, partición faltante) es 500:
+    // el relay de inventory-service los reintenta en vez de apartar el movimiento como rechazado.
+    private static ResponseEntity<?> error(Exception e) {
+        if (e instanceof IllegalArgumentException) return ResponseEntity.badRequest().body(e.getMessage());
+        if (e instanceof DataIntegrityViolationException || e instanceof ConcurrencyFailureException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+    }
+
     // ✅ ESTE endpoint lo usa inventory-service:
     // POST http://kardex-service/api/v1/kardex/movements
     @PostMapping("/movements")
@@ -29,48 +50,156 @@ public class KardexController {
         try {
             return ResponseEntity.ok(kardexService.saveMovement(movement));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
-    // RF5.2: History by tool (consulta simple)
+    // Ingreso en lote (inventory-service envía su outbox así):
+    // arreglo de movimientos -> resultado por ítem { index, status: OK | DUPLICATE | ERROR, idMovement | error }
+    @PostMapping("/movements/batch")
+    public ResponseEntity<?> createMovements(@RequestBody List<KardexEntity> movements) {
+        try {
+            return ResponseEntity.ok(kardexService.saveMovements(movements));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // RF5.2: History by tool. Sin limit: la lista completa ordenada (como antes).
+    // ?limit=&after= -> página keyset { items, next } por (movementDate, id), con filtros opcionales type, from, to.
     @GetMapping("/tool-history")
-    public ResponseEntity<?> toolHistory(@RequestParam String toolName) {
+    public ResponseEntity<?> toolHistory(
+            @RequestParam String toolName,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit
+    ) {
         try {
             if (toolName == null || toolName.isBlank()) {
                 return ResponseEntity.badRequest().body("toolName es requerido");
             }
-            return ResponseEntity.ok(kardexRepository.findBytoolName(toolName));
+            if (limit != null) {
+                return ResponseEntity.ok(kardexService.pageToolHistory(toolName, type, from, to, after, limit));
+            }
+            return ResponseEntity.ok(kardexRepository.findBytoolNameOrderByMovementDateAscIdAsc(toolName));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
-    // RF5.3: Movements by range (consulta simple)
+    // Movimientos de un cliente, mismos parámetros que /tool-history
+    @GetMapping("/customer-history")
+    public ResponseEntity<?> customerHistory(
+            @RequestParam String rutCustomer,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit
+    ) {
+        try {
+            if (rutCustomer == null || rutCustomer.isBlank()) {
+                return ResponseEntity.badRequest().body("rutCustomer es requerido");
+            }
+            if (limit != null) {
+                return ResponseEntity.ok(kardexService.pageCustomerHistory(rutCustomer, type, from, to, after, limit));
+            }
+            return ResponseEntity.ok(kardexRepository.findByrutCustomerOrderByMovementDateAscIdAsc(rutCustomer));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // RF5.3: Movements by range (solo las particiones del rango; archive=true incluye los meses archivados)
     @GetMapping("/range")
     public ResponseEntity<?> movementsInRange(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
-            @RequestParam String movementType
+            @RequestParam String movementType,
+            @RequestParam(defaultValue = "false") boolean archive
     ) {
         try {
-            if (to.isBefore(from)) {
-                return ResponseEntity.badRequest().body("El rango de fechas es inválido (to < from)");
-            }
-            return ResponseEntity.ok(
-                    kardexRepository.findByMovementTypeAndMovementDateBetween(movementType, from, to)
-            );
+            return ResponseEntity.ok(kardexService.movementsInRange(movementType, from, to, archive));
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 
+    // Ranking de herramientas (lo usa reporting-service): suma los resúmenes diarios, no recorre movimientos
+    @GetMapping("/tools/top")
+    public ResponseEntity<?> topTools(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String movementType,
+            @RequestParam(required = false) Integer limit
+    ) {
+        try {
+            return ResponseEntity.ok(kardexService.topTools(from, to, movementType, limit));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Agregaciones desde la copia en memoria (KardexColumnStore):
+    // ?groupBy=type,day&from=&to=&type=&toolName=&rutCustomer= ->
+    // { rows, movements, quantity, coveredFrom, loadedAt, refreshedAt, groups } (503 mientras se carga al arrancar)
+    @GetMapping("/analytics")
+    public ResponseEntity<?> analytics(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String toolName,
+            @RequestParam(required = false) String rutCustomer,
+            @RequestParam(required = false, defaultValue = "type") String groupBy
+    ) {
+        try {
+            return ResponseEntity.ok(columnStore.analytics(from, to, type, toolName, rutCustomer, groupBy));
+        } catch (IllegalStateException e) {
+            // primera carga en curso: reintentar más tarde
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "5").body(e.getMessage());
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Mismo arreglo JSON de antes, pero escrito en streaming desde un cursor (no carga todo en memoria)
     @GetMapping("/all")
     public ResponseEntity<?> allKardex() {
         try {
-            return ResponseEntity.ok(kardexRepository.findAll());
+            StreamingResponseBody body = out -> kardexService.export("json", null, null, null, out);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Exportación completa o filtrada: format=ndjson (por defecto) o csv, en streaming
+    @GetMapping("/export")
+    public ResponseEntity<?> export(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String type
+    ) {
+        try {
+            if (!format.equals("ndjson") && !format.equals("csv")) {
+                return ResponseEntity.badRequest().body("format debe ser ndjson o csv");
+            }
+            if (from != null && to != null && to.isBefore(from)) {
+                return ResponseEntity.badRequest().body("El rango de fechas es inválido (to < from)");
+            }
+            StreamingResponseBody body = out -> kardexService.export(format, from, to, type, out);
+            MediaType mediaType = format.equals("csv")
+                    ? MediaType.parseMediaType("text/csv; charset=UTF-8")
+                    : MediaType.parseMediaType("application/x-ndjson");
+            return ResponseEntity.ok()
+                    .contentType(mediaType)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=kardex." + format)
+                    .body(body);
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return error(e);
         }
     }
 }
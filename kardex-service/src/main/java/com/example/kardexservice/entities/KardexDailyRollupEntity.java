@@ -0,0 +1,43 @@
+package com.example.kardexservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+// Resumen diario por (día, herramienta, tipo de movimiento): cantidad de movimientos y unidades.
+// KardexService lo actualiza en la misma transacción que guarda cada movimiento; GET /tools/top suma estos días.
+@Entity
+@Table(name = "kardex_daily_rollup", indexes = {
+        @Index(name = "idx_kardex_rollup_type_day", columnList = "movementType, day")
+})
+@IdClass(KardexDailyRollupEntity.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KardexDailyRollupEntity {
+
+    @Id
+    private LocalDate day;
+
+    @Id
+    private String toolName;
+
+    @Id
+    private String movementType;
+
+    private long movements;
+    private long quantity;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private LocalDate day;
+        private String toolName;
+        private String movementType;
+    }
+}
@@ -7,6 +7,8 @@ import lombok.NoArgsConstructor;
 
 import java.time.LocalDate;
 
+// Tabla particionada por mes en movement_date (ver KardexSchemaMigrations / KardexPartitionService):
+// la PK es (id, movement_date) y sourceRef es único junto con movement_date, por eso no se declaran aquí.
 @Entity
 @Table(name = "kardex")
 @Data
@@ -15,13 +17,19 @@ import java.time.LocalDate;
 public class KardexEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    @Column(unique = true, nullable = false)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "kardex_seq")
+    @SequenceGenerator(name = "kardex_seq", sequenceName = "kardex_seq", allocationSize = 50)
+    @Column(nullable = false)
     private Long id;
 
     private String rutCustomer;
     private String movementType;
+    @Column(nullable = false)
     private LocalDate movementDate;
     private String toolName;
     private int toolQuantity;
+
+    // Identificador del emisor (ej: "inventory-outbox-15"): un reenvío del mismo movimiento no se duplica.
+    // Único con movement_date (el emisor reenvía siempre la misma fecha)
+    private String sourceRef;
 }
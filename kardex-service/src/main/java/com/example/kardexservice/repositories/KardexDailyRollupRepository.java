@@ -0,0 +1,21 @@
+package com.example.kardexservice.repositories;
+
+import com.example.kardexservice.entities.KardexDailyRollupEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface KardexDailyRollupRepository extends JpaRepository<KardexDailyRollupEntity, KardexDailyRollupEntity.Key> {
+
+    // Totales por herramienta en el rango: [toolName, movements, quantity]
+    @Query("SELECT r.toolName, SUM(r.movements), SUM(r.quantity) FROM KardexDailyRollupEntity r " +
+            "WHERE r.movementType = :movementType AND r.day BETWEEN :from AND :to GROUP BY r.toolName")
+    List<Object[]> sumByTool(@Param("movementType") String movementType,
+                             @Param("from") LocalDate from,
+                             @Param("to") LocalDate to);
+}
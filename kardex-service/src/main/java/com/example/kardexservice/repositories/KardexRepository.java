@@ -2,9 +2,12 @@ package com.example.kardexservice.repositories;
 
 import com.example.kardexservice.entities.KardexEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -21,4 +24,42 @@ public interface KardexRepository extends JpaRepository<KardexEntity, Long> {
     List<KardexEntity> findBytoolName(String toolName);
 
     List<KardexEntity> findByMovementTypeAndMovementDateBetween(String movementType, LocalDate from, LocalDate to);
+
+    List<KardexEntity> findBytoolNameOrderByMovementDateAscIdAsc(String toolName);
+
+    List<KardexEntity> findByrutCustomerOrderByMovementDateAscIdAsc(String rutCustomer);
+
+    // Páginas keyset por (movement_date, id): la comparación de filas recorre un rango de
+    // idx_kardex_tool_date_id / idx_kardex_customer_date_id y solo las particiones entre from y to.
+    // movement_date >= afterDate repite lo que ya implica el cursor para que la poda de particiones también
+    // deje fuera los meses anteriores a él (la comparación de filas sola no poda). type es opcional (null = todos).
+    @Query(value = "SELECT * FROM kardex WHERE tool_name = :toolName " +
+            "AND (CAST(:type AS varchar) IS NULL OR movement_type = CAST(:type AS varchar)) " +
+            "AND movement_date BETWEEN :from AND :to " +
+            "AND movement_date >= :afterDate AND (movement_date, id) > (:afterDate, :afterId) " +
+            "ORDER BY movement_date, id LIMIT :limit", nativeQuery = true)
+    List<KardexEntity> pageByToolName(@Param("toolName") String toolName,
+                                      @Param("type") String type,
+                                      @Param("from") LocalDate from,
+                                      @Param("to") LocalDate to,
+                                      @Param("afterDate") LocalDate afterDate,
+                                      @Param("afterId") long afterId,
+                                      @Param("limit") int limit);
+
+    @Query(value = "SELECT * FROM kardex WHERE rut_customer = :rutCustomer " +
+            "AND (CAST(:type AS varchar) IS NULL OR movement_type = CAST(:type AS varchar)) " +
+            "AND movement_date BETWEEN :from AND :to " +
+            "AND movement_date >= :afterDate AND (movement_date, id) > (:afterDate, :afterId) " +
+            "ORDER BY movement_date, id LIMIT :limit", nativeQuery = true)
+    List<KardexEntity> pageByRutCustomer(@Param("rutCustomer") String rutCustomer,
+                                         @Param("type") String type,
+                                         @Param("from") LocalDate from,
+                                         @Param("to") LocalDate to,
+                                         @Param("afterDate") LocalDate afterDate,
+                                         @Param("afterId") long afterId,
+                                         @Param("limit") int limit);
+
+    KardexEntity findBySourceRef(String sourceRef);
+
+    List<KardexEntity> findBySourceRefIn(Collection<String> sourceRefs);
 }
@@ -0,0 +1,481 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Copia en memoria de kardex por columnas, para GET /analytics (agregaciones por rango sin pasar por la BD):
+//   - arreglos primitivos: id (long), día (epoch day), herramienta, tipo y cliente como códigos de diccionario, cantidad
+//   - se carga al partir y se reconstruye con reload-cron; los movimientos guardados en esta instancia se agregan
+//     al confirmar la transacción y los de otras instancias cada refresh-ms, en orden de commit: cada movimiento
+//     guarda el txid de su transacción y el refresco lee desde la última position hasta el xmin de la foto actual
+//     (pg_snapshot_xmin: esas transacciones ya terminaron, nada confirmado después queda bajo el cursor), igual
+//     que el feed de cambios de inventory-service
+//   - las consultas filtran y agrupan recorriendo los arreglos en paralelo (fork/join sobre rangos de filas)
+// Solo cubre los meses que siguen en kardex: /analytics recorta el rango desde el primer mes que el archivado
+// (KardexPartitionService) todavía no elimina y lo informa en coveredFrom. /tools/top, que lee kardex_daily_rollup,
+// sí incluye los meses archivados.
+// Los lectores leen size antes que las columnas: las filas bajo size ya no cambian.
+@Service
+public class KardexColumnStore {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexColumnStore.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final String LOAD =
+            "SELECT id, movement_date, tool_name, movement_type, rut_customer, tool_quantity, COALESCE(txid, 0) FROM kardex";
+
+    // idx_kardex_txid en cada partición
+    private static final String REFRESH = LOAD + " WHERE txid >= ? AND txid < ?";
+
+    // Transacciones con txid menor que esto ya terminaron (confirmadas o no)
+    private static final String HORIZON = "SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint";
+
+    // txid de la transacción que guardó los movimientos; sin transacción, una cota superior de lo ya confirmado
+    private static final String WRITER_TXID =
+            "SELECT COALESCE(pg_current_xact_id_if_assigned(), pg_snapshot_xmax(pg_current_snapshot()))::text::bigint";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${kardex.analytics.enabled:true}")
+    private boolean enabled;
+
+    @Value("${kardex.analytics.fetch-size:5000}")
+    private int fetchSize;
+
+    // Filas por tarea de fork/join: bajo este tamaño el rango se recorre en un solo hilo
+    @Value("${kardex.analytics.split-rows:65536}")
+    private int splitRows;
+
+    @Value("${kardex.partitions.archive-after-months:24}")
+    private int archiveAfterMonths;
+
+    private volatile State state;                  // null mientras no termina la primera carga
+    private volatile LocalDateTime loadedAt;
+    private volatile LocalDateTime refreshedAt;
+    private List<Row> pending;                     // guardados durante una (re)carga; protegido por this
+    private final Object rebuildLock = new Object();
+
+    record Row(long id, int day, String toolName, String movementType, String rutCustomer, int quantity, long txid) {}
+
+    private static Row read(ResultSet rs) throws SQLException {
+        return new Row(rs.getLong(1), (int) rs.getDate(2).toLocalDate().toEpochDay(),
+                rs.getString(3), rs.getString(4), rs.getString(5), rs.getInt(6), rs.getLong(7));
+    }
+
+    private long horizon() {
+        Long xmin = jdbcTemplate.queryForObject(HORIZON, Long.class);
+        return xmin != null ? xmin : 0;
+    }
+
+    // ------------------ Estructura ------------------
+
+    // Diccionario de un texto a código (0..n-1). encode solo desde el escritor; decode desde cualquier hilo.
+    private static final class Dict {
+        private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[64];
+        private int count = 0;
+
+        int encode(String value) {
+            String v = value != null ? value : "";
+            Integer code = codes.get(v);
+            if (code != null) return code;
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count] = v;
+            codes.put(v, count);
+            return count++;
+        }
+
+        // -1 si nunca apareció (el filtro no calza con ninguna fila)
+        int lookup(String value) {
+            Integer code = codes.get(value);
+            return code != null ? code : -1;
+        }
+
+        String decode(int code) {
+            return values[code];
+        }
+    }
+
+    private record Columns(long[] id, int[] day, int[] tool, int[] type, int[] customer, int[] quantity) {
+        static Columns of(int capacity) {
+            return new Columns(new long[capacity], new int[capacity], new int[capacity],
+                    new int[capacity], new int[capacity], new int[capacity]);
+        }
+
+        Columns grow(int capacity) {
+            return new Columns(Arrays.copyOf(id, capacity), Arrays.copyOf(day, capacity), Arrays.copyOf(tool, capacity),
+                    Arrays.copyOf(type, capacity), Arrays.copyOf(customer, capacity), Arrays.copyOf(quantity, capacity));
+        }
+    }
+
+    private static final class State {
+        final Dict tools = new Dict();
+        final Dict types = new Dict();
+        final Dict customers = new Dict();
+        volatile Columns columns = Columns.of(INITIAL_CAPACITY);
+        volatile int size = 0;
+
+        // Solo el escritor (con el monitor del store): hasta dónde se leyó kardex en orden de commit (todo lo de
+        // transacciones con txid menor ya está cargado) y id -> txid de lo cargado desde ahí, que un refresco
+        // posterior puede volver a traer. Así un movimiento que llega por append y por refresh entra una vez.
+        long position = 0;
+        final Map<Long, Long> recent = new HashMap<>();
+
+        // Agrega la fila salvo que ya esté: bajo position la trajo la lectura, sobre ella queda en recent
+        void addNew(Row r) {
+            if (r.txid() < position) return;
+            if (recent.putIfAbsent(r.id(), r.txid()) == null) add(r);
+        }
+
+        // Ya leído hasta to: lo de más abajo no vuelve a llegar
+        void advance(long to) {
+            position = to;
+            recent.values().removeIf(txid -> txid < to);
+        }
+
+        void add(Row r) {
+            Columns c = columns;
+            int n = size;
+            if (n == c.id().length) {
+                c = c.grow(n + (n >> 1));
+                columns = c;
+            }
+            c.id()[n] = r.id();
+            c.day()[n] = r.day();
+            c.tool()[n] = tools.encode(r.toolName());
+            c.type()[n] = types.encode(r.movementType());
+            c.customer()[n] = customers.encode(r.rutCustomer());
+            c.quantity()[n] = r.quantity();
+            size = n + 1;   // publica la fila
+        }
+    }
+
+    // ------------------ Carga ------------------
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (enabled) rebuild();
+    }
+
+    @Scheduled(cron = "${kardex.analytics.reload-cron:0 0 3 * * *}")
+    public void reload() {
+        if (enabled && state != null) rebuild();
+    }
+
+    // Arma un estado nuevo desde kardex con un cursor del servidor y lo reemplaza entero. REPEATABLE READ: position
+    // sale de la misma foto que las filas; lo que la foto ve sobre position queda en recent.
+    // Lo guardado mientras tanto queda en pending y se agrega al final si la lectura no lo alcanzó a ver.
+    private void rebuild() {
+        synchronized (rebuildLock) {
+            synchronized (this) {
+                pending = new ArrayList<>();
+            }
+            State fresh = new State();
+            try {
+                TransactionTemplate tx = new TransactionTemplate(transactionManager);
+                tx.setReadOnly(true);
+                tx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+                tx.executeWithoutResult(status -> {
+                    fresh.position = horizon();
+                    jdbcTemplate.query(con -> {
+                        PreparedStatement ps = con.prepareStatement(LOAD);
+                        ps.setFetchSize(fetchSize);
+                        return ps;
+                    }, rs -> {
+                        Row r = read(rs);
+                        fresh.add(r);
+                        if (r.txid() >= fresh.position) fresh.recent.put(r.id(), r.txid());
+                    });
+                });
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    pending = null;
+                }
+                log.error("KardexColumnStore: no se pudo cargar kardex", e);
+                return;
+            }
+
+            synchronized (this) {
+                for (Row r : pending) fresh.addNew(r);
+                pending = null;
+                state = fresh;
+                loadedAt = LocalDateTime.now();
+                refreshedAt = loadedAt;
+            }
+            log.info("KardexColumnStore: {} movimientos cargados", fresh.size);
+        }
+    }
+
+    // Movimientos confirmados desde el último refresco (en cualquier instancia): transacciones terminadas con txid
+    // en [position, xmin actual), por idx_kardex_txid. El límite se calcula antes de leer, así la lectura ve todo
+    // lo confirmado bajo él; lo ya cargado por append se descarta.
+    @Scheduled(initialDelayString = "${kardex.analytics.refresh-ms:5000}",
+            fixedDelayString = "${kardex.analytics.refresh-ms:5000}")
+    public void refresh() {
+        if (!enabled) return;
+        synchronized (rebuildLock) {
+            State s = state;
+            if (s == null) return;
+            long from;
+            synchronized (this) {
+                from = s.position;
+            }
+
+            List<Row> rows = new ArrayList<>();
+            long to;
+            try {
+                to = horizon();
+                if (to > from) {
+                    jdbcTemplate.query(REFRESH, rs -> {
+                        rows.add(read(rs));
+                    }, from, to);
+                }
+            } catch (RuntimeException e) {
+                log.warn("KardexColumnStore: no se pudo refrescar: {}", e.getMessage());
+                return;
+            }
+
+            synchronized (this) {
+                for (Row r : rows) s.addNew(r);
+                if (to > from) s.advance(to);
+                refreshedAt = LocalDateTime.now();
+            }
+        }
+    }
+
+    // ------------------ Escritura ------------------
+
+    // KardexService lo llama con los movimientos recién guardados, dentro de su transacción: entran al confirmar
+    // (si se revierte, no entran) con el txid que les puso la BD, para reconocerlos cuando los traiga el refresco
+    public void appendAfterCommit(Collection<KardexEntity> saved) {
+        if (!enabled || saved.isEmpty()) return;
+        Long writer = jdbcTemplate.queryForObject(WRITER_TXID, Long.class);
+        long txid = writer != null ? writer : 0;
+        List<Row> rows = new ArrayList<>(saved.size());
+        for (KardexEntity m : saved) {
+            rows.add(new Row(m.getId(), (int) m.getMovementDate().toEpochDay(),
+                    m.getToolName(), m.getMovementType(), m.getRutCustomer(), m.getToolQuantity(), txid));
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    append(rows);
+                }
+            });
+        } else {
+            append(rows);
+        }
+    }
+
+    private synchronized void append(List<Row> rows) {
+        if (pending != null) pending.addAll(rows);
+        State s = state;
+        if (s != null) for (Row r : rows) s.addNew(r);
+    }
+
+    // ------------------ Consultas ------------------
+
+    private enum Dim { DAY, TOOL, TYPE, CUSTOMER }
+
+    private static Dim parseDim(String name) {
+        return switch (name.trim()) {
+            case "day" -> Dim.DAY;
+            case "tool" -> Dim.TOOL;
+            case "type" -> Dim.TYPE;
+            case "customer" -> Dim.CUSTOMER;
+            default -> throw new IllegalArgumentException("groupBy inválido: " + name + " (day, tool, type, customer)");
+        };
+    }
+
+    private static int code(Columns c, Dim dim, int i) {
+        return switch (dim) {
+            case DAY -> c.day()[i];
+            case TOOL -> c.tool()[i];
+            case TYPE -> c.type()[i];
+            case CUSTOMER -> c.customer()[i];
+        };
+    }
+
+    // Filtros ya convertidos a códigos (-1 = sin filtro). Hasta dos dimensiones: la clave del grupo es
+    // un long con el código de la primera en los 32 bits altos. Cada hoja acumula { movimientos, cantidad }.
+    private record Filter(int fromDay, int toDay, int type, int tool, int customer, Dim[] dims) {}
+
+    private final class Scan extends RecursiveTask<Map<Long, long[]>> {
+        private final Columns c;
+        private final Filter f;
+        private final int lo;
+        private final int hi;
+
+        Scan(Columns c, Filter f, int lo, int hi) {
+            this.c = c;
+            this.f = f;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Map<Long, long[]> compute() {
+            if (hi - lo > splitRows) {
+                int mid = (lo + hi) >>> 1;
+                Scan left = new Scan(c, f, lo, mid);
+                left.fork();
+                Map<Long, long[]> right = new Scan(c, f, mid, hi).compute();
+                return merge(left.join(), right);
+            }
+
+            int[] day = c.day(), type = c.type(), tool = c.tool(), customer = c.customer(), quantity = c.quantity();
+            Dim[] dims = f.dims();
+            Map<Long, long[]> groups = new HashMap<>();
+            long lastKey = 0;
+            long[] last = null;
+            for (int i = lo; i < hi; i++) {
+                if (day[i] < f.fromDay() || day[i] > f.toDay()) continue;
+                if (f.type() >= 0 && type[i] != f.type()) continue;
+                if (f.tool() >= 0 && tool[i] != f.tool()) continue;
+                if (f.customer() >= 0 && customer[i] != f.customer()) continue;
+
+                long key = dims.length == 0 ? 0 : code(c, dims[0], i);
+                if (dims.length == 2) key = (key << 32) | (code(c, dims[1], i) & 0xffffffffL);
+                // filas vecinas suelen caer en el mismo grupo (mismo día): se evita buscar en el mapa
+                if (last == null || key != lastKey) {
+                    last = groups.computeIfAbsent(key, k -> new long[2]);
+                    lastKey = key;
+                }
+                last[0]++;
+                last[1] += quantity[i];
+            }
+            return groups;
+        }
+    }
+
+    private static Map<Long, long[]> merge(Map<Long, long[]> a, Map<Long, long[]> b) {
+        if (a.size() < b.size()) {
+            Map<Long, long[]> t = a;
+            a = b;
+            b = t;
+        }
+        for (Map.Entry<Long, long[]> e : b.entrySet()) {
+            long[] acc = a.get(e.getKey());
+            if (acc == null) {
+                a.put(e.getKey(), e.getValue());
+            } else {
+                acc[0] += e.getValue()[0];
+                acc[1] += e.getValue()[1];
+            }
+        }
+        return a;
+    }
+
+    private static Object label(State s, Dim dim, int code) {
+        return switch (dim) {
+            case DAY -> LocalDate.ofEpochDay(code).toString();
+            case TOOL -> s.tools.decode(code);
+            case TYPE -> s.types.decode(code);
+            case CUSTOMER -> s.customers.decode(code);
+        };
+    }
+
+    private static String field(Dim dim) {
+        return switch (dim) {
+            case DAY -> "day";
+            case TOOL -> "toolName";
+            case TYPE -> "movementType";
+            case CUSTOMER -> "rutCustomer";
+        };
+    }
+
+    // Movimientos y cantidad por grupo (groupBy: una o dos de day, tool, type, customer separadas por coma).
+    // Filtros opcionales: rango de fechas, tipo, herramienta y cliente.
+    public Map<String, Object> analytics(LocalDate from, LocalDate to, String movementType, String toolName,
+                                         String rutCustomer, String groupBy) {
+        if (!enabled) throw new IllegalArgumentException("El almacén analítico está deshabilitado");
+        State s = state;
+        if (s == null) throw new IllegalStateException("El almacén analítico aún se está cargando");
+        if (from != null && to != null && to.isBefore(from))
+            throw new IllegalArgumentException("El rango de fechas es inválido (to < from)");
+
+        // mismo resultado antes y después de que la recarga deje fuera un mes recién archivado
+        LocalDate coveredFrom = YearMonth.now().minusMonths(archiveAfterMonths).atDay(1);
+        LocalDate effectiveFrom = from == null || from.isBefore(coveredFrom) ? coveredFrom : from;
+
+        Dim[] dims = groupBy == null || groupBy.isBlank() ? new Dim[0]
+                : Arrays.stream(groupBy.split(",")).map(KardexColumnStore::parseDim).distinct().toArray(Dim[]::new);
+        if (dims.length > 2) throw new IllegalArgumentException("groupBy admite a lo más dos dimensiones");
+
+        int size = s.size;   // antes que las columnas
+        Columns c = s.columns;
+
+        int type = movementType != null ? s.types.lookup(movementType) : -1;
+        int tool = toolName != null ? s.tools.lookup(toolName) : -1;
+        int customer = rutCustomer != null ? s.customers.lookup(rutCustomer) : -1;
+        boolean noMatch = (movementType != null && type < 0) || (toolName != null && tool < 0)
+                || (rutCustomer != null && customer < 0);
+
+        Map<Long, long[]> groups = noMatch ? Map.of() : ForkJoinPool.commonPool().invoke(new Scan(c,
+                new Filter((int) effectiveFrom.toEpochDay(),
+                        to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE,
+                        type, tool, customer, dims), 0, size));
+
+        List<Map<String, Object>> out = new ArrayList<>(groups.size());
+        long movements = 0;
+        long quantity = 0;
+        for (Map.Entry<Long, long[]> e : groups.entrySet()) {
+            Map<String, Object> g = new LinkedHashMap<>();
+            long key = e.getKey();
+            if (dims.length == 1) g.put(field(dims[0]), label(s, dims[0], (int) key));
+            if (dims.length == 2) {
+                g.put(field(dims[0]), label(s, dims[0], (int) (key >> 32)));
+                g.put(field(dims[1]), label(s, dims[1], (int) key));
+            }
+            g.put("movements", e.getValue()[0]);
+            g.put("quantity", e.getValue()[1]);
+            out.add(g);
+            movements += e.getValue()[0];
+            quantity += e.getValue()[1];
+        }
+        // orden por las dimensiones (las fechas ISO ordenan igual como texto)
+        Comparator<Map<String, Object>> order = (a, b) -> 0;
+        for (Dim dim : dims) order = order.thenComparing(g -> String.valueOf(g.get(field(dim))));
+        out.sort(order);
+
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("rows", size);
+        resp.put("movements", movements);
+        resp.put("quantity", quantity);
+        resp.put("coveredFrom", coveredFrom);
+        resp.put("loadedAt", loadedAt);
+        resp.put("refreshedAt", refreshedAt);
+        resp.put("groups", out);
+        return resp;
+    }
+}
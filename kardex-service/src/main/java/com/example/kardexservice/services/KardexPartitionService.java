@@ -0,0 +1,272 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Particiones mensuales de kardex (PARTITION BY RANGE (movement_date), ver KardexSchemaMigrations):
+//   - ensure(): crea la partición del mes antes de insertar (y las de los próximos months-ahead meses cada día)
+//   - archive: los meses anteriores a archive-after-months se exportan a archive-dir/kardex_yYYYYmMM.ndjson.gz
+//     y la partición se elimina; GET /range?archive=true los vuelve a leer desde esos archivos. archive-dir es
+//     obligatorio y debe ser un volumen persistente compartido por todas las instancias (se valida al arrancar)
+//   - cada mes se archiva en su propia transacción y el DETACH espera a lo más lock-timeout-ms: el bloqueo
+//     exclusivo sobre kardex dura solo el DETACH + DROP, no la escritura de los archivos
+// Las consultas con rango de movement_date solo recorren las particiones del rango (partition pruning).
+@Service
+public class KardexPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexPartitionService.class);
+
+    // Solo una instancia mantiene particiones a la vez
+    private static final long MAINTENANCE_LOCK_KEY = 0x6b61726465785f70L;
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("kardex_y(\\d{4})m(\\d{2})");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${kardex.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${kardex.partitions.archive-after-months:24}")
+    private int archiveAfterMonths;
+
+    @Value("${kardex.partitions.archive-dir}")
+    private String archiveDir;
+
+    // Espera máxima por los locks del archivado (LOCK de la partición y DETACH). Sin tope, un DETACH esperando
+    // a un /export largo deja en cola detrás de él a todos los inserts y consultas de kardex
+    @Value("${kardex.partitions.lock-timeout-ms:2000}")
+    private long lockTimeoutMs;
+
+    // Meses con partición ya confirmada en esta instancia (evita el CREATE en cada insert). Solo se guardan meses
+    // que el archivado todavía no puede eliminar: los más antiguos los puede archivar otra instancia en cualquier
+    // momento y el insert fallaría con "no partition of relation found for row"
+    private final Set<YearMonth> known = ConcurrentHashMap.newKeySet();
+
+    // ------------------ Helpers ------------------
+
+    public static String partitionName(YearMonth month) {
+        return String.format("kardex_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private Path archiveFile(YearMonth month) {
+        return Paths.get(archiveDir, partitionName(month) + ".ndjson.gz");
+    }
+
+    // Con un mes de margen sobre el corte de maintain(), por diferencias de reloj entre instancias
+    private boolean cacheable(YearMonth month) {
+        return month.isAfter(YearMonth.now().minusMonths(archiveAfterMonths - 1));
+    }
+
+    // Escribe el archivo a disco antes de que se elimine la partición
+    private static void fsync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private TransactionTemplate newTx() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return tx;
+    }
+
+    private List<YearMonth> existingPartitions() {
+        List<YearMonth> months = new ArrayList<>();
+        for (String name : jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                        "WHERE i.inhparent = 'kardex'::regclass", String.class)) {
+            Matcher m = PARTITION_NAME.matcher(name);
+            if (m.matches()) months.add(YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))));
+        }
+        Collections.sort(months);
+        return months;
+    }
+
+    // ------------------ Creación ------------------
+
+    // Lo usa también KardexSchemaMigrations (dentro de su transacción)
+    public void createPartition(YearMonth month) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(month) + " PARTITION OF kardex " +
+                "FOR VALUES FROM ('" + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')");
+    }
+
+    // Antes de guardar movimientos: su mes debe tener partición. Se crea en una transacción aparte y corta
+    // (el CREATE bloquea kardex un instante), no en la del insert.
+    public void ensure(Collection<LocalDate> dates) {
+        for (LocalDate date : dates) {
+            YearMonth month = YearMonth.from(date);
+            if (known.contains(month)) continue;
+            newTx().executeWithoutResult(status -> createPartition(month));
+            if (cacheable(month)) known.add(month);
+        }
+    }
+
+    // ------------------ Mantención diaria ------------------
+
+    // Sin un directorio de archivo escribible no se arranca: maintain() eliminaría particiones cuyo archivo
+    // no se puede escribir (o quedaría en un disco local que las demás instancias no leen)
+    @PostConstruct
+    public void checkArchiveDir() {
+        Path dir = Paths.get(archiveDir);
+        try {
+            Files.createDirectories(dir);
+            Files.delete(Files.createTempFile(dir, ".probe", ".tmp"));
+        } catch (IOException e) {
+            throw new IllegalStateException("kardex.partitions.archive-dir no es escribible: " + dir.toAbsolutePath(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        ensureAhead();
+    }
+
+    private void ensureAhead() {
+        YearMonth current = YearMonth.now();
+        List<LocalDate> ahead = new ArrayList<>();
+        for (int i = 0; i <= monthsAhead; i++) ahead.add(current.plusMonths(i).atDay(1));
+        ensure(ahead);
+    }
+
+    @Scheduled(cron = "${kardex.partitions.maintenance-cron:0 30 2 * * *}")
+    public void maintain() {
+        ensureAhead();
+
+        YearMonth cutoff = YearMonth.now().minusMonths(archiveAfterMonths);
+        for (YearMonth month : existingPartitions()) {
+            if (!month.isBefore(cutoff)) continue;
+            try {
+                Boolean done = newTx().execute(status -> {
+                    // otra instancia está archivando: ella sigue con los meses que quedan
+                    Boolean locked = jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, MAINTENANCE_LOCK_KEY);
+                    if (!Boolean.TRUE.equals(locked)) return null;
+                    // ya la archivó otra instancia después de listar las particiones
+                    if (!existingPartitions().contains(month)) return false;
+                    archive(month);
+                    return true;
+                });
+                if (done == null) return;
+                if (done) known.remove(month);
+            } catch (RuntimeException e) {
+                // típicamente lock_timeout (un /export o /range largo sobre kardex): el archivo que haya quedado
+                // se reescribe sin duplicar en la próxima corrida
+                log.warn("No se pudo archivar {}; se reintenta en la próxima mantención: {}", partitionName(month), e.getMessage());
+            }
+        }
+    }
+
+    // Exporta el mes a un .ndjson.gz (archivo temporal + rename, así nunca queda uno a medias) y elimina la partición.
+    // Corre en la transacción del mes: el LOCK SHARE de la partición deja esperando solo a los inserts atrasados de
+    // ese mes (ninguno queda fuera del archivo) y no toca al resto de kardex; recién con el archivo escrito se pide
+    // el lock exclusivo de kardex para el DETACH, que se suelta con el commit tras el DROP.
+    // Si algo falla después de escribir el archivo, la próxima corrida lo vuelve a escribir sin duplicar.
+    private void archive(YearMonth month) {
+        String partition = partitionName(month);
+        Path target = archiveFile(month);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeoutMs + "ms'");
+        jdbcTemplate.execute("LOCK TABLE " + partition + " IN SHARE MODE");
+
+        long[] rows = {0};
+        try {
+            Files.createDirectories(target.getParent());
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8))) {
+                // el mes ya se había archivado (llegó un movimiento atrasado, o falló el DROP de la corrida anterior):
+                // se conserva lo anterior, sin repetir lo que sigue en la partición
+                if (Files.exists(target)) {
+                    Set<Long> inPartition = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM " + partition, Long.class));
+                    try (BufferedReader previous = new BufferedReader(new InputStreamReader(
+                            new GZIPInputStream(Files.newInputStream(target)), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = previous.readLine()) != null) {
+                            if (line.isBlank() || inPartition.contains(objectMapper.readTree(line).get("id").asLong())) continue;
+                            out.write(line);
+                            out.write('\n');
+                        }
+                    }
+                }
+                jdbcTemplate.query("SELECT id, rut_customer, movement_type, movement_date, tool_name, tool_quantity, source_ref " +
+                        "FROM " + partition + " ORDER BY movement_date, id", rs -> {
+                    KardexEntity k = new KardexEntity(rs.getLong(1), rs.getString(2), rs.getString(3),
+                            rs.getDate(4).toLocalDate(), rs.getString(5), rs.getInt(6), rs.getString(7));
+                    try {
+                        out.write(objectMapper.writeValueAsString(k));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    rows[0]++;
+                });
+            }
+            fsync(tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo archivar " + partition, e);
+        }
+
+        jdbcTemplate.execute("ALTER TABLE kardex DETACH PARTITION " + partition);
+        jdbcTemplate.execute("DROP TABLE " + partition);
+        log.info("Partición {} archivada en {} ({} movimientos)", partition, target, rows[0]);
+    }
+
+    // ------------------ Lectura de archivados ------------------
+
+    // Movimientos archivados en [from, to] (movementType opcional), en orden de fecha e id
+    public List<KardexEntity> readArchived(LocalDate from, LocalDate to, String movementType) {
+        List<KardexEntity> out = new ArrayList<>();
+        for (YearMonth month = YearMonth.from(from); !month.isAfter(YearMonth.from(to)); month = month.plusMonths(1)) {
+            Path file = archiveFile(month);
+            if (!Files.exists(file)) continue;
+
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    KardexEntity k = objectMapper.readValue(line, KardexEntity.class);
+                    if (k.getMovementDate().isBefore(from) || k.getMovementDate().isAfter(to)) continue;
+                    if (movementType != null && !movementType.equals(k.getMovementType())) continue;
+                    out.add(k);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo leer el archivo " + file, e);
+            }
+        }
+        return out;
+    }
+}
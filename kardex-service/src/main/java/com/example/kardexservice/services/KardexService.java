@@ -1,11 +1,27 @@
 package com.example.kardexservice.services;
 
 import com.example.kardexservice.entities.KardexEntity;
+import com.example.kardexservice.repositories.KardexDailyRollupRepository;
 import com.example.kardexservice.repositories.KardexRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.time.LocalDate;
+import java.util.*;
 
 @Service
 public class KardexService {
@@ -13,7 +29,39 @@ public class KardexService {
     @Autowired
     private KardexRepository kardexRepository;
 
-    public KardexEntity saveMovement(KardexEntity movement) {
+    @Autowired
+    private KardexDailyRollupRepository rollupRepository;
+
+    @Autowired
+    private KardexPartitionService partitionService;
+
+    @Autowired
+    private KardexColumnStore columnStore;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Mismo valor que spring.jpa.properties.hibernate.jdbc.batch_size: flush/clear cada lote
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int jdbcBatchSize;
+
+    @Value("${kardex.batch.max-items:10000}")
+    private int maxBatchItems;
+
+    // Filas que trae el cursor del servidor por viaje en las exportaciones
+    @Value("${kardex.export.fetch-size:1000}")
+    private int exportFetchSize;
+
+    private void validateMovement(KardexEntity movement) {
         if (movement == null) throw new IllegalArgumentException("Movimiento inválido");
         if (movement.getRutCustomer() == null || movement.getRutCustomer().isBlank())
             throw new IllegalArgumentException("rutCustomer es requerido");
@@ -23,11 +71,372 @@ public class KardexService {
             throw new IllegalArgumentException("toolName es requerido");
         if (movement.getToolQuantity() <= 0)
             throw new IllegalArgumentException("toolQuantity debe ser > 0");
+    }
+
+    // sourceRef por consulta IN al revisar duplicados de un lote
+    private static final int SOURCE_REF_LOOKUP = 1000;
+
+    // Casillas (día, herramienta, tipo) de kardex_daily_rollup que suman los movimientos recién guardados
+    private record RollupKey(LocalDate day, String toolName, String movementType) {}
+
+    // Orden fijo de las casillas: dos lotes concurrentes las bloquean en el mismo orden (sin deadlock)
+    private static final Comparator<RollupKey> ROLLUP_ORDER = Comparator.comparing(RollupKey::day)
+            .thenComparing(RollupKey::toolName).thenComparing(RollupKey::movementType);
+
+    // Todas las casillas en un solo INSERT ... SELECT FROM unnest(...), en el orden de ROLLUP_ORDER
+    private static final String ADD_TO_ROLLUP =
+            "INSERT INTO kardex_daily_rollup (day, tool_name, movement_type, movements, quantity) " +
+                    "SELECT t.day, t.tool_name, t.movement_type, t.movements, t.quantity " +
+                    "FROM unnest(?::date[], ?::text[], ?::text[], ?::int8[], ?::int8[]) WITH ORDINALITY " +
+                    "AS t(day, tool_name, movement_type, movements, quantity, ord) ORDER BY t.ord " +
+                    "ON CONFLICT (day, tool_name, movement_type) DO UPDATE SET " +
+                    "movements = kardex_daily_rollup.movements + EXCLUDED.movements, " +
+                    "quantity = kardex_daily_rollup.quantity + EXCLUDED.quantity";
+
+    private void addToRollup(Collection<KardexEntity> saved) {
+        Map<RollupKey, long[]> buckets = new TreeMap<>(ROLLUP_ORDER);
+        for (KardexEntity m : saved) {
+            long[] b = buckets.computeIfAbsent(new RollupKey(m.getMovementDate(), m.getToolName(), m.getMovementType()), k -> new long[2]);
+            b[0]++;
+            b[1] += m.getToolQuantity();
+        }
+        if (buckets.isEmpty()) return;
+
+        int n = buckets.size(), i = 0;
+        Date[] day = new Date[n];
+        String[] toolName = new String[n];
+        String[] movementType = new String[n];
+        Long[] movements = new Long[n];
+        Long[] quantity = new Long[n];
+        for (Map.Entry<RollupKey, long[]> e : buckets.entrySet()) {
+            day[i] = Date.valueOf(e.getKey().day());
+            toolName[i] = e.getKey().toolName();
+            movementType[i] = e.getKey().movementType();
+            movements[i] = e.getValue()[0];
+            quantity[i] = e.getValue()[1];
+            i++;
+        }
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(ADD_TO_ROLLUP);
+            ps.setArray(1, con.createArrayOf("date", day));
+            ps.setArray(2, con.createArrayOf("text", toolName));
+            ps.setArray(3, con.createArrayOf("text", movementType));
+            ps.setArray(4, con.createArrayOf("int8", movements));
+            ps.setArray(5, con.createArrayOf("int8", quantity));
+            return ps;
+        });
+    }
+
+    // Reintento de un movimiento ya registrado (inventory reenvía si no recibió la respuesta): se devuelve el existente.
+    // Si otro request inserta el mismo sourceRef entre la búsqueda y el INSERT, la restricción única lo rechaza,
+    // se deshace esta transacción y se devuelve el que quedó registrado.
+    public KardexEntity saveMovement(KardexEntity movement) {
+        validateMovement(movement);
+
+        if (movement.getSourceRef() != null) {
+            KardexEntity existing = kardexRepository.findBySourceRef(movement.getSourceRef());
+            if (existing != null) return existing;
+        }
 
         if (movement.getMovementDate() == null) {
             movement.setMovementDate(LocalDate.now());
         }
 
-        return kardexRepository.save(movement);
+        partitionService.ensure(List.of(movement.getMovementDate()));
+        try {
+            return new TransactionTemplate(transactionManager).execute(status -> {
+                KardexEntity saved = kardexRepository.saveAndFlush(movement);
+                addToRollup(List.of(saved));
+                columnStore.appendAfterCommit(List.of(saved));
+                return saved;
+            });
+        } catch (DataIntegrityViolationException e) {
+            KardexEntity existing = movement.getSourceRef() == null ? null : kardexRepository.findBySourceRef(movement.getSourceRef());
+            if (existing == null) throw e;
+            return existing;
+        }
+    }
+
+    // ------------------ Ingreso en lote ------------------
+
+    private Map<String, Object> batchResult(int index, String status, Long idMovement, String error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("status", status);
+        if (idMovement != null) result.put("idMovement", idMovement);
+        if (error != null) result.put("error", error);
+        return result;
+    }
+
+    // Una transacción para todo el lote: ids de kardex_seq (bloques de 50, sin ida y vuelta por fila)
+    // e INSERT agrupados por JDBC cada jdbcBatchSize; las casillas de kardex_daily_rollup se suman al final en un
+    // solo INSERT para todo el lote. Los sourceRef ya registrados se buscan con IN antes del
+    // primer INSERT (los repetidos dentro del lote los detecta seenRefs): así la búsqueda no recorre las filas que
+    // el mismo lote va agregando a particiones sin estadísticas.
+    private void persistBatch(Map<Integer, KardexEntity> accepted, Map<Integer, Map<String, Object>> results) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            List<Integer> indexes = new ArrayList<>(accepted.keySet());
+            Set<String> seenRefs = new HashSet<>();
+            List<KardexEntity> batchSaved = new ArrayList<>();
+
+            List<String> refs = new ArrayList<>();
+            for (KardexEntity movement : accepted.values()) if (movement.getSourceRef() != null) refs.add(movement.getSourceRef());
+            Map<String, Long> existing = new HashMap<>();
+            for (int from = 0; from < refs.size(); from += SOURCE_REF_LOOKUP) {
+                List<String> part = refs.subList(from, Math.min(refs.size(), from + SOURCE_REF_LOOKUP));
+                for (KardexEntity k : kardexRepository.findBySourceRefIn(part)) existing.put(k.getSourceRef(), k.getId());
+            }
+            entityManager.clear();
+
+            for (int from = 0; from < indexes.size(); from += jdbcBatchSize) {
+                List<Integer> chunk = indexes.subList(from, Math.min(indexes.size(), from + jdbcBatchSize));
+
+                List<Integer> saved = new ArrayList<>();
+                List<KardexEntity> savedMovements = new ArrayList<>();
+                for (Integer i : chunk) {
+                    KardexEntity movement = accepted.get(i);
+                    String ref = movement.getSourceRef();
+                    if (ref != null && existing.containsKey(ref)) {
+                        results.put(i, batchResult(i, "DUPLICATE", existing.get(ref), null));
+                        continue;
+                    }
+                    if (ref != null && !seenRefs.add(ref)) {
+                        // repetido dentro del mismo lote: se registra una sola vez
+                        results.put(i, batchResult(i, "DUPLICATE", null, null));
+                        continue;
+                    }
+                    entityManager.persist(movement);
+                    saved.add(i);
+                    savedMovements.add(movement);
+                }
+                // flush por el repositorio (no por el EntityManager): así el choque de sourceRef con otro request
+                // llega traducido como DataIntegrityViolationException y saveMovements lo reintenta como duplicado
+                kardexRepository.flush();
+                batchSaved.addAll(savedMovements);
+                columnStore.appendAfterCommit(savedMovements);
+                for (Integer i : saved) results.put(i, batchResult(i, "OK", accepted.get(i).getId(), null));
+                entityManager.clear();
+            }
+            addToRollup(batchSaved);
+        });
+    }
+
+    // Arreglo de movimientos -> resultado por ítem { index, status: OK | DUPLICATE | ERROR, idMovement | error }.
+    // Los inválidos no detienen el lote; los válidos se guardan todos juntos.
+    public List<Map<String, Object>> saveMovements(List<KardexEntity> movements) {
+        if (movements == null || movements.isEmpty()) throw new IllegalArgumentException("Debe indicar movimientos");
+        if (movements.size() > maxBatchItems)
+            throw new IllegalArgumentException("Máximo " + maxBatchItems + " movimientos por lote");
+
+        Map<Integer, Map<String, Object>> results = new TreeMap<>();
+        Map<Integer, KardexEntity> accepted = new LinkedHashMap<>();
+        LocalDate today = LocalDate.now();
+
+        for (int i = 0; i < movements.size(); i++) {
+            KardexEntity movement = movements.get(i);
+            try {
+                validateMovement(movement);
+                movement.setId(null);
+                if (movement.getMovementDate() == null) movement.setMovementDate(today);
+                accepted.put(i, movement);
+            } catch (IllegalArgumentException e) {
+                results.put(i, batchResult(i, "ERROR", null, e.getMessage()));
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            Set<LocalDate> dates = new HashSet<>();
+            for (KardexEntity movement : accepted.values()) dates.add(movement.getMovementDate());
+            partitionService.ensure(dates);
+            try {
+                persistBatch(accepted, results);
+            } catch (DataIntegrityViolationException e) {
+                // otro request registró el mismo sourceRef entremedio (o se archivó un mes antiguo del lote):
+                // se reintenta una vez, ahora como duplicado y con las particiones revisadas de nuevo
+                for (KardexEntity movement : accepted.values()) movement.setId(null);
+                partitionService.ensure(dates);
+                persistBatch(accepted, results);
+            }
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    // ------------------ Consultas ------------------
+
+    // RF5.3 por rango: con el filtro de movement_date Postgres solo lee las particiones del rango.
+    // archive=true agrega los meses ya archivados (archivos .ndjson.gz de KardexPartitionService).
+    public List<KardexEntity> movementsInRange(String movementType, LocalDate from, LocalDate to, boolean archive) {
+        if (to.isBefore(from)) throw new IllegalArgumentException("El rango de fechas es inválido (to < from)");
+        List<KardexEntity> movements = new ArrayList<>(kardexRepository.findByMovementTypeAndMovementDateBetween(movementType, from, to));
+        if (!archive) return movements;
+
+        movements.addAll(partitionService.readArchived(from, to, movementType));
+        movements.sort(Comparator.comparing(KardexEntity::getMovementDate).thenComparing(KardexEntity::getId));
+        return movements;
+    }
+
+    // ------------------ Historial paginado (keyset) ------------------
+    // Cursor "fecha:id" del último movimiento de la página anterior (ej: "2025-03-14:1532")
+
+    private static final LocalDate MIN_DATE = LocalDate.of(1900, 1, 1);
+    private static final LocalDate MAX_DATE = LocalDate.of(9999, 12, 31);
+
+    @Value("${kardex.listing.max-limit:1000}")
+    private int maxPageSize;
+
+    private int pageSize(Integer limit) {
+        if (limit == null || limit <= 0) throw new IllegalArgumentException("limit debe ser > 0");
+        return Math.min(limit, maxPageSize);
+    }
+
+    private static String nextCursor(List<KardexEntity> items, int size) {
+        if (items.size() < size) return null;
+        KardexEntity last = items.get(items.size() - 1);
+        return last.getMovementDate() + ":" + last.getId();
+    }
+
+    private interface PageQuery {
+        List<KardexEntity> fetch(String type, LocalDate from, LocalDate to, LocalDate afterDate, long afterId, int limit);
+    }
+
+    private Map<String, Object> page(PageQuery query, String type, LocalDate from, LocalDate to, String after, Integer limit) {
+        if (from != null && to != null && to.isBefore(from))
+            throw new IllegalArgumentException("El rango de fechas es inválido (to < from)");
+        int size = pageSize(limit);
+
+        LocalDate afterDate = MIN_DATE;
+        long afterId = 0;
+        if (after != null && !after.isBlank()) {
+            try {
+                int sep = after.lastIndexOf(':');
+                afterDate = LocalDate.parse(after.substring(0, sep));
+                afterId = Long.parseLong(after.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("after inválido (formato fecha:id): " + after);
+            }
+        }
+
+        List<KardexEntity> items = query.fetch(type == null || type.isBlank() ? null : type,
+                from != null ? from : MIN_DATE, to != null ? to : MAX_DATE, afterDate, afterId, size);
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("items", items);
+        resp.put("next", nextCursor(items, size));
+        return resp;
+    }
+
+    public Map<String, Object> pageToolHistory(String toolName, String type, LocalDate from, LocalDate to, String after, Integer limit) {
+        if (toolName == null || toolName.isBlank()) throw new IllegalArgumentException("toolName es requerido");
+        return page((t, f, u, ad, ai, l) -> kardexRepository.pageByToolName(toolName, t, f, u, ad, ai, l), type, from, to, after, limit);
+    }
+
+    public Map<String, Object> pageCustomerHistory(String rutCustomer, String type, LocalDate from, LocalDate to, String after, Integer limit) {
+        if (rutCustomer == null || rutCustomer.isBlank()) throw new IllegalArgumentException("rutCustomer es requerido");
+        return page((t, f, u, ad, ai, l) -> kardexRepository.pageByRutCustomer(rutCustomer, t, f, u, ad, ai, l), type, from, to, after, limit);
+    }
+
+    // ------------------ Ranking de herramientas ------------------
+
+    // Top "limit" herramientas por unidades en [from, to] para un tipo de movimiento (por defecto "Préstamo").
+    // Suma las casillas diarias de kardex_daily_rollup (días x herramientas, no movimientos) y se queda con
+    // los mejores en un heap acotado, sin ordenar todas las herramientas.
+    public List<Map<String, Object>> topTools(LocalDate from, LocalDate to, String movementType, Integer limit) {
+        LocalDate start = from != null ? from : LocalDate.of(1900, 1, 1);
+        LocalDate end = to != null ? to : LocalDate.of(9999, 12, 31);
+        if (end.isBefore(start)) throw new IllegalArgumentException("El rango de fechas es inválido (to < from)");
+        int size = limit == null ? 10 : limit;
+        if (size <= 0 || size > 1000) throw new IllegalArgumentException("limit debe estar entre 1 y 1000");
+        String type = movementType == null || movementType.isBlank() ? "Préstamo" : movementType;
+
+        // [toolName, movements, quantity]; desempate: más movimientos, luego alfabético
+        Comparator<Object[]> order = Comparator
+                .comparingLong((Object[] r) -> ((Number) r[2]).longValue())
+                .thenComparingLong(r -> ((Number) r[1]).longValue())
+                .thenComparing(r -> (String) r[0], Comparator.reverseOrder());
+
+        PriorityQueue<Object[]> heap = new PriorityQueue<>(order);
+        for (Object[] row : rollupRepository.sumByTool(type, start, end)) {
+            heap.offer(row);
+            if (heap.size() > size) heap.poll();
+        }
+
+        List<Map<String, Object>> out = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            Object[] row = heap.poll();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("toolName", row[0]);
+            m.put("movements", ((Number) row[1]).longValue());
+            m.put("quantity", ((Number) row[2]).longValue());
+            out.add(m);
+        }
+        Collections.reverse(out);
+        for (int i = 0; i < out.size(); i++) out.get(i).put("rank", i + 1);
+        return out;
+    }
+
+    // ------------------ Exportación en streaming ------------------
+    // Cursor del servidor (fetch size, requiere transacción abierta) escrito fila a fila en la respuesta:
+    // la memoria no crece con el resultado y, si el cliente lee lento, el write bloquea y el cursor espera.
+
+    private static String csv(Object value) {
+        if (value == null) return "";
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+
+    // format: ndjson (un movimiento por línea), csv (con encabezado) o json (un arreglo, lo usa /all)
+    public void export(String format, LocalDate from, LocalDate to, String movementType, OutputStream out) {
+        if (!List.of("ndjson", "csv", "json").contains(format)) throw new IllegalArgumentException("format inválido: " + format);
+        if (from != null && to != null && to.isBefore(from))
+            throw new IllegalArgumentException("El rango de fechas es inválido (to < from)");
+
+        // filtros opcionales; movement_date acota las particiones que se leen
+        StringBuilder sql = new StringBuilder("SELECT id, rut_customer, movement_type, movement_date, tool_name, tool_quantity, source_ref FROM kardex WHERE true");
+        List<Object> args = new ArrayList<>();
+        if (from != null) { sql.append(" AND movement_date >= ?"); args.add(Date.valueOf(from)); }
+        if (to != null) { sql.append(" AND movement_date <= ?"); args.add(Date.valueOf(to)); }
+        if (movementType != null && !movementType.isBlank()) { sql.append(" AND movement_type = ?"); args.add(movementType); }
+        sql.append(" ORDER BY movement_date, id");
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.executeWithoutResult(status -> {
+            try {
+                if (format.equals("csv")) out.write("id,rutCustomer,movementType,movementDate,toolName,toolQuantity,sourceRef\n".getBytes(StandardCharsets.UTF_8));
+                if (format.equals("json")) out.write('[');
+
+                boolean[] first = {true};
+                jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(sql.toString());
+                    ps.setFetchSize(exportFetchSize);
+                    for (int i = 0; i < args.size(); i++) ps.setObject(i + 1, args.get(i));
+                    return ps;
+                }, rs -> {
+                    KardexEntity k = new KardexEntity(rs.getLong(1), rs.getString(2), rs.getString(3),
+                            rs.getDate(4).toLocalDate(), rs.getString(5), rs.getInt(6), rs.getString(7));
+                    try {
+                        if (format.equals("csv")) {
+                            String line = k.getId() + "," + csv(k.getRutCustomer()) + "," + csv(k.getMovementType()) + "," +
+                                    k.getMovementDate() + "," + csv(k.getToolName()) + "," + k.getToolQuantity() + "," +
+                                    csv(k.getSourceRef()) + "\n";
+                            out.write(line.getBytes(StandardCharsets.UTF_8));
+                        } else {
+                            if (format.equals("json") && !first[0]) out.write(',');
+                            out.write(objectMapper.writeValueAsBytes(k));
+                            if (format.equals("ndjson")) out.write('\n');
+                        }
+                        first[0] = false;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                if (format.equals("json")) out.write(']');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 }
@@ -0,0 +1,219 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import com.example.kardexservice.repositories.KardexRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// GET /analytics contra Postgres real con 500k movimientos en 12 meses: las mismas agrupaciones por
+// recorrido de KardexColumnStore, recorriendo una List<KardexEntity> ya cargada y con GROUP BY en la BD.
+// Se comprueba que los tres dan lo mismo; tiempos (mediana de varias corridas) y memoria aproximada de cada
+// representación quedan en el log (no se exige un tiempo).
+@SpringBootTest(properties = {
+        "spring.config.name=kardex-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "kardex.partitions.archive-dir=${java.io.tmpdir}/kardex-archive-analytics-test",
+        "kardex.analytics.enabled=true",
+        "kardex.analytics.refresh-ms=3600000"
+})
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class KardexAnalyticsBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexAnalyticsBenchmarkTest.class);
+
+    private static final int ROWS = 500_000;
+    private static final int MONTHS = 12;
+    private static final int RUNS = 7;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private KardexColumnStore columnStore;
+
+    @Autowired
+    private KardexPartitionService partitionService;
+
+    @Autowired
+    private KardexRepository kardexRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final YearMonth first = YearMonth.now().minusMonths(MONTHS - 1);
+
+    private List<KardexEntity> entities;
+
+    @BeforeAll
+    void seed() {
+        jdbcTemplate.execute("TRUNCATE kardex, kardex_daily_rollup");
+        List<LocalDate> months = new ArrayList<>();
+        for (int m = 0; m < MONTHS; m++) months.add(first.plusMonths(m).atDay(1));
+        partitionService.ensure(months);
+
+        // 4 tipos, 301 herramientas (no múltiplo de 4: cada una tiene de todos los tipos), 2.000 clientes
+        // y fechas en los 12 meses (336 días)
+        jdbcTemplate.update("INSERT INTO kardex (id, rut_customer, movement_type, movement_date, tool_name, " +
+                "tool_quantity, source_ref) " +
+                "SELECT g, lpad((g % 2000)::text, 8, '0') || '-1', " +
+                "(ARRAY['Préstamo', 'Devolución', 'Ingreso', 'Reparación'])[1 + g % 4], " +
+                "?::date + (g % (28 * " + MONTHS + ")), 'Herramienta ' || (g % 301), 1 + g % 5, 'analytics-' || g " +
+                "FROM generate_series(1, ?) g", first.atDay(1), ROWS);
+        jdbcTemplate.execute("ANALYZE kardex");
+
+        long started = System.nanoTime();
+        columnStore.reload();
+        log.info("KardexColumnStore: {} filas cargadas en {} ms, ~{} MB en columnas",
+                ROWS, (System.nanoTime() - started) / 1_000_000, ROWS * 28L / (1024 * 1024));
+
+        long before = usedHeap();
+        started = System.nanoTime();
+        entities = kardexRepository.findAll();
+        long loadMs = (System.nanoTime() - started) / 1_000_000;
+        log.info("List<KardexEntity>: {} entidades cargadas en {} ms, ~{} MB en el heap",
+                entities.size(), loadMs, (usedHeap() - before) / (1024 * 1024));
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Mediana de RUNS corridas (tras una de calentamiento), en microsegundos
+    private static <T> long medianMicros(Supplier<T> run) {
+        run.get();
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long started = System.nanoTime();
+            run.get();
+            times[i] = (System.nanoTime() - started) / 1_000;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    // "clave" -> cantidad, desde la respuesta de /analytics
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> fromStore(Map<String, Object> resp, String... fields) {
+        Map<String, Long> out = new HashMap<>();
+        for (Map<String, Object> g : (List<Map<String, Object>>) resp.get("groups")) {
+            StringBuilder key = new StringBuilder();
+            for (String f : fields) key.append(g.get(f)).append('|');
+            out.put(key.toString(), (Long) g.get("quantity"));
+        }
+        return out;
+    }
+
+    private Map<String, Long> fromSql(String select, String where, Object... args) {
+        Map<String, Long> out = new HashMap<>();
+        jdbcTemplate.query("SELECT " + select + ", SUM(tool_quantity) FROM kardex WHERE " + where +
+                " GROUP BY " + select, rs -> {
+            StringBuilder key = new StringBuilder();
+            int columns = rs.getMetaData().getColumnCount() - 1;
+            for (int i = 1; i <= columns; i++) key.append(rs.getString(i)).append('|');
+            out.put(key.toString(), rs.getLong(columns + 1));
+        }, args);
+        return out;
+    }
+
+    private void report(String query, long storeMicros, long entityMicros, long sqlMicros) {
+        log.info("{}: columnas {} µs, List<KardexEntity> {} µs (x{}), GROUP BY en Postgres {} µs (x{})",
+                query, storeMicros, entityMicros, String.format("%.1f", entityMicros / (double) Math.max(1, storeMicros)),
+                sqlMicros, String.format("%.1f", sqlMicros / (double) Math.max(1, storeMicros)));
+    }
+
+    // Movimientos por día y tipo en un trimestre
+    @Test
+    void quantityPerDayAndTypeInAQuarter() {
+        LocalDate from = first.plusMonths(3).atDay(1);
+        LocalDate to = first.plusMonths(5).atEndOfMonth();
+
+        Supplier<Map<String, Object>> store = () -> columnStore.analytics(from, to, null, null, null, "day,type");
+        Supplier<Map<String, Long>> objects = () -> {
+            Map<String, Long> out = new HashMap<>();
+            for (KardexEntity k : entities) {
+                if (k.getMovementDate().isBefore(from) || k.getMovementDate().isAfter(to)) continue;
+                out.merge(k.getMovementDate() + "|" + k.getMovementType() + "|", (long) k.getToolQuantity(), Long::sum);
+            }
+            return out;
+        };
+        Supplier<Map<String, Long>> sql = () -> fromSql("to_char(movement_date, 'YYYY-MM-DD'), movement_type",
+                "movement_date BETWEEN ? AND ?", from, to);
+
+        Map<String, Long> expected = sql.get();
+        assertThat(fromStore(store.get(), "day", "movementType")).isEqualTo(expected);
+        assertThat(objects.get()).isEqualTo(expected);
+
+        report("day,type en un trimestre", medianMicros(store), medianMicros(objects), medianMicros(sql));
+    }
+
+    // Préstamos por herramienta en todo el rango
+    @Test
+    void loansPerTool() {
+        Supplier<Map<String, Object>> store = () -> columnStore.analytics(null, null, "Préstamo", null, null, "tool");
+        Supplier<Map<String, Long>> objects = () -> {
+            Map<String, Long> out = new HashMap<>();
+            for (KardexEntity k : entities) {
+                if (!"Préstamo".equals(k.getMovementType())) continue;
+                out.merge(k.getToolName() + "|", (long) k.getToolQuantity(), Long::sum);
+            }
+            return out;
+        };
+        Supplier<Map<String, Long>> sql = () -> fromSql("tool_name", "movement_type = ?", "Préstamo");
+
+        Map<String, Long> expected = sql.get();
+        assertThat(expected).hasSize(301);
+        assertThat(fromStore(store.get(), "toolName")).isEqualTo(expected);
+        assertThat(objects.get()).isEqualTo(expected);
+
+        report("tool con type=Préstamo", medianMicros(store), medianMicros(objects), medianMicros(sql));
+    }
+
+    // Movimientos de un cliente por día: filtro muy selectivo, el recorrido igual pasa por todas las filas
+    @Test
+    void oneCustomerPerDay() {
+        String rut = "00000042-1";
+        Supplier<Map<String, Object>> store = () -> columnStore.analytics(null, null, null, null, rut, "day");
+        Supplier<Map<String, Long>> objects = () -> {
+            Map<String, Long> out = new HashMap<>();
+            for (KardexEntity k : entities) {
+                if (!rut.equals(k.getRutCustomer())) continue;
+                out.merge(k.getMovementDate() + "|", (long) k.getToolQuantity(), Long::sum);
+            }
+            return out;
+        };
+        Supplier<Map<String, Long>> sql = () -> fromSql("to_char(movement_date, 'YYYY-MM-DD')", "rut_customer = ?", rut);
+
+        Map<String, Long> expected = sql.get();
+        assertThat(fromStore(store.get(), "day")).isEqualTo(expected);
+        assertThat(objects.get()).isEqualTo(expected);
+
+        report("day de un cliente", medianMicros(store), medianMicros(objects), medianMicros(sql));
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// POST /movements y /movements/batch contra Postgres real (kardex particionada por KardexSchemaMigrations).
+// El lote grande mide el ingreso (se informa en el log, no se exige un tiempo).
+@SpringBootTest(properties = {
+        "spring.config.name=kardex-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true",
+        "kardex.partitions.archive-dir=${java.io.tmpdir}/kardex-archive-test",
+        "kardex.analytics.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class KardexBatchIngestTest {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexBatchIngestTest.class);
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private KardexService kardexService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void clean() {
+        jdbcTemplate.execute("TRUNCATE kardex, kardex_daily_rollup");
+    }
+
+    private static KardexEntity movement(int i, LocalDate date, String sourceRef) {
+        return new KardexEntity(null, "1111111" + (i % 10) + "-1", i % 3 == 0 ? "Devolución" : "Préstamo", date,
+                "Herramienta " + (i % 25), 1 + i % 4, sourceRef);
+    }
+
+    private long count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+
+    private static Map<String, Long> statuses(List<Map<String, Object>> results) {
+        Map<String, Long> out = new TreeMap<>();
+        for (Map<String, Object> r : results) out.merge((String) r.get("status"), 1L, Long::sum);
+        return out;
+    }
+
+    @Test
+    void largeBatchAcrossMonthsIsStoredOnceWithRollups() {
+        LocalDate base = LocalDate.now().withDayOfMonth(1);
+        List<KardexEntity> batch = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) batch.add(movement(i, base.minusMonths(i % 3).plusDays(i % 20), "ref-" + i));
+
+        long started = System.nanoTime();
+        List<Map<String, Object>> results = kardexService.saveMovements(batch);
+        long ms = (System.nanoTime() - started) / 1_000_000;
+        log.info("Lote de {} movimientos en {} ms ({} movimientos/s)", batch.size(), ms, batch.size() * 1000L / Math.max(1, ms));
+
+        assertThat(statuses(results)).containsExactly(Map.entry("OK", 10_000L));
+        assertThat(count("SELECT COUNT(*) FROM kardex")).isEqualTo(10_000);
+        assertThat(count("SELECT SUM(movements) FROM kardex_daily_rollup")).isEqualTo(10_000);
+        assertThat(count("SELECT SUM(quantity) FROM kardex_daily_rollup"))
+                .isEqualTo(count("SELECT SUM(tool_quantity) FROM kardex"));
+    }
+
+    // Movimientos/s por tamaño de lote (1, 100 y 10.000): mismo total de filas en lotes de distinto tamaño
+    @Test
+    void ingestRateByBatchSize() {
+        LocalDate today = LocalDate.now();
+        int[][] runs = {{1, 500}, {100, 50}, {10_000, 1}};   // {tamaño, cantidad de lotes}
+        int ref = 0;
+        long expected = 0;
+        for (int[] run : runs) {
+            long started = System.nanoTime();
+            for (int b = 0; b < run[1]; b++) {
+                List<KardexEntity> batch = new ArrayList<>();
+                for (int i = 0; i < run[0]; i++, ref++) batch.add(movement(ref, today.minusDays(ref % 40), "rate-" + ref));
+                assertThat(statuses(kardexService.saveMovements(batch))).containsExactly(Map.entry("OK", (long) run[0]));
+            }
+            long ms = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+            long rows = (long) run[0] * run[1];
+            expected += rows;
+            log.info("Lotes de {}: {} movimientos en {} ms ({} movimientos/s)", run[0], rows, ms, rows * 1000L / ms);
+        }
+        assertThat(count("SELECT COUNT(*) FROM kardex")).isEqualTo(expected);
+        assertThat(count("SELECT SUM(movements) FROM kardex_daily_rollup")).isEqualTo(expected);
+    }
+
+    // Reenvío parcial: lo ya registrado y lo repetido dentro del lote vuelven como DUPLICATE; los inválidos como ERROR
+    @Test
+    void resentBatchReportsDuplicatesAndErrors() {
+        LocalDate today = LocalDate.now();
+        List<KardexEntity> first = new ArrayList<>();
+        for (int i = 0; i < 500; i++) first.add(movement(i, today, "ref-" + i));
+        kardexService.saveMovements(first);
+
+        List<KardexEntity> resent = new ArrayList<>();
+        for (int i = 250; i < 750; i++) resent.add(movement(i, today, "ref-" + i));
+        resent.add(movement(700, today, "ref-700"));
+        resent.add(new KardexEntity(null, "", "Préstamo", today, "Taladro", 1, "ref-bad"));
+
+        List<Map<String, Object>> results = kardexService.saveMovements(resent);
+        assertThat(statuses(results)).containsExactly(
+                Map.entry("DUPLICATE", 251L), Map.entry("ERROR", 1L), Map.entry("OK", 250L));
+        assertThat(results).extracting(r -> r.get("index")).isSorted();
+        assertThat(count("SELECT COUNT(*) FROM kardex")).isEqualTo(750);
+        assertThat(count("SELECT SUM(movements) FROM kardex_daily_rollup")).isEqualTo(750);
+    }
+
+    // El mismo lote enviado a la vez por varios relays: el INSERT que pierde choca con la restricción única,
+    // el lote se reintenta y esos movimientos vuelven como DUPLICATE (cada movimiento queda una sola vez)
+    @Test
+    void concurrentBatchesWithTheSameSourceRefsStoreEachMovementOnce() throws Exception {
+        LocalDate today = LocalDate.now();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<List<Map<String, Object>>>> sent = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                sent.add(pool.submit(() -> {
+                    List<KardexEntity> batch = new ArrayList<>();
+                    for (int i = 0; i < 500; i++) batch.add(movement(i, today, "ref-" + i));
+                    go.await();
+                    return kardexService.saveMovements(batch);
+                }));
+            }
+            go.countDown();
+
+            long ok = 0;
+            for (Future<List<Map<String, Object>>> f : sent) {
+                Map<String, Long> byStatus = statuses(f.get(60, TimeUnit.SECONDS));
+                assertThat(byStatus.keySet()).isSubsetOf("OK", "DUPLICATE");
+                assertThat(byStatus.values().stream().mapToLong(Long::longValue).sum()).isEqualTo(500);
+                ok += byStatus.getOrDefault("OK", 0L);
+            }
+            assertThat(ok).isEqualTo(500);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(count("SELECT COUNT(*) FROM kardex")).isEqualTo(500);
+        assertThat(count("SELECT SUM(movements) FROM kardex_daily_rollup")).isEqualTo(500);
+    }
+
+    // Reintentos concurrentes del mismo movimiento (mismo sourceRef): uno lo inserta y todos reciben esa fila
+    @Test
+    void concurrentRetriesOfOneMovementReturnTheSameRow() throws Exception {
+        LocalDate today = LocalDate.now();
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<KardexEntity>> saved = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                saved.add(pool.submit(() -> {
+                    go.await();
+                    return kardexService.saveMovement(movement(1, today, "ref-retry"));
+                }));
+            }
+            go.countDown();
+
+            Set<Long> ids = new HashSet<>();
+            for (Future<KardexEntity> f : saved) ids.add(f.get(60, TimeUnit.SECONDS).getId());
+            assertThat(ids).hasSize(1);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(count("SELECT COUNT(*) FROM kardex WHERE source_ref = 'ref-retry'")).isEqualTo(1);
+        assertThat(count("SELECT SUM(movements) FROM kardex_daily_rollup")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class KardexColumnStoreTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private KardexColumnStore store;
+
+    // txid de cada movimiento (0 si no se indica) y los xmin que entrega la BD a cada lectura
+    private final Map<Long, Long> txids = new HashMap<>();
+    private final Deque<Long> horizons = new ArrayDeque<>();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        store = new KardexColumnStore();
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(store, "transactionManager", mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "fetchSize", 1000);
+        ReflectionTestUtils.setField(store, "splitRows", 2);   // fuerza varias tareas fork/join
+        when(jdbcTemplate.queryForObject(contains("pg_snapshot_xmin"), eq(Long.class)))
+                .thenAnswer(inv -> horizons.isEmpty() ? 0L : horizons.poll());
+        ReflectionTestUtils.setField(store, "archiveAfterMonths", 1200);   // cubre desde antes de 1970
+    }
+
+    private static KardexEntity movement(long id, LocalDate date, String tool, String type, int quantity) {
+        return new KardexEntity(id, "11111111-1", type, date, tool, quantity, null);
+    }
+
+    private void feed(RowCallbackHandler handler, List<KardexEntity> rows) throws SQLException {
+        for (KardexEntity k : rows) {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getLong(1)).thenReturn(k.getId());
+            when(rs.getDate(2)).thenReturn(Date.valueOf(k.getMovementDate()));
+            when(rs.getString(3)).thenReturn(k.getToolName());
+            when(rs.getString(4)).thenReturn(k.getMovementType());
+            when(rs.getString(5)).thenReturn(k.getRutCustomer());
+            when(rs.getInt(6)).thenReturn(k.getToolQuantity());
+            when(rs.getLong(7)).thenReturn(txids.getOrDefault(k.getId(), 0L));
+            handler.processRow(rs);
+        }
+    }
+
+    // La carga completa entrega "rows"; duringLoad corre en medio (como un insert que confirma mientras se lee)
+    private void load(List<KardexEntity> rows, Runnable duringLoad) {
+        doAnswer(inv -> {
+            duringLoad.run();
+            feed(inv.getArgument(1), rows);
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        store.onStartup();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> groups(Map<String, Object> resp) {
+        return (List<Map<String, Object>>) resp.get("groups");
+    }
+
+    @Test
+    void notLoadedYetIsReportedAsUnavailable() {
+        assertThatThrownBy(() -> store.analytics(null, null, null, null, null, "type"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    // Días antes de 1970 tienen epoch day negativo: la clave de dos dimensiones debe separarlos bien
+    @Test
+    void groupsByTwoDimensionsWithNegativeEpochDays() {
+        LocalDate d1 = LocalDate.of(1965, 3, 1);
+        LocalDate d2 = LocalDate.of(1969, 12, 31);
+        LocalDate d3 = LocalDate.of(1970, 1, 1);
+        load(List.of(
+                movement(1, d1, "Taladro", "Préstamo", 1),
+                movement(2, d1, "Taladro", "Devolución", 2),
+                movement(3, d2, "Sierra", "Préstamo", 3),
+                movement(4, d2, "Sierra", "Préstamo", 4),
+                movement(5, d3, "Taladro", "Préstamo", 5)), () -> {});
+
+        List<Map<String, Object>> byDayType = groups(store.analytics(null, null, null, null, null, "day,type"));
+        assertThat(byDayType).extracting(g -> g.get("day"), g -> g.get("movementType"), g -> g.get("quantity"))
+                .containsExactly(
+                        tuple("1965-03-01", "Devolución", 2L),
+                        tuple("1965-03-01", "Préstamo", 1L),
+                        tuple("1969-12-31", "Préstamo", 7L),
+                        tuple("1970-01-01", "Préstamo", 5L));
+
+        List<Map<String, Object>> byTypeDay = groups(store.analytics(null, null, "Préstamo", null, null, "type,day"));
+        assertThat(byTypeDay).extracting(g -> g.get("day"), g -> g.get("movements"))
+                .containsExactly(tuple("1965-03-01", 1L), tuple("1969-12-31", 2L), tuple("1970-01-01", 1L));
+
+        Map<String, Object> range = store.analytics(d2, d3, null, "Sierra", null, "day");
+        assertThat(range.get("quantity")).isEqualTo(7L);
+    }
+
+    // Lo confirmado durante la carga entra una sola vez, lo haya visto la lectura o no
+    @Test
+    void rebuildMergesPendingRowsWithoutDuplicates() {
+        LocalDate day = LocalDate.of(2024, 5, 10);
+        load(List.of(movement(1, day, "Taladro", "Préstamo", 1), movement(2, day, "Taladro", "Préstamo", 2)),
+                () -> store.appendAfterCommit(List.of(
+                        movement(2, day, "Taladro", "Préstamo", 2),
+                        movement(3, day, "Taladro", "Préstamo", 4))));
+
+        Map<String, Object> resp = store.analytics(null, null, null, null, null, "");
+        assertThat(resp.get("rows")).isEqualTo(3);
+        assertThat(resp.get("quantity")).isEqualTo(7L);
+    }
+
+    // El refresco lee en orden de commit ([position, xmin)), no por id: un id bajo (bloque de kardex_seq de otra
+    // instancia) que confirma tarde igual llega, y lo que ya entró por append o por la carga no se repite
+    @Test
+    void refreshReadsInCommitOrderAndAddsOtherInstancesRowsOnce() {
+        LocalDate day = LocalDate.of(2024, 5, 10);
+        // la carga ve 500 (txid 100, sobre su xmin 90: puede volver a llegar)
+        txids.put(500L, 100L);
+        horizons.add(90L);
+        load(List.of(movement(500, day, "Taladro", "Préstamo", 1)), () -> {});
+
+        // 510 lo guardó esta instancia en la transacción 105
+        when(jdbcTemplate.queryForObject(contains("pg_current_xact_id_if_assigned"), eq(Long.class))).thenReturn(105L);
+        store.appendAfterCommit(List.of(movement(510, day, "Taladro", "Préstamo", 2)));
+
+        // otra instancia confirmó 450 (txid 95) y después 20 (txid 120, id de un bloque viejo de la secuencia)
+        txids.put(450L, 95L);
+        txids.put(510L, 105L);
+        txids.put(20L, 120L);
+        List<KardexEntity> committed = List.of(
+                movement(450, day, "Sierra", "Préstamo", 10),
+                movement(500, day, "Taladro", "Préstamo", 1),
+                movement(510, day, "Taladro", "Préstamo", 2),
+                movement(20, day, "Sierra", "Préstamo", 20));
+        List<long[]> ranges = new ArrayList<>();
+        doAnswer(inv -> {
+            long from = inv.getArgument(2);
+            long to = inv.getArgument(3);
+            ranges.add(new long[]{from, to});
+            feed(inv.getArgument(1), committed.stream()
+                    .filter(k -> txids.get(k.getId()) >= from && txids.get(k.getId()) < to).toList());
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), any(), any());
+
+        horizons.addAll(List.of(110L, 110L, 130L));
+        store.refresh();
+        store.refresh();   // sin transacciones nuevas terminadas: no lee
+        store.refresh();
+        assertThat(ranges).containsExactly(new long[]{90, 110}, new long[]{110, 130});
+
+        // un append atrasado de algo que el refresco ya trajo (txid bajo position) no se suma
+        when(jdbcTemplate.queryForObject(contains("pg_current_xact_id_if_assigned"), eq(Long.class))).thenReturn(95L);
+        store.appendAfterCommit(List.of(movement(450, day, "Sierra", "Préstamo", 10)));
+
+        Map<String, Object> resp = store.analytics(null, null, null, null, null, "tool");
+        assertThat(resp.get("rows")).isEqualTo(4);
+        assertThat(groups(resp)).extracting(g -> g.get("toolName"), g -> g.get("quantity"))
+                .containsExactly(tuple("Sierra", 30L), tuple("Taladro", 3L));
+    }
+
+    @Test
+    void rangeStartsAtTheFirstMonthNotArchived() {
+        ReflectionTestUtils.setField(store, "archiveAfterMonths", 24);
+        LocalDate archived = LocalDate.now().minusMonths(30);
+        LocalDate live = LocalDate.now().minusDays(1);
+        load(List.of(movement(1, archived, "Taladro", "Préstamo", 1), movement(2, live, "Taladro", "Préstamo", 2)), () -> {});
+
+        Map<String, Object> resp = store.analytics(archived, null, null, null, null, "");
+        assertThat(resp.get("quantity")).isEqualTo(2L);
+        assertThat((LocalDate) resp.get("coveredFrom")).isAfter(archived);
+    }
+}
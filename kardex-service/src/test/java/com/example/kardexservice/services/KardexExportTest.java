@@ -0,0 +1,176 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// GET /export y /all contra Postgres real: el cursor recorre varias particiones en orden (movement_date, id)
+// y cada formato queda bien armado. La exportación completa se mide (se informa en el log, no se exige un tiempo).
+@SpringBootTest(properties = {
+        "spring.config.name=kardex-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true",
+        "kardex.partitions.archive-dir=${java.io.tmpdir}/kardex-archive-test",
+        "kardex.analytics.enabled=false",
+        "kardex.export.fetch-size=500"
+})
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class KardexExportTest {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexExportTest.class);
+
+    private static final int ROWS = 30_000;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private KardexService kardexService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private LocalDate base;
+
+    // Solo cuenta: la exportación completa no se guarda en memoria
+    private static class CountingOutputStream extends OutputStream {
+        long bytes;
+        long lines;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            if (b == '\n') lines++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+            for (int i = off; i < off + len; i++) if (b[i] == '\n') lines++;
+        }
+    }
+
+    // Tres meses de movimientos, guardados en lotes desordenados por fecha para que el orden lo dé el ORDER BY
+    @BeforeAll
+    void seed() {
+        jdbcTemplate.execute("TRUNCATE kardex, kardex_daily_rollup");
+        base = LocalDate.now().withDayOfMonth(1).minusMonths(2);
+        List<KardexEntity> batch = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            String tool = i % 7 == 0 ? "Llave \"Stilson\" 10,5 mm" : "Herramienta " + (i % 25);
+            batch.add(new KardexEntity(null, "1111111" + (i % 10) + "-1", i % 3 == 0 ? "Devolución" : "Préstamo",
+                    base.plusDays((i * 37L) % 85), tool, 1 + i % 4, "exp-" + i));
+            if (batch.size() == 10_000) {
+                kardexService.saveMovements(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) kardexService.saveMovements(batch);
+    }
+
+    private String export(String format, LocalDate from, LocalDate to, String type) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        kardexService.export(format, from, to, type, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void assertOrdered(List<JsonNode> rows) {
+        for (int i = 1; i < rows.size(); i++) {
+            JsonNode prev = rows.get(i - 1), cur = rows.get(i);
+            int byDate = prev.get("movementDate").asText().compareTo(cur.get("movementDate").asText());
+            assertThat(byDate < 0 || (byDate == 0 && prev.get("id").asLong() < cur.get("id").asLong()))
+                    .as("fila %d fuera de orden", i).isTrue();
+        }
+    }
+
+    @Test
+    void fullNdjsonExportStreamsEveryRow() {
+        CountingOutputStream out = new CountingOutputStream();
+        long started = System.nanoTime();
+        kardexService.export("ndjson", null, null, null, out);
+        long ms = (System.nanoTime() - started) / 1_000_000;
+        log.info("Exportación de {} filas ({} KB) en {} ms ({} filas/s)",
+                out.lines, out.bytes / 1024, ms, out.lines * 1000L / Math.max(1, ms));
+
+        assertThat(out.lines).isEqualTo(ROWS);
+    }
+
+    @Test
+    void ndjsonIsOrderedByDateAndId() throws Exception {
+        List<JsonNode> rows = new ArrayList<>();
+        for (String line : export("ndjson", null, null, null).split("\n")) rows.add(objectMapper.readTree(line));
+
+        assertThat(rows).hasSize(ROWS);
+        assertOrdered(rows);
+    }
+
+    @Test
+    void csvHasHeaderQuotesAndFilters() {
+        LocalDate from = base.plusMonths(1), to = base.plusMonths(1).plusDays(9);
+        String[] lines = export("csv", from, to, "Devolución").split("\n");
+
+        assertThat(lines[0]).isEqualTo("id,rutCustomer,movementType,movementDate,toolName,toolQuantity,sourceRef");
+        long expected = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM kardex WHERE movement_type = 'Devolución' AND movement_date BETWEEN ? AND ?",
+                Long.class, from, to);
+        assertThat(lines).hasSize((int) expected + 1);
+        assertThat(Arrays.copyOfRange(lines, 1, lines.length)).allSatisfy(line -> {
+            assertThat(line).contains(",Devolución,");
+            LocalDate day = LocalDate.parse(line.split(",")[3]);
+            assertThat(day).isBetween(from, to);
+        });
+        assertThat(lines).anySatisfy(line -> assertThat(line).contains(",\"Llave \"\"Stilson\"\" 10,5 mm\","));
+    }
+
+    @Test
+    void jsonIsOneValidArray() throws Exception {
+        JsonNode all = objectMapper.readTree(export("json", null, null, null));
+
+        assertThat(all.isArray()).isTrue();
+        assertThat(all.size()).isEqualTo(ROWS);
+        List<JsonNode> rows = new ArrayList<>();
+        all.forEach(rows::add);
+        assertOrdered(rows);
+    }
+
+    @Test
+    void emptyRangeAndBadArguments() throws Exception {
+        LocalDate future = LocalDate.now().plusYears(5);
+        assertThat(objectMapper.readTree(export("json", future, future, null)).size()).isZero();
+        assertThat(export("csv", future, future, null).split("\n")).hasSize(1);
+
+        assertThatThrownBy(() -> export("xml", null, null, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> export("csv", future, base, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
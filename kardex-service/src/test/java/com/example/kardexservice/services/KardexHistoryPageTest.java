@@ -0,0 +1,217 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Historial paginado (keyset) contra Postgres real, con 300k movimientos en 6 meses: cada página de
+// /kardex/tool y /kardex/customer es un recorrido por rango de los índices (tool_name|rut_customer,
+// movement_date, id) desde el cursor, solo en las particiones desde el mes del cursor, sin Seq Scan, y lee
+// lo mismo en la primera página que en una profunda. Los tiempos por página quedan en el log (no se exige un tiempo).
+@SpringBootTest(properties = {
+        "spring.config.name=kardex-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "kardex.partitions.archive-dir=${java.io.tmpdir}/kardex-archive-page-test",
+        "kardex.analytics.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class KardexHistoryPageTest {
+
+    private static final Logger log = LoggerFactory.getLogger(KardexHistoryPageTest.class);
+
+    private static final int ROWS = 300_000;
+    private static final int MONTHS = 6;
+    private static final int PAGE = 500;
+
+    // "Taladro" tiene 1 de cada 5 movimientos (el resto se reparte en 200 herramientas) y cada cliente 1 de cada 10
+    private static final String TOOL = "Taladro";
+    private static final long TOOL_ROWS = ROWS / 5;
+    private static final String CUSTOMER = "00000004-1";
+    private static final long CUSTOMER_ROWS = ROWS / 10;
+
+    private static final LocalDate MIN = LocalDate.of(1900, 1, 1);
+    private static final LocalDate MAX = LocalDate.of(9999, 12, 31);
+
+    private static final Pattern INDEX_ROWS = Pattern.compile("Index (?:Only )?Scan.*actual time=\\S+ rows=(\\d+)");
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private KardexService kardexService;
+
+    @Autowired
+    private KardexPartitionService partitionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final YearMonth first = YearMonth.now().minusMonths(MONTHS - 1);
+
+    @BeforeAll
+    void seed() {
+        jdbcTemplate.execute("TRUNCATE kardex, kardex_daily_rollup");
+        List<LocalDate> months = new ArrayList<>();
+        for (int m = 0; m < MONTHS; m++) months.add(first.plusMonths(m).atDay(1));
+        partitionService.ensure(months);
+
+        // fecha repartida en los 6 meses (168 días), varios movimientos por día y herramienta
+        jdbcTemplate.update("INSERT INTO kardex (id, rut_customer, movement_type, movement_date, tool_name, " +
+                "tool_quantity, source_ref) " +
+                "SELECT g, lpad((g % 10)::text, 8, '0') || '-1', CASE WHEN g % 3 = 0 THEN 'Devolución' ELSE 'Préstamo' END, " +
+                "?::date + (g % (28 * " + MONTHS + ")), CASE WHEN g % 5 = 0 THEN ? ELSE 'Herramienta ' || (g % 200) END, " +
+                "1, 'page-' || g FROM generate_series(1, ?) g", first.atDay(1), TOOL, ROWS);
+        jdbcTemplate.execute("ANALYZE kardex");
+    }
+
+    private String explain(String sql, boolean analyze) {
+        String plan = String.join("\n", jdbcTemplate.queryForList(
+                (analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql, String.class));
+        log.info("{}\n{}", sql, plan);
+        return plan;
+    }
+
+    // Misma consulta que KardexRepository.pageByToolName / pageByRutCustomer, con valores literales
+    private static String pageSql(String column, String value, String type, LocalDate from, LocalDate to,
+                                  LocalDate afterDate, long afterId) {
+        return "SELECT * FROM kardex WHERE " + column + " = '" + value + "' " +
+                "AND (CAST(" + (type == null ? "NULL" : "'" + type + "'") + " AS varchar) IS NULL " +
+                "OR movement_type = CAST(" + (type == null ? "NULL" : "'" + type + "'") + " AS varchar)) " +
+                "AND movement_date BETWEEN DATE '" + from + "' AND DATE '" + to + "' " +
+                "AND movement_date >= DATE '" + afterDate + "' " +
+                "AND (movement_date, id) > (DATE '" + afterDate + "', " + afterId + ") " +
+                "ORDER BY movement_date, id LIMIT " + PAGE;
+    }
+
+    private static long indexRows(String plan) {
+        long rows = 0;
+        Matcher m = INDEX_ROWS.matcher(plan);
+        while (m.find()) rows += Long.parseLong(m.group(1));
+        return rows;
+    }
+
+    // Cursor "fecha:id" del movimiento en la posición offset del historial
+    private Object[] cursorAt(String column, String value, long offset) {
+        return jdbcTemplate.queryForObject("SELECT movement_date, id FROM kardex WHERE " + column + " = ? " +
+                        "ORDER BY movement_date, id OFFSET ? LIMIT 1",
+                (rs, i) -> new Object[]{rs.getDate(1).toLocalDate(), rs.getLong(2)}, value, offset);
+    }
+
+    private String pageAt(String column, String value, String type, long offset, boolean analyze) {
+        Object[] cursor = cursorAt(column, value, offset);
+        return explain(pageSql(column, value, type, MIN, MAX, (LocalDate) cursor[0], (Long) cursor[1]), analyze);
+    }
+
+    // El cursor va en la condición del índice (no como filtro sobre lo ya leído) y en las particiones con datos
+    // no hay Seq Scan (las futuras que crea la mantención están vacías: recorrerlas no lee nada)
+    private void assertRangeScan(String plan, String index) {
+        assertThat(plan).contains(index).containsPattern("Index Cond: .*ROW\\(movement_date, id\\) >");
+        for (int m = 0; m < MONTHS; m++) {
+            assertThat(plan).doesNotContain("Seq Scan on " + KardexPartitionService.partitionName(first.plusMonths(m)) + " ");
+        }
+    }
+
+    // Además en orden del índice: el LIMIT corta el recorrido, sin leer todo y ordenar
+    private void assertOrderedRangeScan(String plan, String index) {
+        assertRangeScan(plan, index);
+        assertThat(plan).doesNotContain("Sort", "Bitmap");
+    }
+
+    @Test
+    void firstAndDeepPagesAreIndexRangeScans() {
+        for (String type : new String[]{null, "Préstamo"}) {
+            assertOrderedRangeScan(explain(pageSql("tool_name", TOOL, type, MIN, MAX, MIN, 0), false),
+                    "tool_name_movement_date_id_idx");
+            assertOrderedRangeScan(pageAt("tool_name", TOOL, type, TOOL_ROWS / 2, false), "tool_name_movement_date_id_idx");
+            assertOrderedRangeScan(explain(pageSql("rut_customer", CUSTOMER, type, MIN, MAX, MIN, 0), false),
+                    "rut_customer_movement_date_id_idx");
+            assertOrderedRangeScan(pageAt("rut_customer", CUSTOMER, type, CUSTOMER_ROWS / 2, false),
+                    "rut_customer_movement_date_id_idx");
+            // en la cola quedan menos filas de las que pide el LIMIT (según las estadísticas): Postgres puede
+            // leerlas todas y ordenarlas, pero sigue empezando en el cursor
+            assertRangeScan(pageAt("tool_name", TOOL, type, TOOL_ROWS - 2 * PAGE, false), "tool_name_movement_date_id_idx");
+        }
+
+        // con un rango de fechas solo entran las particiones del rango
+        String ranged = explain(pageSql("tool_name", TOOL, null, first.plusMonths(1).atDay(1),
+                first.plusMonths(1).atEndOfMonth(), MIN, 0), false);
+        assertOrderedRangeScan(ranged, "tool_name_movement_date_id_idx");
+        assertThat(ranged).contains(KardexPartitionService.partitionName(first.plusMonths(1)))
+                .doesNotContain(KardexPartitionService.partitionName(first), KardexPartitionService.partitionName(first.plusMonths(2)));
+    }
+
+    // Las filas leídas del índice no crecen con la profundidad: la página (movement_date, id) > cursor
+    // empieza en el cursor, no recorre ni descarta lo anterior, y los meses previos al cursor quedan podados
+    @Test
+    void deepPageReadsNoMoreIndexRowsThanTheFirst() {
+        long firstRows = indexRows(explain(pageSql("tool_name", TOOL, null, MIN, MAX, MIN, 0), true));
+        long deepRows = indexRows(pageAt("tool_name", TOOL, null, TOOL_ROWS * 3 / 4, true));
+        long tailRows = indexRows(pageAt("tool_name", TOOL, null, TOOL_ROWS - 2 * PAGE, true));
+
+        assertThat(firstRows).isBetween((long) PAGE, (long) PAGE + MONTHS);
+        assertThat(deepRows).isBetween((long) PAGE, (long) PAGE + MONTHS);
+        // solo lo que queda después del cursor
+        assertThat(tailRows).isLessThan(2L * PAGE);
+
+        String deep = pageAt("tool_name", TOOL, null, TOOL_ROWS * 3 / 4, false);
+        assertThat(deep).doesNotContain(KardexPartitionService.partitionName(first));
+    }
+
+    // Todo el historial de "Taladro" página a página con el cursor de la respuesta: sin repetidos ni huecos
+    @Test
+    @SuppressWarnings("unchecked")
+    void walksTheWholeToolHistory() {
+        String after = null;
+        long seen = 0;
+        int pages = 0;
+        KardexEntity previous = null;
+        List<Long> pageMs = new ArrayList<>();
+        do {
+            long started = System.nanoTime();
+            Map<String, Object> page = kardexService.pageToolHistory(TOOL, null, null, null, after, PAGE);
+            pageMs.add((System.nanoTime() - started) / 1_000_000);
+            for (KardexEntity k : (List<KardexEntity>) page.get("items")) {
+                if (previous != null) {
+                    assertThat(k.getMovementDate().isAfter(previous.getMovementDate())
+                            || k.getMovementDate().equals(previous.getMovementDate()) && k.getId() > previous.getId()).isTrue();
+                }
+                assertThat(k.getToolName()).isEqualTo(TOOL);
+                previous = k;
+                seen++;
+            }
+            after = (String) page.get("next");
+            pages++;
+        } while (after != null);
+
+        log.info("{} movimientos de {} en {} páginas de {}: primera {} ms, mitad {} ms, última {} ms, total {} ms",
+                seen, TOOL, pages, PAGE, pageMs.get(0), pageMs.get(pageMs.size() / 2), pageMs.get(pageMs.size() - 1),
+                pageMs.stream().mapToLong(Long::longValue).sum());
+
+        assertThat(seen).isEqualTo(TOOL_ROWS);
+        assertThat(pages).isEqualTo((int) (TOOL_ROWS / PAGE) + 1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.kardexservice.services;
+
+import com.example.kardexservice.entities.KardexEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Archivado de meses antiguos contra Postgres real: un mes por transacción, y el DETACH no queda esperando
+// (con todo kardex en cola detrás) mientras otra consulta lee la tabla.
+@SpringBootTest(properties = {
+        "spring.config.name=kardex-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "kardex.partitions.archive-dir=${java.io.tmpdir}/kardex-archive-partition-test",
+        "kardex.partitions.archive-after-months=24",
+        "kardex.partitions.lock-timeout-ms=500",
+        "kardex.analytics.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class KardexPartitionArchiveTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private KardexService kardexService;
+
+    @Autowired
+    private KardexPartitionService partitionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${kardex.partitions.archive-dir}")
+    private String archiveDir;
+
+    private final YearMonth oldest = YearMonth.now().minusMonths(30);
+    private final YearMonth older = YearMonth.now().minusMonths(29);
+
+    @BeforeEach
+    void clean() throws Exception {
+        jdbcTemplate.execute("TRUNCATE kardex, kardex_daily_rollup");
+        Files.createDirectories(Paths.get(archiveDir));
+        try (Stream<Path> files = Files.list(Paths.get(archiveDir))) {
+            for (Path f : files.toList()) Files.delete(f);
+        }
+    }
+
+    private void seed(YearMonth month, int rows, String prefix) {
+        List<KardexEntity> batch = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            batch.add(new KardexEntity(null, "11111111-1", "Préstamo", month.atDay(1 + i % 28), "Taladro", 1, prefix + i));
+        }
+        kardexService.saveMovements(batch);
+    }
+
+    private boolean attached(YearMonth month) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass(?) IS NOT NULL", Boolean.class, KardexPartitionService.partitionName(month)));
+    }
+
+    private int archived(YearMonth month) {
+        return partitionService.readArchived(month.atDay(1), month.atEndOfMonth(), null).size();
+    }
+
+    @Test
+    void archivesEachOldMonthAndKeepsRecentOnes() {
+        seed(oldest, 300, "a-");
+        seed(older, 200, "b-");
+        seed(YearMonth.now(), 100, "c-");
+
+        partitionService.maintain();
+
+        assertThat(attached(oldest)).isFalse();
+        assertThat(attached(older)).isFalse();
+        assertThat(archived(oldest)).isEqualTo(300);
+        assertThat(archived(older)).isEqualTo(200);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM kardex", Long.class)).isEqualTo(100);
+    }
+
+    // Una lectura larga de kardex (como un /export) tiene el lock compartido: el DETACH se rinde al vencer
+    // lock-timeout-ms en vez de esperar, el mes queda para la próxima corrida y esa corrida no duplica nada
+    @Test
+    void longReaderMakesTheDetachGiveUpAndTheNextRunFinishes() throws Exception {
+        seed(oldest, 300, "a-");
+
+        try (Connection reader = dataSource.getConnection()) {
+            reader.setAutoCommit(false);
+            try (Statement st = reader.createStatement()) {
+                st.executeQuery("SELECT COUNT(*) FROM kardex").close();
+            }
+
+            long started = System.nanoTime();
+            partitionService.maintain();
+            long ms = (System.nanoTime() - started) / 1_000_000;
+
+            assertThat(ms).isLessThan(10_000);
+            assertThat(attached(oldest)).isTrue();
+            // mientras tanto los inserts siguen entrando
+            seed(YearMonth.now(), 10, "c-");
+            reader.rollback();
+        }
+
+        // llega un movimiento atrasado del mes antes de la corrida siguiente
+        seed(oldest, 301, "a-");
+        partitionService.maintain();
+
+        assertThat(attached(oldest)).isFalse();
+        assertThat(archived(oldest)).isEqualTo(301);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.loanservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Executor acotado para lanzar en paralelo las llamadas independientes (inventory / pricing) de un préstamo.
+// Si se llena la cola, la llamada corre en el hilo del request (CallerRunsPolicy) en vez de fallar.
+// Las sagas de POST /create?async=true van aparte (loanSagaExecutor): no compiten con el fan-out ni caen al request.
+@Configuration
+public class FanOutConfig {
+
+    @Bean(name = "loanFanOutExecutor")
+    public ExecutorService loanFanOutExecutor(
+            @Value("${loan.fanout.max-concurrency:16}") int maxConcurrency,
+            @Value("${loan.fanout.queue-capacity:100}") int queueCapacity
+    ) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "loan-fanout-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxConcurrency, maxConcurrency,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Ejecuta las sagas asíncronas. Sin CallerRunsPolicy: si se llena, execute lanza RejectedExecutionException
+    // y LoanService se la deja al relay (la saga ya está guardada).
+    @Bean(name = "loanSagaExecutor")
+    public ExecutorService loanSagaExecutor(
+            @Value("${loan.saga.drive-threads:8}") int threads,
+            @Value("${loan.saga.drive-queue-capacity:100}") int queueCapacity
+    ) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "loan-saga-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                threadFactory,
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
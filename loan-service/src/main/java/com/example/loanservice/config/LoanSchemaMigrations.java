@@ -0,0 +1,85 @@
+package com.example.loanservice.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Migraciones de datos que ddl-auto=update no hace. Corren al arrancar, después de que Hibernate
+// actualizó el esquema (por eso depende del EntityManagerFactory) y antes de atender requests.
+// Cada paso es idempotente.
+@Component
+public class LoanSchemaMigrations {
+
+    private static final Logger log = LoggerFactory.getLogger(LoanSchemaMigrations.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void migrate() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            migrateListColumn("loan_tool_names", "tool_names");
+            migrateListColumn("loan_damaged_tools", "damaged_tools");
+            migrateListColumn("loan_discarded_tools", "discarded_tools");
+            createActiveLoanIndexes();
+            alignLoanSequence();
+            createUpdatedAtTrigger();
+        });
+    }
+
+    // Índices parciales: solo préstamos activos, que son los que consultan /active/* y requestLoan.
+    // idx_loan_active_id sirve las páginas keyset (ORDER BY id) sin recorrer los préstamos cerrados
+    private void createActiveLoanIndexes() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_loan_active_id ON loan (id, due_date) WHERE end_date IS NULL");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_loan_active_due_date ON loan (due_date, id) WHERE end_date IS NULL");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_loan_active_start_date ON loan (start_date, id) WHERE end_date IS NULL");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_loan_unpaid_closed ON loan (rut_customer) WHERE paid = false AND end_date IS NOT NULL");
+    }
+
+    // loan pasó de IDENTITY a loan_seq: la secuencia debe quedar por sobre los ids ya usados
+    // (+50 por el optimizador pooled de Hibernate, que toma el valor de la secuencia como tope del bloque)
+    private void alignLoanSequence() {
+        if (!tableExists("loan_seq")) return;
+        jdbcTemplate.queryForObject(
+                "SELECT setval('loan_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM loan) + 50, " +
+                        "(SELECT last_value FROM loan_seq)))", Long.class);
+    }
+
+    // loan.updated_at en cada INSERT/UPDATE, también los que no pasan por Hibernate
+    private void createUpdatedAtTrigger() {
+        jdbcTemplate.execute("CREATE OR REPLACE FUNCTION loan_touch_updated_at() RETURNS trigger AS $$ " +
+                "BEGIN NEW.updated_at := clock_timestamp(); RETURN NEW; END $$ LANGUAGE plpgsql");
+        jdbcTemplate.execute("DROP TRIGGER IF EXISTS loan_touch_updated_at ON loan");
+        jdbcTemplate.execute("CREATE TRIGGER loan_touch_updated_at BEFORE INSERT OR UPDATE ON loan " +
+                "FOR EACH ROW EXECUTE FUNCTION loan_touch_updated_at()");
+    }
+
+    private boolean tableExists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table));
+    }
+
+    // Tabla de @ElementCollection antigua -> columna text[] en loan. La tabla antigua queda renombrada a *_legacy.
+    private void migrateListColumn(String legacyTable, String column) {
+        if (!tableExists(legacyTable)) return;
+
+        int rows = jdbcTemplate.update(
+                "UPDATE loan l SET " + column + " = COALESCE(" +
+                        "(SELECT array_agg(t.tool_name) FROM " + legacyTable + " t WHERE t.loan_id = l.id), '{}') " +
+                        "WHERE l." + column + " IS NULL");
+        jdbcTemplate.execute("ALTER TABLE " + legacyTable + " RENAME TO " + legacyTable + "_legacy");
+
+        log.info("Migrados {} préstamos de {} a loan.{}", rows, legacyTable, column);
+    }
+}
@@ -1,12 +1,18 @@
 package com.example.loanservice.controllers;
 
 import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.entities.LoanSagaEntity;
 import com.example.loanservice.repositories.LoanRepository;
+import com.example.loanservice.services.CustomerStandingService;
+import com.example.loanservice.services.LoanSagaService;
 import com.example.loanservice.services.LoanService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.net.URI;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,17 +29,74 @@ public class LoanController {
     @Autowired
     private LoanRepository loanRepository;
 
+    @Autowired
+    private CustomerStandingService customerStandingService;
+
+    @Autowired
+    private LoanSagaService loanSagaService;
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private boolean isNdjson(String format) {
+        return "ndjson".equalsIgnoreCase(format);
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjson(StreamingResponseBody body) {
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    // async=true: 202 con la URL de estado; sin async también responde 202 si la saga quedó esperando un reintento
     @PostMapping("/create")
-    public ResponseEntity<?> createLoan(@RequestBody LoanEntity loan) {
+    public ResponseEntity<?> createLoan(@RequestBody LoanEntity loan,
+                                        @RequestParam(defaultValue = "false") boolean async) {
         try {
-            LoanEntity savedLoan = loanService.createLoan(
-                    loan,
+            LoanSagaEntity saga = loanService.requestLoan(
                     loan.getRutCustomer(),
                     loan.getToolNames(),
                     loan.getStartDate(),
-                    loan.getDueDate()
+                    loan.getDueDate(),
+                    async
             );
-            return ResponseEntity.ok(savedLoan);
+            if (LoanSagaService.ACTIVE.equals(saga.getStatus())) {
+                return ResponseEntity.ok(loanService.getLoanById(saga.getLoanId()));
+            }
+            if (LoanSagaService.FAILED.equals(saga.getStatus())) {
+                return ResponseEntity.badRequest().body(saga.getLastError());
+            }
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/v1/loan/requests/" + saga.getId()))
+                    .body(saga);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Estado de una solicitud de préstamo: PENDING, ACTIVE (loanId) o FAILED (lastError)
+    @GetMapping("/requests/{idRequest}")
+    public ResponseEntity<?> getLoanRequest(@PathVariable long idRequest) {
+        try {
+            return ResponseEntity.ok(loanSagaService.getSaga(idRequest));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Import masivo: arreglo de préstamos -> resultado por ítem { index, status, idLoan | error }
+    @PostMapping("/batch")
+    public ResponseEntity<?> createLoansBatch(@RequestBody List<LoanEntity> loans,
+                                              @RequestParam(defaultValue = "false") boolean reserve) {
+        try {
+            return ResponseEntity.ok(loanService.createLoansBatch(loans, reserve));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Body: [ { "idLoan": 1, "damaged": ["Taladro"], "discarded": [], "repairCost": 0 } ]
+    @PutMapping("/return/batch")
+    public ResponseEntity<?> returnToolsBatch(@RequestBody List<Map<String, Object>> returns) {
+        try {
+            return ResponseEntity.ok(loanService.returnToolsBatch(returns));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
@@ -71,9 +134,23 @@ public class LoanController {
         }
     }
 
+    // Listados: sin parámetros responden la lista completa (como siempre).
+    // ?limit=&after= -> página keyset { items, next }; ?format=ndjson -> un préstamo por línea, en streaming.
+
     @GetMapping("/my-loans")
-    public ResponseEntity<?> getMyLoans(@RequestParam String rut) {
+    public ResponseEntity<?> getMyLoans(
+            @RequestParam String rut,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) String format
+    ) {
         try {
+            if (isNdjson(format)) {
+                return ndjson(out -> loanService.writeLoansByCustomerNdjson(rut, out));
+            }
+            if (limit != null) {
+                return ResponseEntity.ok(loanService.pageLoansByCustomerRut(rut, after, limit));
+            }
             List<LoanEntity> loans = loanService.findLoansByCustomerRut(rut);
             return ResponseEntity.ok(loans);
         } catch (Exception e) {
@@ -83,14 +160,34 @@ public class LoanController {
     }
 
     @GetMapping("/all-loans")
-    public ResponseEntity<?> getAllLoans() {
+    public ResponseEntity<?> getAllLoans(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) String format
+    ) {
         try {
+            if (isNdjson(format)) {
+                return ndjson(loanService::writeAllLoansNdjson);
+            }
+            if (limit != null) {
+                return ResponseEntity.ok(loanService.pageAllLoans(after, limit));
+            }
             return ResponseEntity.ok(loanRepository.findAll());
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    // Resumen del cliente (préstamos abiertos, atrasos, deudas, próximo vencimiento)
+    @GetMapping("/standing/{rut}")
+    public ResponseEntity<?> getStanding(@PathVariable String rut) {
+        try {
+            return ResponseEntity.ok(customerStandingService.getStanding(rut));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @GetMapping("/{idLoan}")
     public ResponseEntity<?> getLoanById(@PathVariable long idLoan) {
         try {
@@ -116,15 +213,28 @@ public class LoanController {
 
     // RF6.1: préstamos activos agrupados (vigentes/atrasos)
     // filtros opcionales: from/to (por startDate)
+    // ?limit=: hasta limit por grupo, cada grupo con su cursor (afterOverdue / afterCurrent, los de "next")
+    // ?format=ndjson: todos los activos en orden de id, uno por línea con su "group"
     @GetMapping("/active/grouped")
     public ResponseEntity<?> activeLoansGrouped(
             @RequestParam(required = false) String from,
-            @RequestParam(required = false) String to
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long afterOverdue,
+            @RequestParam(required = false) Long afterCurrent,
+            @RequestParam(required = false) String format
     ) {
         try {
             LocalDate f = (from != null && !from.isBlank()) ? LocalDate.parse(from) : null;
             LocalDate t = (to != null && !to.isBlank()) ? LocalDate.parse(to) : null;
 
+            if (isNdjson(format)) {
+                return ndjson(out -> loanService.writeActiveLoansGroupedNdjson(f, t, out));
+            }
+            if (limit != null) {
+                return ResponseEntity.ok(loanService.pageActiveLoansGrouped(f, t, afterOverdue, afterCurrent, limit));
+            }
+
             Map<String, List<LoanEntity>> result = loanService.listActiveLoansGrouped(f, t);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
@@ -136,12 +246,22 @@ public class LoanController {
     @GetMapping("/active/overdue")
     public ResponseEntity<?> overdueActiveLoans(
             @RequestParam(required = false) String from,
-            @RequestParam(required = false) String to
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) String format
     ) {
         try {
             LocalDate f = (from != null && !from.isBlank()) ? LocalDate.parse(from) : null;
             LocalDate t = (to != null && !to.isBlank()) ? LocalDate.parse(to) : null;
 
+            if (isNdjson(format)) {
+                return ndjson(out -> loanService.writeOverdueActiveLoansNdjson(f, t, out));
+            }
+            if (limit != null) {
+                return ResponseEntity.ok(loanService.pageOverdueActiveLoans(f, t, after, limit));
+            }
+
             return ResponseEntity.ok(loanService.listOverdueActiveLoans(f, t));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
@@ -0,0 +1,36 @@
+package com.example.loanservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// Resumen por cliente para la validación de requestLoan (se mantiene incrementalmente en LoanService)
+@Entity
+@Table(name = "customer_standing")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CustomerStandingEntity {
+
+    @Id
+    @Column(nullable = false)
+    private String rutCustomer;
+
+    // Préstamos sin devolver
+    private int openLoans;
+
+    // Préstamos sin devolver con dueDate vencida (al día asOfDate)
+    private int openOverdueCount;
+
+    // Préstamos devueltos y no pagados
+    private int unpaidClosedCount;
+
+    // dueDate más próxima entre los préstamos sin devolver (null si no tiene)
+    private LocalDate nextDueDate;
+
+    // Día en que se calculó openOverdueCount por última vez
+    private LocalDate asOfDate;
+}
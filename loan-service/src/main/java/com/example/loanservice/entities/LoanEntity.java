@@ -4,20 +4,30 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "loan")
+// Índices parciales sobre préstamos activos (end_date IS NULL) en LoanSchemaMigrations: JPA no los puede declarar
+@Table(name = "loan", indexes = {
+        @Index(name = "idx_loan_rut_customer_id", columnList = "rutCustomer, id"),
+        @Index(name = "idx_loan_rut_customer_end_date", columnList = "rutCustomer, endDate, dueDate"),
+        @Index(name = "idx_loan_updated_at", columnList = "updatedAt")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class LoanEntity {
 
+    // Secuencia con bloques de 50 ids: Hibernate puede agrupar los INSERT en batch (con IDENTITY no)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_seq")
+    @SequenceGenerator(name = "loan_seq", sequenceName = "loan_seq", allocationSize = 50)
     @Column(unique = true, nullable = false)
     private long id;
 
@@ -27,23 +37,27 @@ public class LoanEntity {
 
     private String rutCustomer;
 
-    @ElementCollection
-    @CollectionTable(name = "loan_tool_names", joinColumns = @JoinColumn(name = "loan_id"))
-    @Column(name = "tool_name")
+    // Listas guardadas como text[] en la misma fila (antes tablas loan_tool_names / loan_damaged_tools /
+    // loan_discarded_tools; LoanSchemaMigrations copia los datos antiguos al arrancar)
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "tool_names", columnDefinition = "text[]")
     private List<String> toolNames = new ArrayList<>();
 
     private double rentalFee;
     private double fine;
 
-    @ElementCollection
-    @CollectionTable(name = "loan_damaged_tools", joinColumns = @JoinColumn(name = "loan_id"))
-    @Column(name = "tool_name")
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "damaged_tools", columnDefinition = "text[]")
     private List<String> damagedTools = new ArrayList<>();
 
-    @ElementCollection
-    @CollectionTable(name = "loan_discarded_tools", joinColumns = @JoinColumn(name = "loan_id"))
-    @Column(name = "tool_name")
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "discarded_tools", columnDefinition = "text[]")
     private List<String> discardedTools = new ArrayList<>();
 
     private boolean paid = false;
+
+    // Último cambio de la fila, con el reloj de la base: lo pone un trigger (LoanSchemaMigrations), también en los
+    // UPDATE nativos. OverdueTracker lee desde aquí los préstamos que cambiaron en otras instancias
+    @Column(insertable = false, updatable = false)
+    private LocalDateTime updatedAt;
 }
@@ -0,0 +1,57 @@
+package com.example.loanservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Devolución en lote pendiente de aplicar en inventory-service (una por cliente y lote). Se escribe en la misma
+// transacción que cierra los préstamos; LoanReturnRelay la entrega con su reference (inventory no la aplica
+// dos veces), suma a las multas el valor de reposición de lo dado de baja y la borra.
+@Entity
+@Table(name = "loan_return_outbox", indexes = {
+        @Index(name = "idx_loan_return_outbox_status_next_attempt", columnList = "status, nextAttemptAt")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanReturnEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(unique = true, nullable = false)
+    private long id;
+
+    // "loan-return-{lote}-{rut}": inventory guarda el resultado con esta referencia
+    @Column(unique = true, nullable = false)
+    private String reference;
+
+    private String rutCustomer;
+
+    // Préstamos cerrados por esta devolución (para sumarles la reposición de lo dado de baja)
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "loan_ids", columnDefinition = "bigint[]")
+    private List<Long> loanIds = new ArrayList<>();
+
+    // Ítems para inventory en JSON: [ { "name": ..., "quantity": ..., "action": ... } ]
+    @Column(columnDefinition = "TEXT")
+    private String items;
+
+    // "PENDING" o "DEAD" (inventory la rechazó max-attempts veces; queda para revisión)
+    private String status;
+
+    // Intentos y próximo intento (también sirve de "lease" mientras alguien la entrega)
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,61 @@
+package com.example.loanservice.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Solicitud de préstamo en curso (saga): reservar en inventory -> calcular rentalFee -> crear el préstamo.
+// La fila de loan solo se crea al final, así los listados de activos no ven préstamos a medio crear.
+@Entity
+@Table(name = "loan_saga", indexes = {
+        @Index(name = "idx_loan_saga_status_next_attempt", columnList = "status, nextAttemptAt")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanSagaEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(unique = true, nullable = false)
+    private long id;
+
+    // "PENDING", "ACTIVE" (préstamo creado) o "FAILED"
+    private String status;
+
+    // Paso pendiente: "RESERVE", "PRICE" o "COMPENSATE"; "DONE" al terminar
+    private String step;
+
+    private String rutCustomer;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "tool_names", columnDefinition = "text[]")
+    private List<String> toolNames = new ArrayList<>();
+
+    private LocalDate startDate;
+    private LocalDate dueDate;
+
+    // Resultado del paso PRICE
+    private Double rentalFee;
+
+    // Préstamo creado (status ACTIVE)
+    private Long loanId;
+
+    // Intentos del paso actual y próximo intento (también sirve de "lease" mientras alguien lo ejecuta)
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+}
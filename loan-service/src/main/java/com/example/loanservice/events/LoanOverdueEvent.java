@@ -0,0 +1,7 @@
+package com.example.loanservice.events;
+
+import java.time.LocalDate;
+
+// Se publica (ApplicationEventPublisher) cuando un préstamo activo pasa a estar atrasado
+public record LoanOverdueEvent(long idLoan, String rutCustomer, LocalDate dueDate, LocalDate detectedOn) {
+}
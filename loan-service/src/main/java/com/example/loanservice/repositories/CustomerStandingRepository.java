@@ -0,0 +1,32 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.CustomerStandingEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface CustomerStandingRepository extends JpaRepository<CustomerStandingEntity, String> {
+
+    // Registro vacío (as_of_date NULL) si el cliente no tiene uno. Entre transacciones concurrentes solo una lo
+    // inserta; las demás esperan a que termine y no hacen nada
+    @Modifying
+    @Query(value = "INSERT INTO customer_standing (rut_customer, open_loans, open_overdue_count, unpaid_closed_count) " +
+            "VALUES (:rut, 0, 0, 0) ON CONFLICT (rut_customer) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("rut") String rutCustomer);
+
+    // Para actualizar el resumen sin perder cambios concurrentes del mismo cliente
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<CustomerStandingEntity> findByRutCustomer(String rutCustomer);
+
+    // Clientes con préstamos que vencieron desde el último cálculo (roll-forward diario)
+    List<CustomerStandingEntity> findByNextDueDateBeforeAndAsOfDateBefore(LocalDate date, LocalDate asOf);
+}
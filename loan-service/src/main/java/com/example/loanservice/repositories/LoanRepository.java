@@ -1,11 +1,21 @@
 package com.example.loanservice.repositories;
 
 import com.example.loanservice.entities.LoanEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface LoanRepository extends JpaRepository<LoanEntity, Long> {
@@ -17,6 +27,12 @@ public interface LoanRepository extends JpaRepository<LoanEntity, Long> {
     // Activos (endDate null)
     List<LoanEntity> findByEndDateIsNull();
 
+    // Préstamos creados o modificados después de "since" (refresco incremental de OverdueTracker)
+    List<LoanEntity> findByUpdatedAtAfter(LocalDateTime since);
+
+    @Query("SELECT MAX(l.updatedAt) FROM LoanEntity l")
+    LocalDateTime lastUpdatedAt();
+
     // Activos atrasados (endDate null y dueDate < today)
     List<LoanEntity> findByEndDateIsNullAndDueDateBefore(LocalDate today);
 
@@ -28,9 +44,90 @@ public interface LoanRepository extends JpaRepository<LoanEntity, Long> {
 
     List<LoanEntity> findByEndDateIsNullAndDueDateBetween(LocalDate from, LocalDate to);
 
-    // Restricciones de negocio usadas en createLoan
+    // Activos atrasados dentro de un rango de startDate
+    List<LoanEntity> findByEndDateIsNullAndStartDateBetweenAndDueDateBefore(LocalDate from, LocalDate to, LocalDate today);
+
+    // Activos con el grupo calculado en SQL, en una sola consulta: [LoanEntity, Boolean atrasado]
+    @Query("select l, case when l.dueDate < :today then true else false end from LoanEntity l " +
+            "where l.endDate is null order by l.id")
+    List<Object[]> findActiveWithOverdueFlag(@Param("today") LocalDate today);
+
+    @Query("select l, case when l.dueDate < :today then true else false end from LoanEntity l " +
+            "where l.endDate is null and l.startDate between :from and :to order by l.id")
+    List<Object[]> findActiveWithOverdueFlagByStartDateBetween(@Param("from") LocalDate from,
+                                                               @Param("to") LocalDate to,
+                                                               @Param("today") LocalDate today);
+
+    // Restricciones de negocio usadas en requestLoan
     boolean existsByRutCustomerAndEndDateIsNullAndDueDateBefore(String rutCustomer, LocalDate date);
     boolean existsByRutCustomerAndPaidIsFalseAndEndDateNotNull(String rutCustomer);
     boolean existsByRutCustomerAndPaidIsFalse(String rutCustomer);
     List<LoanEntity> findByRutCustomerAndEndDateIsNull(String rutCustomer);
+
+    // Cierre condicional de una devolución: solo pasan los préstamos que siguen abiertos y sin pagar, y se devuelven
+    // los ids que cerró esta llamada. Si /return y /return/batch llegan juntos, el segundo espera el lock de la fila
+    // y, al confirmar el primero, ya no la cierra (no está en el resultado y no se devuelve nada a inventory)
+    @Transactional
+    @Query(value = "UPDATE loan SET end_date = :endDate WHERE id IN (:ids) AND end_date IS NULL AND paid = false RETURNING id",
+            nativeQuery = true)
+    List<Long> closeOpen(@Param("ids") Collection<Long> ids, @Param("endDate") LocalDate endDate);
+
+    // ------------------ Listados paginados (keyset por id: "after" = último id de la página anterior) ------------------
+    List<LoanEntity> findByIdGreaterThanOrderByIdAsc(long after, Limit limit);
+    List<LoanEntity> findByRutCustomerAndIdGreaterThanOrderByIdAsc(String rutCustomer, long after, Limit limit);
+    List<LoanEntity> findByEndDateIsNullAndIdGreaterThanOrderByIdAsc(long after, Limit limit);
+    List<LoanEntity> findByEndDateIsNullAndStartDateBetweenAndIdGreaterThanOrderByIdAsc(LocalDate from, LocalDate to, long after, Limit limit);
+    List<LoanEntity> findByEndDateIsNullAndDueDateBeforeAndIdGreaterThanOrderByIdAsc(LocalDate today, long after, Limit limit);
+    List<LoanEntity> findByEndDateIsNullAndStartDateBetweenAndDueDateBeforeAndIdGreaterThanOrderByIdAsc(LocalDate from, LocalDate to, LocalDate today, long after, Limit limit);
+
+    // Vigentes de /active/grouped (dueDate >= today o sin dueDate, igual que findActiveWithOverdueFlag)
+    @Query("select l from LoanEntity l where l.endDate is null and (l.dueDate is null or l.dueDate >= :today) " +
+            "and l.id > :after order by l.id")
+    List<LoanEntity> findCurrentActivePage(@Param("today") LocalDate today, @Param("after") long after, Limit limit);
+
+    @Query("select l from LoanEntity l where l.endDate is null and l.startDate between :from and :to " +
+            "and (l.dueDate is null or l.dueDate >= :today) and l.id > :after order by l.id")
+    List<LoanEntity> findCurrentActivePageByStartDateBetween(@Param("from") LocalDate from, @Param("to") LocalDate to,
+                                                             @Param("today") LocalDate today, @Param("after") long after,
+                                                             Limit limit);
+
+    // ------------------ Streaming (NDJSON): cursor del servidor con fetch size, requiere transacción abierta ------------------
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    Stream<LoanEntity> streamAllByOrderByIdAsc();
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    Stream<LoanEntity> streamByRutCustomerOrderByIdAsc(String rutCustomer);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    Stream<LoanEntity> streamByEndDateIsNullAndDueDateBeforeOrderByIdAsc(LocalDate today);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    Stream<LoanEntity> streamByEndDateIsNullAndStartDateBetweenAndDueDateBeforeOrderByIdAsc(LocalDate from, LocalDate to, LocalDate today);
+
+    // Activos con el grupo calculado en SQL: [LoanEntity, Boolean atrasado]
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select l, case when l.dueDate < :today then true else false end from LoanEntity l " +
+            "where l.endDate is null order by l.id")
+    Stream<Object[]> streamActiveWithOverdueFlag(@Param("today") LocalDate today);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select l, case when l.dueDate < :today then true else false end from LoanEntity l " +
+            "where l.endDate is null and l.startDate between :from and :to order by l.id")
+    Stream<Object[]> streamActiveWithOverdueFlagByStartDateBetween(@Param("from") LocalDate from,
+                                                                   @Param("to") LocalDate to,
+                                                                   @Param("today") LocalDate today);
+
+    // Reconstrucción de customer_standing (por cliente)
+    long countByRutCustomerAndEndDateIsNull(String rutCustomer);
+    long countByRutCustomerAndEndDateIsNullAndDueDateBefore(String rutCustomer, LocalDate date);
+    long countByRutCustomerAndPaidIsFalseAndEndDateNotNull(String rutCustomer);
+
+    @Query("select min(l.dueDate) from LoanEntity l where l.rutCustomer = :rut and l.endDate is null")
+    LocalDate findNextDueDate(@Param("rut") String rutCustomer);
+
+    // Elegibilidad de varios clientes en una consulta: [rut, dueDate más próxima sin devolver, devueltos sin pagar]
+    @Query("select l.rutCustomer, min(case when l.endDate is null then l.dueDate end), " +
+            "sum(case when l.endDate is not null and l.paid = false then 1 else 0 end) " +
+            "from LoanEntity l where l.rutCustomer in :ruts group by l.rutCustomer")
+    List<Object[]> findStandingByRutCustomerIn(@Param("ruts") Collection<String> ruts);
 }
@@ -0,0 +1,26 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.LoanReturnEntity;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LoanReturnRepository extends JpaRepository<LoanReturnEntity, Long> {
+
+    // lock.timeout = -2 -> FOR UPDATE SKIP LOCKED: varias instancias toman devoluciones distintas sin esperarse
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    List<LoanReturnEntity> findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(String status, LocalDateTime now, Limit limit);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<LoanReturnEntity> findForUpdateById(Long id);
+}
@@ -0,0 +1,27 @@
+package com.example.loanservice.repositories;
+
+import com.example.loanservice.entities.LoanSagaEntity;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LoanSagaRepository extends JpaRepository<LoanSagaEntity, Long> {
+
+    // lock.timeout = -2 -> FOR UPDATE SKIP LOCKED: varias instancias toman sagas distintas sin esperarse
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    List<LoanSagaEntity> findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(String status, LocalDateTime now, Limit limit);
+
+    // Para guardar el resultado de un paso sin pisar a otra instancia que retomó la misma saga
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<LoanSagaEntity> findForUpdateById(Long id);
+}
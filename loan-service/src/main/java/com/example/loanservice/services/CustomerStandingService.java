@@ -0,0 +1,144 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.CustomerStandingEntity;
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.repositories.CustomerStandingRepository;
+import com.example.loanservice.repositories.LoanRepository;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Optional;
+
+// Mantiene customer_standing: requestLoan valida al cliente con una sola búsqueda por PK
+// en vez de recorrer la tabla loan. Si un cliente no tiene registro, se reconstruye desde loan.
+@Service
+public class CustomerStandingService {
+
+    @Autowired
+    private CustomerStandingRepository standingRepository;
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    // ------------------ Helpers ------------------
+
+    private CustomerStandingEntity rebuild(CustomerStandingEntity standing, LocalDate today) {
+        String rut = standing.getRutCustomer();
+        standing.setOpenLoans((int) loanRepository.countByRutCustomerAndEndDateIsNull(rut));
+        standing.setOpenOverdueCount((int) loanRepository.countByRutCustomerAndEndDateIsNullAndDueDateBefore(rut, today));
+        standing.setUnpaidClosedCount((int) loanRepository.countByRutCustomerAndPaidIsFalseAndEndDateNotNull(rut));
+        standing.setNextDueDate(loanRepository.findNextDueDate(rut));
+        standing.setAsOfDate(today);
+        return standingRepository.save(standing);
+    }
+
+    // Registro bloqueado del cliente, creándolo si no existe. Solo esta transacción puede ver el registro vacío
+    // que acaba de insertar (asOfDate null): en ese caso se calcula desde la tabla loan.
+    // Se repite si invalidate borró el registro entre el INSERT y la lectura.
+    private CustomerStandingEntity build(String rutCustomer) {
+        Optional<CustomerStandingEntity> standing = Optional.empty();
+        while (standing.isEmpty()) {
+            standingRepository.insertIfAbsent(rutCustomer);
+            standing = standingRepository.findByRutCustomer(rutCustomer);
+        }
+        return standing.get().getAsOfDate() != null ? standing.get() : rebuild(standing.get(), LocalDate.now());
+    }
+
+    // Registro bloqueado para aplicar un cambio. Si no existía se construye desde la tabla loan
+    // (que ya incluye el cambio recién guardado) y se devuelve null: no hay nada más que aplicar.
+    private CustomerStandingEntity lockForUpdate(String rutCustomer) {
+        if (standingRepository.insertIfAbsent(rutCustomer) == 0) {
+            Optional<CustomerStandingEntity> standing = standingRepository.findByRutCustomer(rutCustomer);
+            if (standing.isPresent()) return standing.get();
+        }
+        build(rutCustomer);
+        return null;
+    }
+
+    private boolean isOverdue(LoanEntity loan, LocalDate today) {
+        return loan.getDueDate() != null && loan.getDueDate().isBefore(today);
+    }
+
+    // ------------------ Consultas ------------------
+
+    @Transactional
+    public CustomerStandingEntity getStanding(String rutCustomer) {
+        if (rutCustomer == null || rutCustomer.isBlank()) throw new IllegalArgumentException("rut es requerido");
+        return standingRepository.findById(rutCustomer).orElseGet(() -> build(rutCustomer));
+    }
+
+    // Activo = sin préstamos vencidos sin devolver y sin deudas de préstamos devueltos.
+    // Se usa nextDueDate (no openOverdueCount) para no depender de que ya corrió el roll-forward del día.
+    @Transactional
+    public boolean isEligible(String rutCustomer, LocalDate today) {
+        CustomerStandingEntity standing = getStanding(rutCustomer);
+        boolean hasOverdue = standing.getNextDueDate() != null && standing.getNextDueDate().isBefore(today);
+        return !hasOverdue && standing.getUnpaidClosedCount() == 0;
+    }
+
+    // ------------------ Actualización incremental ------------------
+
+    @Transactional
+    public void onLoanCreated(LoanEntity loan) {
+        LocalDate today = LocalDate.now();
+        CustomerStandingEntity standing = lockForUpdate(loan.getRutCustomer());
+        if (standing == null) return;
+
+        standing.setOpenLoans(standing.getOpenLoans() + 1);
+        if (isOverdue(loan, today)) standing.setOpenOverdueCount(standing.getOpenOverdueCount() + 1);
+        if (standing.getNextDueDate() == null || loan.getDueDate().isBefore(standing.getNextDueDate())) {
+            standing.setNextDueDate(loan.getDueDate());
+        }
+        standingRepository.save(standing);
+    }
+
+    // Llamar después de guardar el préstamo ya devuelto (endDate != null)
+    @Transactional
+    public void onLoanReturned(LoanEntity loan) {
+        LocalDate today = LocalDate.now();
+        CustomerStandingEntity standing = lockForUpdate(loan.getRutCustomer());
+        if (standing == null) return;
+
+        standing.setOpenLoans(Math.max(0, standing.getOpenLoans() - 1));
+        if (isOverdue(loan, today)) standing.setOpenOverdueCount(Math.max(0, standing.getOpenOverdueCount() - 1));
+        if (!loan.isPaid()) standing.setUnpaidClosedCount(standing.getUnpaidClosedCount() + 1);
+
+        // solo hay que buscar la siguiente dueDate si se cerró el préstamo que la definía
+        if (loan.getDueDate() != null && loan.getDueDate().equals(standing.getNextDueDate())) {
+            standing.setNextDueDate(loanRepository.findNextDueDate(loan.getRutCustomer()));
+        }
+        standingRepository.save(standing);
+    }
+
+    @Transactional
+    public void onLoanPaid(LoanEntity loan) {
+        if (loan.getEndDate() == null) return; // pagado antes de devolver: nunca contó como deuda
+        CustomerStandingEntity standing = lockForUpdate(loan.getRutCustomer());
+        if (standing == null) return;
+        standing.setUnpaidClosedCount(Math.max(0, standing.getUnpaidClosedCount() - 1));
+        standingRepository.save(standing);
+    }
+
+    // Cambios masivos (import / devolución en lote): se borra el resumen y se reconstruye al consultarlo
+    @Transactional
+    public void invalidate(Collection<String> rutCustomers) {
+        if (rutCustomers.isEmpty()) return;
+        standingRepository.deleteAllByIdInBatch(rutCustomers);
+    }
+
+    // ------------------ Roll-forward diario ------------------
+    // Recalcula a los clientes cuyo próximo vencimiento ya pasó y que no se han recalculado hoy
+
+    @Scheduled(cron = "${loan.standing.roll-forward-cron:0 5 0 * * *}")
+    @Transactional
+    public void rollForward() {
+        LocalDate today = LocalDate.now();
+        for (CustomerStandingEntity standing : standingRepository.findByNextDueDateBeforeAndAsOfDateBefore(today, today)) {
+            rebuild(standing, today);
+        }
+    }
+}
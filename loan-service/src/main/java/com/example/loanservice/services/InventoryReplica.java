@@ -0,0 +1,182 @@
+package com.example.loanservice.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Réplica local de la disponibilidad de inventory-service, mantenida con su feed de cambios:
+//   1) GET /api/v1/tools/changes/snapshot -> estado completo y position
+//   2) GET /api/v1/tools/changes?after=position&waitMs=... en un hilo propio (long-poll), aplicando cada cambio
+// El feed puede repetir cambios (y entregarlos fuera del orden de seq entre herramientas): por herramienta se
+// guarda el seq aplicado y se ignora lo más viejo. Las eliminadas quedan como lápida con su seq.
+// Solo sirve para descartar antes de tiempo: si la réplica dice que no hay stock, requestLoan falla sin abrir la saga.
+// Si dice que hay, la reserva en inventory sigue siendo la que decide. Si está completa hasta hace más de
+// max-staleness-ms, no se usa. La antigüedad sale del lagMs del feed y no de la hora de la respuesta: el feed puede
+// seguir respondiendo sin avanzar (una transacción larga en inventory frena su position).
+@Service
+public class InventoryReplica {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryReplica.class);
+
+    private static final String CHANGES = "http://inventory-service/api/v1/tools/changes";
+    private static final String SNAPSHOT = CHANGES + "/snapshot";
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Value("${loan.inventory-replica.enabled:true}")
+    private boolean enabled;
+
+    // Espera de cada long-poll; debe quedar bajo http.client.read-timeout-ms
+    @Value("${loan.inventory-replica.wait-ms:3000}")
+    private long waitMs;
+
+    @Value("${loan.inventory-replica.batch-size:500}")
+    private int batchSize;
+
+    @Value("${loan.inventory-replica.retry-ms:2000}")
+    private long retryMs;
+
+    @Value("${loan.inventory-replica.max-staleness-ms:10000}")
+    private long maxStalenessMs;
+
+    private record Row(String name, int available, long seq, boolean deleted) {}
+
+    // rows solo lo toca el hilo del feed; las lecturas van a availableByName (el snapshot lo reemplaza entero)
+    private Map<Long, Row> rows = new HashMap<>();
+    private volatile Map<String, Integer> availableByName = new ConcurrentHashMap<>();
+
+    private volatile long position = -1;      // -1: falta cargar el snapshot
+    private volatile long syncedAt = 0;       // la réplica tiene todo lo confirmado en inventory hasta aquí
+    private volatile boolean running = false;
+    private Thread worker;
+
+    // ------------------ Aplicar cambios ------------------
+
+    private static void addAvailable(Map<String, Integer> byName, String name, int delta) {
+        if (delta != 0) byName.merge(name, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    // Un solo merge por nombre: un lector nunca ve la fila vieja descontada sin la nueva sumada
+    private static void apply(Map<Long, Row> rows, Map<String, Integer> byName, Map<String, Object> change) {
+        long idTool = Long.parseLong(String.valueOf(change.get("idTool")));
+        long seq = Long.parseLong(String.valueOf(change.get("seq")));
+        Row current = rows.get(idTool);
+        if (current != null && current.seq() >= seq) return;
+
+        Row row = Boolean.TRUE.equals(change.get("deleted"))
+                ? new Row(null, 0, seq, true)
+                : new Row(String.valueOf(change.get("name")), Integer.parseInt(String.valueOf(change.get("available"))), seq, false);
+        rows.put(idTool, row);
+
+        Row old = current != null && !current.deleted() ? current : null;
+        if (row.deleted()) row = null;
+
+        if (old != null && row != null && old.name().equals(row.name())) {
+            addAvailable(byName, row.name(), row.available() - old.available());
+            return;
+        }
+        if (old != null) addAvailable(byName, old.name(), -old.available());
+        if (row != null) addAvailable(byName, row.name(), row.available());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadSnapshot() {
+        Map<String, Object> body = restTemplate.getForObject(SNAPSHOT, Map.class);
+        if (body == null) throw new IllegalStateException("Snapshot vacío");
+
+        Map<Long, Row> freshRows = new HashMap<>();
+        Map<String, Integer> freshByName = new ConcurrentHashMap<>();
+        for (Map<String, Object> tool : (List<Map<String, Object>>) body.get("tools")) apply(freshRows, freshByName, tool);
+
+        rows = freshRows;
+        availableByName = freshByName;
+        position = Long.parseLong(String.valueOf(body.get("position")));
+        syncedAt = 0;
+        advanceSyncedAt(body.get("lagMs"));
+        log.info("InventoryReplica: snapshot con {} herramientas (position {})", freshRows.size(), position);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pollChanges() {
+        String url = CHANGES + "?after=" + position + "&limit=" + batchSize + "&waitMs=" + waitMs;
+        Map<String, Object> body = restTemplate.getForObject(url, Map.class);
+        if (body == null) throw new IllegalStateException("Respuesta vacía");
+
+        for (Map<String, Object> change : (List<Map<String, Object>>) body.get("changes")) apply(rows, availableByName, change);
+        position = Long.parseLong(String.valueOf(body.get("position")));
+        advanceSyncedAt(body.get("lagMs"));
+    }
+
+    // lagMs null: inventory no sabe hasta cuándo está completa esa position; syncedAt no avanza
+    private void advanceSyncedAt(Object lagMs) {
+        if (lagMs == null) return;
+        long completeAt = System.currentTimeMillis() - Long.parseLong(String.valueOf(lagMs));
+        if (completeAt > syncedAt) syncedAt = completeAt;
+    }
+
+    // ------------------ Hilo del feed ------------------
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        running = true;
+        worker = new Thread(this::follow, "inventory-replica");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) worker.interrupt();
+    }
+
+    private void follow() {
+        while (running) {
+            try {
+                if (position < 0) loadSnapshot();
+                else pollChanges();
+            } catch (Exception e) {
+                // sin conexión con inventory: la réplica envejece y deja de usarse (fresh() == false)
+                log.warn("InventoryReplica: no se pudo sincronizar: {}", e.getMessage());
+                try {
+                    Thread.sleep(retryMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // ------------------ Lecturas ------------------
+
+    public boolean fresh() {
+        return enabled && position >= 0 && System.currentTimeMillis() - syncedAt <= maxStalenessMs;
+    }
+
+    // Se llama antes de abrir la saga: falla si la réplica (vigente) ya sabe que no alcanza el stock.
+    // Mismo mensaje que la reserva en inventory-service.
+    public void checkAvailable(List<String> toolNames) {
+        if (!fresh()) return;
+
+        Map<String, Integer> needed = new LinkedHashMap<>();
+        for (String name : toolNames) needed.merge(name, 1, Integer::sum);
+
+        Map<String, Integer> byName = availableByName;
+        for (Map.Entry<String, Integer> e : needed.entrySet()) {
+            if (byName.getOrDefault(e.getKey(), 0) < e.getValue()) {
+                throw new IllegalArgumentException("No hay stock disponible para la herramienta: " + e.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanReturnEntity;
+import com.example.loanservice.repositories.LoanReturnRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Entrega de las devoluciones en lote (loan_return_outbox) a inventory-service:
+//   - LoanService.returnToolsBatch cierra los préstamos y escribe la devolución en la misma transacción;
+//     después la entrega de inmediato. El relay retoma las que quedaron con reintento pendiente o cuyo
+//     "lease" venció (la instancia que la entregaba se cayó).
+//   - la llamada lleva la reference de la devolución: si se repite, inventory responde lo mismo sin devolver dos veces
+//   - con la respuesta, suma a las multas la reposición de lo dado de baja y borra la fila (transacción corta)
+//   - un 400 de inventory se reintenta hasta max-attempts y queda DEAD; 409/5xx/sin conexión se reintentan sin límite
+@Service
+public class LoanReturnRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(LoanReturnRelay.class);
+
+    public static final String PENDING = "PENDING";
+    public static final String DEAD    = "DEAD";
+    public static final String DONE    = "DONE";
+
+    @Autowired
+    private LoanReturnRepository returnRepository;
+
+    // @Lazy: LoanService abre las devoluciones con este servicio
+    @Autowired
+    @Lazy
+    private LoanService loanService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${loan.return-relay.enabled:true}")
+    private boolean relayEnabled;
+
+    @Value("${loan.return-relay.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${loan.return-relay.backoff-ms:1000}")
+    private long backoffMs;
+
+    @Value("${loan.return-relay.max-backoff-ms:60000}")
+    private long maxBackoffMs;
+
+    // Tiempo que una devolución queda tomada por quien la entrega; debe superar el timeout de una llamada remota
+    @Value("${loan.return-relay.lease-ms:60000}")
+    private long leaseMs;
+
+    @Value("${loan.return-relay.batch-size:20}")
+    private int batchSize;
+
+    // ------------------ Helpers ------------------
+
+    private TransactionTemplate tx() {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    private LocalDateTime leaseUntil() {
+        return LocalDateTime.now().plusNanos(leaseMs * 1_000_000L);
+    }
+
+    private long backoff(int attempts) {
+        long delay = backoffMs << Math.min(attempts - 1, 20);
+        return Math.min(delay, maxBackoffMs);
+    }
+
+    private List<Map<String, Object>> readItems(String json) {
+        try {
+            return objectMapper.readValue(json, new TypeReference<List<Map<String, Object>>>() {});
+        } catch (Exception e) {
+            throw new RuntimeException("Devolución con ítems ilegibles", e);
+        }
+    }
+
+    private String writeItems(List<Map<String, Object>> items) {
+        try {
+            return objectMapper.writeValueAsString(items);
+        } catch (Exception e) {
+            throw new RuntimeException("No se pudo guardar la devolución", e);
+        }
+    }
+
+    // ------------------ Apertura ------------------
+
+    // Se llama dentro de la transacción que cierra los préstamos; nace tomada por quien la abre
+    public LoanReturnEntity open(String reference, String rutCustomer, List<Long> loanIds, List<Map<String, Object>> items) {
+        LoanReturnEntity ret = new LoanReturnEntity();
+        ret.setReference(reference);
+        ret.setRutCustomer(rutCustomer);
+        ret.setLoanIds(new ArrayList<>(loanIds));
+        ret.setItems(writeItems(items));
+        ret.setStatus(PENDING);
+        ret.setAttempts(0);
+        ret.setNextAttemptAt(leaseUntil());
+        ret.setCreatedAt(LocalDateTime.now());
+        return returnRepository.save(ret);
+    }
+
+    // ------------------ Entrega ------------------
+
+    // Devuelve DONE, PENDING (quedó para reintento) o DEAD
+    public String deliver(long id) {
+        Optional<LoanReturnEntity> pending = returnRepository.findById(id);
+        if (pending.isEmpty()) return DONE;
+        LoanReturnEntity ret = pending.get();
+        if (!PENDING.equals(ret.getStatus())) return ret.getStatus();
+
+        try {
+            List<Map<String, Object>> returned =
+                    loanService.returnToInventory(ret.getReference(), ret.getRutCustomer(), readItems(ret.getItems()));
+            tx().executeWithoutResult(status -> returnRepository.findForUpdateById(id).ifPresent(locked -> {
+                // si otra instancia ya la aplicó, la fila no está y no se suma nada dos veces
+                loanService.applyDiscardFines(locked.getLoanIds(), returned);
+                returnRepository.delete(locked);
+            }));
+            return DONE;
+        } catch (IllegalArgumentException e) {
+            return fail(id, e, true);
+        } catch (Exception e) {
+            log.warn("Devolución {} falló (intento {}): {}", ret.getReference(), ret.getAttempts() + 1, e.getMessage());
+            return fail(id, e, false);
+        }
+    }
+
+    private String fail(long id, Exception e, boolean rejected) {
+        return tx().execute(status -> {
+            Optional<LoanReturnEntity> locked = returnRepository.findForUpdateById(id);
+            if (locked.isEmpty()) return DONE;
+            LoanReturnEntity ret = locked.get();
+            ret.setAttempts(ret.getAttempts() + 1);
+            ret.setLastError(e.getMessage());
+            if (rejected && ret.getAttempts() >= maxAttempts) {
+                ret.setStatus(DEAD);
+                ret.setNextAttemptAt(null);
+                log.error("Devolución {} rechazada por inventory-service {} veces; queda DEAD: {}",
+                        ret.getReference(), ret.getAttempts(), e.getMessage());
+            } else {
+                ret.setNextAttemptAt(LocalDateTime.now().plusNanos(backoff(ret.getAttempts()) * 1_000_000L));
+            }
+            return returnRepository.save(ret).getStatus();
+        });
+    }
+
+    // Toma las devoluciones vencidas (reintento o lease expirado) con SKIP LOCKED y les da un lease nuevo
+    private List<Long> claimDue() {
+        return tx().execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (LoanReturnEntity ret : returnRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(
+                    PENDING, LocalDateTime.now(), Limit.of(batchSize))) {
+                ret.setNextAttemptAt(leaseUntil());
+                returnRepository.save(ret);
+                ids.add(ret.getId());
+            }
+            return ids;
+        });
+    }
+
+    @Scheduled(initialDelayString = "${loan.return-relay.relay-ms:1000}", fixedDelayString = "${loan.return-relay.relay-ms:1000}")
+    public void relay() {
+        if (!relayEnabled) return;
+        for (Long id : claimDue()) {
+            try {
+                deliver(id);
+            } catch (Exception e) {
+                // queda con su nextAttemptAt (lease) y se retoma en una vuelta posterior
+                log.error("Devolución {}: error inesperado en el relay", id, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.entities.LoanSagaEntity;
+import com.example.loanservice.repositories.LoanSagaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Motor de la saga de creación de préstamos (tabla loan_saga como outbox):
+//   RESERVE    -> reserva idempotente en inventory-service (reference = "loan-saga-{id}")
+//   PRICE      -> rentalFee y creación del préstamo, en la misma transacción que cierra la saga (ACTIVE)
+//   COMPENSATE -> libera la reserva (también tras un rechazo de RESERVE); se reintenta hasta que inventory confirme (FAILED)
+// Las llamadas remotas se hacen sin transacción abierta; cada resultado se guarda en una transacción corta.
+// Quien crea la saga la ejecuta de inmediato; el relay retoma las que quedaron con reintento pendiente
+// o cuyo "lease" venció (la instancia que la ejecutaba se cayó).
+@Service
+public class LoanSagaService {
+
+    private static final Logger log = LoggerFactory.getLogger(LoanSagaService.class);
+
+    public static final String PENDING = "PENDING";
+    public static final String ACTIVE  = "ACTIVE";
+    public static final String FAILED  = "FAILED";
+
+    private static final String RESERVE    = "RESERVE";
+    private static final String PRICE      = "PRICE";
+    private static final String COMPENSATE = "COMPENSATE";
+    private static final String DONE       = "DONE";
+
+    @Autowired
+    private LoanSagaRepository sagaRepository;
+
+    @Autowired
+    private LoanService loanService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${loan.saga.relay-enabled:true}")
+    private boolean relayEnabled;
+
+    // Reintentos por paso antes de compensar (la compensación se reintenta sin límite)
+    @Value("${loan.saga.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${loan.saga.backoff-ms:1000}")
+    private long backoffMs;
+
+    @Value("${loan.saga.max-backoff-ms:60000}")
+    private long maxBackoffMs;
+
+    // Tiempo que una saga queda tomada por quien la ejecuta; debe superar el timeout de una llamada remota
+    @Value("${loan.saga.lease-ms:60000}")
+    private long leaseMs;
+
+    @Value("${loan.saga.batch-size:20}")
+    private int batchSize;
+
+    // ------------------ Helpers ------------------
+
+    public static String reservationReference(long idSaga) {
+        return "loan-saga-" + idSaga;
+    }
+
+    private TransactionTemplate tx() {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    private LocalDateTime leaseUntil() {
+        return LocalDateTime.now().plusNanos(leaseMs * 1_000_000L);
+    }
+
+    private long backoff(int attempts) {
+        long delay = backoffMs << Math.min(attempts - 1, 20);
+        return Math.min(delay, maxBackoffMs);
+    }
+
+    private void moveTo(LoanSagaEntity saga, String step) {
+        saga.setStep(step);
+        saga.setAttempts(0);
+        saga.setNextAttemptAt(leaseUntil());
+    }
+
+    private void finish(LoanSagaEntity saga, String status) {
+        saga.setStatus(status);
+        saga.setStep(DONE);
+        saga.setNextAttemptAt(null);
+    }
+
+    // Guarda el resultado de un paso solo si la saga sigue en ese paso (otra instancia pudo retomarla)
+    private LoanSagaEntity record(long idSaga, String expectedStep, Consumer<LoanSagaEntity> change) {
+        return tx().execute(status -> {
+            LoanSagaEntity saga = sagaRepository.findForUpdateById(idSaga)
+                    .orElseThrow(() -> new IllegalArgumentException("Solicitud no encontrada"));
+            if (!PENDING.equals(saga.getStatus()) || !expectedStep.equals(saga.getStep())) return saga;
+
+            change.accept(saga);
+            saga.setUpdatedAt(LocalDateTime.now());
+            return sagaRepository.save(saga);
+        });
+    }
+
+    // Error transitorio: se reintenta con backoff exponencial; agotados los intentos se compensa
+    private void retryOrCompensate(LoanSagaEntity saga, Exception e) {
+        saga.setAttempts(saga.getAttempts() + 1);
+        saga.setLastError(e.getMessage());
+
+        if (!COMPENSATE.equals(saga.getStep()) && saga.getAttempts() >= maxAttempts) {
+            moveTo(saga, COMPENSATE);
+            return;
+        }
+        saga.setNextAttemptAt(LocalDateTime.now().plusNanos(backoff(saga.getAttempts()) * 1_000_000L));
+    }
+
+    // ------------------ Apertura ------------------
+
+    // Se valida antes en LoanService; la saga nace tomada por quien la abre (el relay no la toca mientras dure el lease)
+    public LoanSagaEntity open(String rutCustomer, List<String> toolNames, LocalDate startDate, LocalDate dueDate) {
+        return tx().execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            LoanSagaEntity saga = new LoanSagaEntity();
+            saga.setStatus(PENDING);
+            saga.setStep(RESERVE);
+            saga.setRutCustomer(rutCustomer);
+            saga.setToolNames(new ArrayList<>(toolNames));
+            saga.setStartDate(startDate);
+            saga.setDueDate(dueDate);
+            saga.setAttempts(0);
+            saga.setNextAttemptAt(leaseUntil());
+            saga.setCreatedAt(now);
+            saga.setUpdatedAt(now);
+            return sagaRepository.save(saga);
+        });
+    }
+
+    // Quien la abrió no la va a ejecutar (pool de sagas lleno): se adelanta el lease para que el relay la tome ya
+    public void handOffToRelay(long idSaga) {
+        tx().executeWithoutResult(status -> sagaRepository.findForUpdateById(idSaga).ifPresent(saga -> {
+            if (!PENDING.equals(saga.getStatus())) return;
+            saga.setNextAttemptAt(LocalDateTime.now());
+            sagaRepository.save(saga);
+        }));
+        log.warn("Saga {}: pool de sagas lleno, queda para el relay", idSaga);
+    }
+
+    public LoanSagaEntity getSaga(long idSaga) {
+        return sagaRepository.findById(idSaga)
+                .orElseThrow(() -> new IllegalArgumentException("Solicitud no encontrada"));
+    }
+
+    // ------------------ Ejecución ------------------
+
+    // Ejecuta un paso; devuelve false si quedó esperando un reintento
+    private boolean runStep(LoanSagaEntity saga) {
+        long id = saga.getId();
+        String step = saga.getStep();
+
+        try {
+            switch (step) {
+                case RESERVE -> {
+                    loanService.reserveTools(reservationReference(id), saga.getRutCustomer(), saga.getToolNames());
+                    record(id, step, s -> moveTo(s, PRICE));
+                }
+                case PRICE -> {
+                    double rentalFee = loanService.calculateRentalFee(saga.getStartDate(), saga.getDueDate());
+                    record(id, step, s -> {
+                        s.setRentalFee(rentalFee);
+                        LoanEntity loan = loanService.activateLoan(s);
+                        s.setLoanId(loan.getId());
+                        finish(s, ACTIVE);
+                    });
+                }
+                case COMPENSATE -> {
+                    loanService.releaseReservation(reservationReference(id));
+                    record(id, step, s -> finish(s, FAILED));
+                }
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+
+        } catch (IllegalArgumentException e) {
+            // rechazo definitivo (400 de inventory, ej: sin stock): no se reintenta
+            if (COMPENSATE.equals(step)) {
+                record(id, step, s -> retryOrCompensate(s, e));
+                return false;
+            }
+            // también si RESERVE fue rechazada: un intento anterior de la misma reserva pudo haberse aplicado
+            // (respuesta perdida, timeout). La liberación es idempotente y si no hay reserva la deja "Cancelada".
+            record(id, step, s -> {
+                s.setLastError(e.getMessage());
+                moveTo(s, COMPENSATE);
+            });
+            return true;
+
+        } catch (Exception e) {
+            log.warn("Saga {} paso {} falló (intento {}): {}", id, step, saga.getAttempts() + 1, e.getMessage());
+            LoanSagaEntity updated = record(id, step, s -> retryOrCompensate(s, e));
+            return !step.equals(updated.getStep());
+        }
+    }
+
+    // Avanza la saga hasta terminar o hasta que un paso quede programado para reintento
+    public LoanSagaEntity drive(long idSaga) {
+        LoanSagaEntity saga = getSaga(idSaga);
+        while (PENDING.equals(saga.getStatus()) && runStep(saga)) {
+            saga = getSaga(idSaga);
+        }
+        return getSaga(idSaga);
+    }
+
+    // Toma las sagas vencidas (reintento o lease expirado) con SKIP LOCKED y les da un lease nuevo
+    private List<Long> claimDue() {
+        return tx().execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (LoanSagaEntity saga : sagaRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByIdAsc(
+                    PENDING, LocalDateTime.now(), Limit.of(batchSize))) {
+                saga.setNextAttemptAt(leaseUntil());
+                sagaRepository.save(saga);
+                ids.add(saga.getId());
+            }
+            return ids;
+        });
+    }
+
+    @Scheduled(initialDelayString = "${loan.saga.relay-ms:1000}", fixedDelayString = "${loan.saga.relay-ms:1000}")
+    public void relay() {
+        if (!relayEnabled) return;
+        for (Long id : claimDue()) {
+            try {
+                drive(id);
+            } catch (Exception e) {
+                // queda con su nextAttemptAt (lease) y se retoma en una vuelta posterior
+                log.error("Saga {}: error inesperado en el relay", id, e);
+            }
+        }
+    }
+}
@@ -1,38 +1,112 @@
 package com.example.loanservice.services;
 
 import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.entities.LoanSagaEntity;
 import com.example.loanservice.repositories.LoanRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class LoanService {
 
+    private static final Logger log = LoggerFactory.getLogger(LoanService.class);
+
     @Autowired
     private LoanRepository loanRepository;
 
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private PricingSnapshotService pricingSnapshotService;
+
+    @Autowired
+    private InventoryReplica inventoryReplica;
+
+    @Autowired
+    private CustomerStandingService customerStandingService;
+
+    @Autowired
+    private OverdueTracker overdueTracker;
+
+    // @Lazy: LoanSagaService usa los pasos de este servicio
+    @Autowired
+    @Lazy
+    private LoanSagaService loanSagaService;
+
+    @Autowired
+    private LoanReturnRelay loanReturnRelay;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Mismo valor que spring.jpa.properties.hibernate.jdbc.batch_size: flush/clear cada lote en los imports
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int jdbcBatchSize;
+
+    // Tamaño máximo de página en los listados con ?limit=
+    @Value("${loan.listing.max-limit:1000}")
+    private int maxPageSize;
+
+    @Autowired
+    @Qualifier("loanFanOutExecutor")
+    private ExecutorService fanOutExecutor;
+
+    @Autowired
+    @Qualifier("loanSagaExecutor")
+    private ExecutorService sagaExecutor;
+
+    // false: las llamadas remotas se hacen una tras otra en el hilo del request
+    @Value("${loan.fanout.enabled:true}")
+    private boolean fanOutEnabled;
+
+    // Plazo máximo por request para juntar los resultados lanzados en paralelo
+    @Value("${loan.fanout.deadline-ms:5000}")
+    private long fanOutDeadlineMs;
+
     // ---------- Eureka service names ----------
     private static final String INVENTORY_BASE = "http://inventory-service/api/v1/tools";
     private static final String PRICING_BASE   = "http://pricing-service/api/v1/pricing";
 
     // ---------- Inventory endpoints ----------
-    // Requiere que tengas en inventory:
-    // GET /api/v1/tools/search?name=...
-    private static final String INV_SEARCH_BY_NAME = INVENTORY_BASE + "/search?name={name}";
-    private static final String INV_LOAN           = INVENTORY_BASE + "/{idTool}/loan?rutPerson={rut}&quantity={quantity}";
-    private static final String INV_AVAILABLE      = INVENTORY_BASE + "/{idTool}/available?rutPerson={rut}&quantity={quantity}";
-    private static final String INV_REPAIR         = INVENTORY_BASE + "/{idTool}/repair?rutPerson={rut}&quantity={quantity}";
-    private static final String INV_DEACTIVATE     = INVENTORY_BASE + "/{idTool}/deactivate?rutPerson={rut}&quantity={quantity}";
+    // Reservas en lote: una sola llamada por préstamo (POST /api/v1/tools/reservations/batch)
+    private static final String INV_RESERVE_BATCH  = INVENTORY_BASE + "/reservations/batch";
+    private static final String INV_RETURN_BATCH   = INVENTORY_BASE + "/reservations/batch/return";
+    // Compensación de la saga: POST /api/v1/tools/reservations/{reference}/release
+    private static final String INV_RELEASE_PREFIX = INVENTORY_BASE + "/reservations/";
 
     // ---------- Pricing endpoints ----------
     private static final String PRICE_CALC_LOAN    = PRICING_BASE + "/calculate/loan";
@@ -40,124 +114,127 @@ public class LoanService {
 
     // ---------------- Inventory helpers ----------------
 
+    private HttpEntity<Map<String, Object>> jsonEntity(Map<String, Object> body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(body, headers);
+    }
+
+    // items: [ { "name": ..., "quantity": ..., "action": ... } ] -> resultados por nombre (con "totalValue")
     @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> inventorySearchByName(String name) {
+    private List<Map<String, Object>> inventoryBatch(String url, String rutPerson, List<Map<String, Object>> items, String reference, String errorMsg) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("rutPerson", rutPerson);
+        if (reference != null) body.put("reference", reference);
+        body.put("items", items);
+
         try {
-            ResponseEntity<List> resp = restTemplate.getForEntity(INV_SEARCH_BY_NAME, List.class, name);
+            ResponseEntity<List> resp = restTemplate.exchange(url, HttpMethod.POST, jsonEntity(body), List.class);
             if (resp.getStatusCode().is2xxSuccessful() && resp.getBody() != null) {
                 return (List<Map<String, Object>>) resp.getBody();
             }
             return new ArrayList<>();
+        } catch (HttpClientErrorException.BadRequest e) {
+            // inventory-service responde 400 solo para rechazos (ej: sin stock); lo propagamos tal cual.
+            // 409 (choque de concurrencia) y 5xx quedan como RuntimeException: se reintentan.
+            throw new IllegalArgumentException(e.getResponseBodyAsString());
         } catch (Exception e) {
-            throw new RuntimeException("No se pudo consultar inventory-service: /api/v1/tools/search", e);
+            throw new RuntimeException(errorMsg, e);
         }
     }
 
-    private void inventoryLoan(Long idTool, String rutPerson, int quantity) {
-        try {
-            restTemplate.exchange(INV_LOAN, HttpMethod.PUT, null, Object.class, idTool, rutPerson, quantity);
-        } catch (Exception e) {
-            throw new RuntimeException("No se pudo prestar herramienta en inventory-service", e);
-        }
+    // reference: con la misma referencia inventory no vuelve a prestar (reintentos de la saga)
+    private List<Map<String, Object>> inventoryReserve(String reference, String rutPerson, List<Map<String, Object>> items) {
+        return inventoryBatch(INV_RESERVE_BATCH, rutPerson, items, reference, "No se pudo prestar herramientas en inventory-service");
     }
 
-    private void inventoryAvailable(Long idTool, String rutPerson, int quantity) {
-        try {
-            restTemplate.exchange(INV_AVAILABLE, HttpMethod.PUT, null, Object.class, idTool, rutPerson, quantity);
-        } catch (Exception e) {
-            throw new RuntimeException("No se pudo devolver herramienta a Disponible en inventory-service", e);
-        }
+    private Map<String, Object> inventoryItem(String toolName, String action) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("name", toolName);
+        item.put("quantity", 1);
+        if (action != null) item.put("action", action);
+        return item;
     }
 
-    private void inventoryRepair(Long idTool, String rutPerson, int quantity) {
-        try {
-            restTemplate.exchange(INV_REPAIR, HttpMethod.PUT, null, Object.class, idTool, rutPerson, quantity);
-        } catch (Exception e) {
-            throw new RuntimeException("No se pudo enviar a reparación en inventory-service", e);
-        }
-    }
+    // ---------------- Pricing helpers ----------------
+    // Se calcula con la copia local de pricing (PricingSnapshotService); si no hay copia vigente, se llama a pricing-service
 
-    private void inventoryDeactivate(Long idTool, String rutPerson, int quantity) {
+    private double remoteCalculation(String url, Map<String, Object> body, String totalKey, String errorMsg) {
         try {
-            restTemplate.exchange(INV_DEACTIVATE, HttpMethod.PUT, null, Object.class, idTool, rutPerson, quantity);
+            ResponseEntity<Map> resp = restTemplate.exchange(url, HttpMethod.POST, jsonEntity(body), Map.class);
+            if (resp.getStatusCode().is2xxSuccessful() && resp.getBody() != null && resp.getBody().get(totalKey) != null) {
+                return Double.parseDouble(String.valueOf(resp.getBody().get(totalKey)));
+            }
+            throw new RuntimeException("pricing-service no devolvió " + totalKey);
         } catch (Exception e) {
-            throw new RuntimeException("No se pudo dar de baja en inventory-service", e);
+            throw new RuntimeException(errorMsg, e);
         }
     }
 
-    // ---------------- Pricing helpers ----------------
-
     private double pricingCalculateLoan(int days) {
+        PricingSnapshotService.PricingSnapshot snapshot = pricingSnapshotService.fresh();
+        if (snapshot != null) return snapshot.rentalFeeDaily() * days;
+
         Map<String, Object> body = new HashMap<>();
         body.put("days", days);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<Map<String, Object>> req = new HttpEntity<>(body, headers);
-
-        try {
-            ResponseEntity<Double> resp = restTemplate.exchange(PRICE_CALC_LOAN, HttpMethod.POST, req, Double.class);
-            if (resp.getStatusCode().is2xxSuccessful() && resp.getBody() != null) return resp.getBody();
-            throw new RuntimeException("pricing-service no devolvió rentalFee");
-        } catch (Exception e) {
-            throw new RuntimeException("No se pudo calcular rentalFee en pricing-service", e);
-        }
+        return remoteCalculation(PRICE_CALC_LOAN, body, "totalRental", "No se pudo calcular rentalFee en pricing-service");
     }
 
     private double pricingCalculateLateFee(int lateDays) {
-        Map<String, Object> body = new HashMap<>();
-        body.put("lateDays", lateDays);
+        // sin atraso no hay multa (pricing-service rechaza lateDays <= 0)
+        if (lateDays <= 0) return 0.0;
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<Map<String, Object>> req = new HttpEntity<>(body, headers);
+        PricingSnapshotService.PricingSnapshot snapshot = pricingSnapshotService.fresh();
+        if (snapshot != null) return snapshot.lateFeeDaily() * lateDays;
 
-        try {
-            ResponseEntity<Double> resp = restTemplate.exchange(PRICE_CALC_LATEFEE, HttpMethod.POST, req, Double.class);
-            if (resp.getStatusCode().is2xxSuccessful() && resp.getBody() != null) return resp.getBody();
-            return 0.0;
-        } catch (Exception e) {
-            throw new RuntimeException("No se pudo calcular lateFine en pricing-service", e);
-        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("lateDays", lateDays);
+        return remoteCalculation(PRICE_CALC_LATEFEE, body, "totalLateFee", "No se pudo calcular lateFine en pricing-service");
     }
 
-    // ---------------- JSON helpers ----------------
+    // ---------------- Fan-out helpers ----------------
 
-    private boolean isLoanable(Map<String, Object> toolJson) {
-        if (toolJson == null) return false;
-        String state = String.valueOf(toolJson.getOrDefault("initialState", ""));
-        int stock = Integer.parseInt(String.valueOf(toolJson.getOrDefault("stock", "0")));
-        return "Disponible".equalsIgnoreCase(state) && stock >= 1;
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fanOutDeadlineMs);
     }
 
-    private boolean isPrestada(Map<String, Object> toolJson) {
-        if (toolJson == null) return false;
-        String state = String.valueOf(toolJson.getOrDefault("initialState", ""));
-        int stock = Integer.parseInt(String.valueOf(toolJson.getOrDefault("stock", "0")));
-        return "Prestada".equalsIgnoreCase(state) && stock >= 1;
+    private <T> Future<T> fork(Callable<T> call) {
+        if (fanOutEnabled) return fanOutExecutor.submit(call);
+        FutureTask<T> task = new FutureTask<>(call);
+        task.run();
+        return task;
     }
 
-    private Long getId(Map<String, Object> toolJson) {
-        return Long.parseLong(String.valueOf(toolJson.get("id")));
+    private <T> T join(Future<T> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RuntimeException("Se agotó el plazo esperando a los servicios remotos", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Operación interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new RuntimeException(e.getCause());
+        }
     }
 
-    private double getToolValue(Map<String, Object> toolJson) {
-        return Double.parseDouble(String.valueOf(toolJson.getOrDefault("toolValue", "0")));
+    // ---------------- JSON helpers ----------------
+
+    private double getTotalValue(Map<String, Object> result) {
+        return Double.parseDouble(String.valueOf(result.getOrDefault("totalValue", "0")));
     }
 
     // =========================================================================
     //  FIRMAS EXACTAS (como tu monolito)
     // =========================================================================
 
-    @Transactional
-    public LoanEntity createLoan(
-            LoanEntity loan,
-            String rutCustomer,
-            List<String> toolNames,
-            LocalDate startDate,
-            LocalDate dueDate
-    ) {
+    private static final String NOT_ELIGIBLE = "El cliente no está activo (tiene atrasos o deudas sin pagar)";
 
+    // Reglas de requestLoan que no dependen de otros préstamos; devuelve los nombres válidos
+    private List<String> validateLoanRequest(String rutCustomer, List<String> toolNames, LocalDate startDate, LocalDate dueDate) {
         if (rutCustomer == null || rutCustomer.isBlank()) throw new IllegalArgumentException("Cliente no encontrado");
         if (toolNames == null || toolNames.isEmpty()) throw new IllegalArgumentException("Debe indicar herramientas");
         if (startDate == null || dueDate == null) throw new IllegalArgumentException("Fechas requeridas");
@@ -166,62 +243,91 @@ public class LoanService {
         int days = (int) ChronoUnit.DAYS.between(startDate, dueDate);
         if (days < 1) throw new IllegalArgumentException("El arriendo debe ser mayor a un día");
 
-        boolean hasOverdue = loanRepository.existsByRutCustomerAndEndDateIsNullAndDueDateBefore(rutCustomer, LocalDate.now());
-        boolean hasUnpaid  = loanRepository.existsByRutCustomerAndPaidIsFalseAndEndDateNotNull(rutCustomer);
-        if (hasOverdue || hasUnpaid) {
-            throw new IllegalArgumentException("El cliente no está activo (tiene atrasos o deudas sin pagar)");
-        }
-
-        List<Long> loanedToolIds = new ArrayList<>();
         List<String> namesForLoan = new ArrayList<>();
+        for (String toolName : toolNames) {
+            if (toolName == null || toolName.isBlank()) continue;
+            namesForLoan.add(toolName);
+        }
+        if (namesForLoan.isEmpty()) throw new IllegalArgumentException("Debe indicar herramientas");
+        return namesForLoan;
+    }
 
-        try {
-            for (String toolName : toolNames) {
-                if (toolName == null || toolName.isBlank()) continue;
-
-                List<Map<String, Object>> tools = inventorySearchByName(toolName);
-
-                Map<String, Object> chosen = null;
-                for (Map<String, Object> t : tools) {
-                    if (isLoanable(t)) { chosen = t; break; }
-                }
+    // Valida y abre la saga de creación (ver LoanSagaService). async=false: se ejecuta en este hilo;
+    // async=true: se ejecuta en segundo plano y se devuelve la saga en PENDING.
+    public LoanSagaEntity requestLoan(
+            String rutCustomer,
+            List<String> toolNames,
+            LocalDate startDate,
+            LocalDate dueDate,
+            boolean async
+    ) {
 
-                if (chosen == null) {
-                    throw new IllegalArgumentException("No hay stock disponible para la herramienta: " + toolName);
-                }
+        List<String> namesForLoan = validateLoanRequest(rutCustomer, toolNames, startDate, dueDate);
 
-                Long idTool = getId(chosen);
+        // atrasos / deudas: una búsqueda por PK en customer_standing
+        if (!customerStandingService.isEligible(rutCustomer, LocalDate.now())) {
+            throw new IllegalArgumentException(NOT_ELIGIBLE);
+        }
 
-                // prestar 1 unidad
-                inventoryLoan(idTool, rutCustomer, 1);
+        // sin stock según la réplica local: se rechaza sin abrir la saga ni llamar a inventory
+        inventoryReplica.checkAvailable(namesForLoan);
 
-                loanedToolIds.add(idTool);
-                namesForLoan.add(toolName);
-            }
+        LoanSagaEntity saga = loanSagaService.open(rutCustomer, namesForLoan, startDate, dueDate);
+        if (!async) return loanSagaService.drive(saga.getId());
 
-            // rentalFee desde pricing-service (NO desde herramientas)
-            double rentalFee = pricingCalculateLoan(days);
+        // si el pool de sagas está lleno no se ejecuta en el hilo del request: se libera el lease y la toma el relay
+        // (también si la instancia cae antes de terminarla)
+        try {
+            sagaExecutor.execute(() -> loanSagaService.drive(saga.getId()));
+        } catch (RejectedExecutionException e) {
+            loanSagaService.handOffToRelay(saga.getId());
+        }
+        return saga;
+    }
 
-            loan.setRutCustomer(rutCustomer);
-            loan.setToolNames(namesForLoan);
-            loan.setStartDate(startDate);
-            loan.setDueDate(dueDate);
-            loan.setEndDate(null);
-            loan.setFine(0.0);
-            loan.setRentalFee(rentalFee);
-            loan.setPaid(false);
+    // ---------------- Pasos de la saga (LoanSagaService) ----------------
+    // Sin transacción: son llamadas remotas
 
-            return loanRepository.save(loan);
+    // prestar 1 unidad por nombre, todo en una sola llamada (inventory hace rollback si falta stock)
+    public void reserveTools(String reference, String rutCustomer, List<String> toolNames) {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (String toolName : toolNames) items.add(inventoryItem(toolName, null));
+        inventoryReserve(reference, rutCustomer, items);
+    }
 
+    public void releaseReservation(String reference) {
+        try {
+            restTemplate.exchange(INV_RELEASE_PREFIX + reference + "/release", HttpMethod.POST, jsonEntity(new HashMap<>()), List.class);
+        } catch (HttpClientErrorException.BadRequest e) {
+            throw new IllegalArgumentException(e.getResponseBodyAsString());
         } catch (Exception e) {
-            // compensación: devolver lo prestado si falló a mitad
-            for (Long idTool : loanedToolIds) {
-                try { inventoryAvailable(idTool, rutCustomer, 1); } catch (Exception ignored) {}
-            }
-            throw e;
+            throw new RuntimeException("No se pudo liberar la reserva " + reference + " en inventory-service", e);
         }
     }
 
+    // rentalFee desde pricing-service (NO desde herramientas)
+    public double calculateRentalFee(LocalDate startDate, LocalDate dueDate) {
+        return pricingCalculateLoan((int) ChronoUnit.DAYS.between(startDate, dueDate));
+    }
+
+    // Se llama dentro de la transacción que marca la saga como ACTIVE
+    public LoanEntity activateLoan(LoanSagaEntity saga) {
+        LoanEntity loan = new LoanEntity();
+        loan.setRutCustomer(saga.getRutCustomer());
+        loan.setToolNames(new ArrayList<>(saga.getToolNames()));
+        loan.setStartDate(saga.getStartDate());
+        loan.setDueDate(saga.getDueDate());
+        loan.setEndDate(null);
+        loan.setFine(0.0);
+        loan.setRentalFee(saga.getRentalFee());
+        loan.setPaid(false);
+
+        LoanEntity saved = loanRepository.save(loan);
+        customerStandingService.onLoanCreated(saved);
+        overdueTracker.onLoanSaved(saved);
+        return saved;
+    }
+
     @Transactional
     public LoanEntity returnTools(
             long idLoan,
@@ -231,9 +337,15 @@ public class LoanService {
             List<String> discarded
     ) {
 
+        LocalDate endDate = LocalDate.now();
+
+        // Cierre condicional antes de todo lo demás: si otra devolución (/return o /return/batch) ya lo cerró,
+        // no se toca inventory. El lock de la fila queda tomado hasta el commit
+        if (loanRepository.closeOpen(List.of(idLoan), endDate).isEmpty()) {
+            if (loanRepository.findByid(idLoan) == null) throw new IllegalArgumentException("Préstamo no encontrado");
+            throw new IllegalArgumentException("Ya el préstamo fue devuelto");
+        }
         LoanEntity loan = loanRepository.findByid(idLoan);
-        if (loan == null) throw new IllegalArgumentException("Préstamo no encontrado");
-        if (loan.isPaid()) throw new IllegalArgumentException("Ya el préstamo fue devuelto");
 
         if (damaged == null) damaged = new ArrayList<>();
         if (discarded == null) discarded = new ArrayList<>();
@@ -243,56 +355,52 @@ public class LoanService {
 
         String rutCustomer = loan.getRutCustomer();
         LocalDate dueDate  = loan.getDueDate();
-        LocalDate endDate  = LocalDate.now();
-
-        loan.setEndDate(endDate);
 
         int lateDays = 0;
         if (endDate.isAfter(dueDate)) {
             lateDays = (int) ChronoUnit.DAYS.between(dueDate, endDate);
         }
 
-        // lateFine desde pricing-service
-        double lateFine = pricingCalculateLateFee(lateDays);
-        loan.setFine(lateFine);
+        // lateFine antes de tocar inventory: si pricing falla o se agota el plazo, inventory queda como estaba
+        int finalLateDays = lateDays;
+        loan.setFine(join(fork(() -> pricingCalculateLateFee(finalLateDays)), deadline()));
 
+        List<Map<String, Object>> items = new ArrayList<>();
         for (String toolName : loan.getToolNames()) {
+            if (discarded.contains(toolName)) items.add(inventoryItem(toolName, "deactivate"));
+            else if (damaged.contains(toolName)) items.add(inventoryItem(toolName, "repair"));
+            else items.add(inventoryItem(toolName, "available"));
+        }
 
-            List<Map<String, Object>> tools = inventorySearchByName(toolName);
-
-            Map<String, Object> prestada = null;
-            for (Map<String, Object> t : tools) {
-                if (isPrestada(t)) { prestada = t; break; }
-            }
-
-            if (prestada == null) {
-                throw new IllegalArgumentException("No se encontró herramienta en estado 'Prestada': " + toolName);
-            }
-
-            Long idTool = getId(prestada);
-
-            if (discarded.contains(toolName)) {
-                inventoryDeactivate(idTool, rutCustomer, 1);
-                loan.setFine(loan.getFine() + getToolValue(prestada)); // cobra reposición
-
-            } else if (damaged.contains(toolName)) {
-                inventoryRepair(idTool, rutCustomer, 1);
-                if (repairCost > 0) loan.setFine(loan.getFine() + repairCost);
-
-            } else {
-                inventoryAvailable(idTool, rutCustomer, 1);
+        // reference por préstamo: si después falla la transacción y el cliente reintenta, inventory
+        // responde la devolución ya hecha en vez de devolver las herramientas otra vez
+        List<Map<String, Object>> returned = returnToInventory("loan-return-" + idLoan, rutCustomer, items);
+
+        for (Map<String, Object> result : returned) {
+            String action = String.valueOf(result.get("action"));
+            if ("deactivate".equals(action)) {
+                loan.setFine(loan.getFine() + getTotalValue(result)); // cobra reposición
+            } else if ("repair".equals(action)) {
+                int quantity = Integer.parseInt(String.valueOf(result.getOrDefault("quantity", "1")));
+                if (repairCost > 0) loan.setFine(loan.getFine() + repairCost * quantity);
             }
         }
 
-        return loanRepository.save(loan);
+        LoanEntity saved = loanRepository.save(loan);
+        customerStandingService.onLoanReturned(saved);
+        overdueTracker.onLoanSaved(saved);
+        return saved;
     }
 
     @Transactional
     public LoanEntity markLoanAsPaid(long idLoan) {
         LoanEntity loan = loanRepository.findByid(idLoan);
         if (loan == null) throw new IllegalArgumentException("Préstamo no encontrado");
+        boolean wasPaid = loan.isPaid();
         loan.setPaid(true);
-        return loanRepository.save(loan);
+        LoanEntity saved = loanRepository.save(loan);
+        if (!wasPaid) customerStandingService.onLoanPaid(saved);
+        return saved;
     }
 
     @Transactional
@@ -308,37 +416,36 @@ public class LoanService {
     @Transactional
     public List<LoanEntity> listOverdueActiveLoans(LocalDate from, LocalDate to) {
         LocalDate today = LocalDate.now();
+        validateRange(from, to);
 
-        List<LoanEntity> base;
-        if (from != null && to != null) {
-            if (to.isBefore(from)) throw new IllegalArgumentException("Rango inválido (to < from)");
-            base = loanRepository.findByEndDateIsNullAndStartDateBetween(from, to);
-        } else {
-            base = loanRepository.findByEndDateIsNull();
-        }
+        // desde memoria (OverdueTracker) mientras esté cargado; si no, consulta SQL
+        if (overdueTracker.isReady()) return overdueTracker.overdue(from, to);
 
-        List<LoanEntity> out = new ArrayList<>();
-        for (LoanEntity l : base) {
-            if (l.getDueDate() != null && l.getDueDate().isBefore(today)) {
-                out.add(l);
-            }
+        if (from != null && to != null) {
+            return loanRepository.findByEndDateIsNullAndStartDateBetweenAndDueDateBefore(from, to, today);
         }
-        return out;
+        return loanRepository.findByEndDateIsNullAndDueDateBefore(today);
     }
 
     @Transactional
     public Map<String, List<LoanEntity>> listActiveLoansGrouped(LocalDate from, LocalDate to) {
         LocalDate today = LocalDate.now();
 
-        List<LoanEntity> active = listActiveLoans(from, to);
+        List<Object[]> rows;
+        if (from != null && to != null) {
+            if (to.isBefore(from)) throw new IllegalArgumentException("Rango inválido (to < from)");
+            rows = loanRepository.findActiveWithOverdueFlagByStartDateBetween(from, to, today);
+        } else {
+            rows = loanRepository.findActiveWithOverdueFlag(today);
+        }
 
         List<LoanEntity> overdue = new ArrayList<>();
         List<LoanEntity> current = new ArrayList<>();
 
-        for (LoanEntity l : active) {
-            // si no tiene dueDate, lo tratamos como vigente (como tu monolito)
-            if (l.getDueDate() != null && l.getDueDate().isBefore(today)) overdue.add(l);
-            else current.add(l);
+        // si no tiene dueDate, el CASE da false: lo tratamos como vigente (como tu monolito)
+        for (Object[] row : rows) {
+            if (Boolean.TRUE.equals(row[1])) overdue.add((LoanEntity) row[0]);
+            else current.add((LoanEntity) row[0]);
         }
 
         Map<String, List<LoanEntity>> resp = new LinkedHashMap<>();
@@ -347,6 +454,331 @@ public class LoanService {
         return resp;
     }
 
+    // ------------------ Lotes: import y devolución masiva ------------------
+    // Para migraciones y conciliaciones: validación en bloque, llamadas remotas agrupadas por cliente
+    // (fuera de transacción) y una sola transacción con INSERT/UPDATE en batch (hibernate.jdbc.batch_size).
+
+    private static final int IN_CHUNK = 1000;
+
+    private Map<String, Object> batchResult(int index, Long idLoan, String error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("status", error == null ? "OK" : "ERROR");
+        if (idLoan != null) result.put("idLoan", idLoan);
+        if (error != null) result.put("error", error);
+        return result;
+    }
+
+    // Misma regla que CustomerStandingService.isEligible, pero para muchos clientes con consultas IN
+    private Set<String> ineligibleCustomers(Collection<String> ruts, LocalDate today) {
+        Set<String> ineligible = new HashSet<>();
+        List<String> all = new ArrayList<>(ruts);
+        for (int i = 0; i < all.size(); i += IN_CHUNK) {
+            List<String> chunk = all.subList(i, Math.min(all.size(), i + IN_CHUNK));
+            for (Object[] row : loanRepository.findStandingByRutCustomerIn(chunk)) {
+                LocalDate nextDueDate = (LocalDate) row[1];
+                long unpaidClosed = ((Number) row[2]).longValue();
+                if ((nextDueDate != null && nextDueDate.isBefore(today)) || unpaidClosed > 0) {
+                    ineligible.add((String) row[0]);
+                }
+            }
+        }
+        return ineligible;
+    }
+
+    // Guarda en una transacción, de a jdbcBatchSize préstamos por flush para no acumular miles de entidades.
+    // beforeSave corre primero en la misma transacción y puede sacar préstamos de la lista (ej: los que otra
+    // devolución ya cerró); alsoInTransaction corre después de guardar (ej: la devolución pendiente a inventory).
+    private void persistBatch(List<LoanEntity> loans, Set<String> ruts, Runnable beforeSave, Runnable alsoInTransaction) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            beforeSave.run();
+            for (int from = 0; from < loans.size(); from += jdbcBatchSize) {
+                List<LoanEntity> chunk = loans.subList(from, Math.min(loans.size(), from + jdbcBatchSize));
+
+                // préstamos existentes (devoluciones): se cargan con un IN para que save() no haga un SELECT por cada uno
+                List<Long> existing = new ArrayList<>();
+                for (LoanEntity loan : chunk) if (loan.getId() != 0) existing.add(loan.getId());
+                if (!existing.isEmpty()) loanRepository.findAllById(existing);
+
+                for (int i = 0; i < chunk.size(); i++) chunk.set(i, loanRepository.save(chunk.get(i)));
+                entityManager.flush();
+                entityManager.clear();
+            }
+            customerStandingService.invalidate(ruts);
+            alsoInTransaction.run();
+        });
+        for (LoanEntity loan : loans) overdueTracker.onLoanSaved(loan);
+    }
+
+    private int quantityOf(Map<String, Object> result) {
+        return Integer.parseInt(String.valueOf(result.getOrDefault("quantity", "1")));
+    }
+
+    // Import de préstamos. reserve=false: solo se registran (inventory ya refleja las herramientas prestadas);
+    // reserve=true: una reserva por cliente en inventory-service. rentalFee opcional por ítem.
+    public List<Map<String, Object>> createLoansBatch(List<LoanEntity> loans, boolean reserve) {
+        if (loans == null || loans.isEmpty()) throw new IllegalArgumentException("Debe indicar préstamos");
+        LocalDate today = LocalDate.now();
+
+        Map<Integer, Map<String, Object>> results = new TreeMap<>();
+        Map<Integer, LoanEntity> accepted = new LinkedHashMap<>();
+
+        for (int i = 0; i < loans.size(); i++) {
+            LoanEntity in = loans.get(i);
+            try {
+                if (in == null) throw new IllegalArgumentException("Préstamo inválido");
+                LoanEntity loan = new LoanEntity();
+                loan.setRutCustomer(in.getRutCustomer());
+                loan.setToolNames(validateLoanRequest(in.getRutCustomer(), in.getToolNames(), in.getStartDate(), in.getDueDate()));
+                loan.setStartDate(in.getStartDate());
+                loan.setDueDate(in.getDueDate());
+                loan.setEndDate(null);
+                loan.setFine(0.0);
+                loan.setRentalFee(in.getRentalFee());
+                loan.setPaid(false);
+                accepted.put(i, loan);
+            } catch (IllegalArgumentException e) {
+                results.put(i, batchResult(i, null, e.getMessage()));
+            }
+        }
+
+        Set<String> ruts = new LinkedHashSet<>();
+        accepted.values().forEach(l -> ruts.add(l.getRutCustomer()));
+        Set<String> ineligible = ineligibleCustomers(ruts, today);
+
+        // rentalFee: uno por cantidad de días distinta (normalmente desde la copia local de pricing)
+        Map<Integer, Double> feeByDays = new HashMap<>();
+        Map<String, List<Integer>> byCustomer = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<Integer, LoanEntity>> it = accepted.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, LoanEntity> e = it.next();
+            LoanEntity loan = e.getValue();
+            try {
+                if (ineligible.contains(loan.getRutCustomer())) throw new IllegalArgumentException(NOT_ELIGIBLE);
+                if (loan.getRentalFee() <= 0) {
+                    int days = (int) ChronoUnit.DAYS.between(loan.getStartDate(), loan.getDueDate());
+                    loan.setRentalFee(feeByDays.computeIfAbsent(days, this::pricingCalculateLoan));
+                }
+                byCustomer.computeIfAbsent(loan.getRutCustomer(), k -> new ArrayList<>()).add(e.getKey());
+            } catch (RuntimeException ex) {
+                results.put(e.getKey(), batchResult(e.getKey(), null, ex.getMessage()));
+                it.remove();
+            }
+        }
+
+        List<String> references = new ArrayList<>();
+        if (reserve) {
+            String batchId = UUID.randomUUID().toString();
+            for (Map.Entry<String, List<Integer>> e : byCustomer.entrySet()) {
+                Map<String, Integer> quantities = new LinkedHashMap<>();
+                for (Integer i : e.getValue()) {
+                    for (String name : accepted.get(i).getToolNames()) quantities.merge(name, 1, Integer::sum);
+                }
+                List<Map<String, Object>> items = new ArrayList<>();
+                quantities.forEach((name, qty) -> {
+                    Map<String, Object> item = inventoryItem(name, null);
+                    item.put("quantity", qty);
+                    items.add(item);
+                });
+
+                String reference = "loan-batch-" + batchId + "-" + e.getKey();
+                try {
+                    inventoryReserve(reference, e.getKey(), items);
+                    references.add(reference);
+                } catch (RuntimeException ex) {
+                    for (Integer i : e.getValue()) {
+                        results.put(i, batchResult(i, null, ex.getMessage()));
+                        accepted.remove(i);
+                    }
+                }
+            }
+        }
+
+        List<Integer> indexes = new ArrayList<>(accepted.keySet());
+        List<LoanEntity> toSave = new ArrayList<>(accepted.values());
+        Set<String> savedRuts = new HashSet<>();
+        toSave.forEach(l -> savedRuts.add(l.getRutCustomer()));
+        try {
+            persistBatch(toSave, savedRuts, () -> {}, () -> {});
+        } catch (RuntimeException e) {
+            // no quedó ningún préstamo: se liberan las reservas hechas para este lote
+            for (String reference : references) {
+                try {
+                    releaseReservation(reference);
+                } catch (RuntimeException releaseError) {
+                    log.error("No se pudo liberar la reserva {} del lote: {}", reference, releaseError.getMessage());
+                }
+            }
+            throw e;
+        }
+
+        for (int k = 0; k < indexes.size(); k++) {
+            results.put(indexes.get(k), batchResult(indexes.get(k), toSave.get(k).getId(), null));
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    // damaged / discarded de un ítem: lista de nombres (ausente = vacía)
+    private static List<String> toolNameList(Object raw, String field) {
+        if (raw == null) return new ArrayList<>();
+        if (!(raw instanceof List<?> list)) throw new IllegalArgumentException(field + " debe ser una lista de nombres");
+        List<String> names = new ArrayList<>(list.size());
+        for (Object name : list) {
+            if (!(name instanceof String toolName)) throw new IllegalArgumentException(field + " debe ser una lista de nombres");
+            names.add(toolName);
+        }
+        return names;
+    }
+
+    // Devolución masiva. Ítem: { "idLoan": 1, "damaged": [..], "discarded": [..], "repairCost": 0 }
+    // Primero se cierran los préstamos (multa por atraso y reparación) y, en la misma transacción, queda una
+    // devolución pendiente por cliente en loan_return_outbox; después LoanReturnRelay la entrega a inventory con
+    // una reference idempotente y suma la reposición de lo dado de baja. Si inventory no responde, el préstamo
+    // queda cerrado igual y la devolución se reintenta: nunca quedan herramientas en stock con el préstamo abierto.
+    // Resultado por ítem: "inventory" = DONE, PENDING (se reintenta) o DEAD (inventory la rechazó).
+    public List<Map<String, Object>> returnToolsBatch(List<Map<String, Object>> returns) {
+        if (returns == null || returns.isEmpty()) throw new IllegalArgumentException("Debe indicar devoluciones");
+        LocalDate today = LocalDate.now();
+
+        Map<Integer, Map<String, Object>> results = new TreeMap<>();
+        Map<Long, Integer> indexOf = new LinkedHashMap<>();
+
+        for (int i = 0; i < returns.size(); i++) {
+            Map<String, Object> item = returns.get(i);
+            Object id = item == null ? null : item.get("idLoan");
+            if (id == null) {
+                results.put(i, batchResult(i, null, "idLoan es requerido"));
+            } else if (indexOf.putIfAbsent(Long.parseLong(String.valueOf(id)), i) != null) {
+                results.put(i, batchResult(i, Long.parseLong(String.valueOf(id)), "Préstamo repetido en el lote"));
+            }
+        }
+
+        Map<Long, LoanEntity> loans = new HashMap<>();
+        List<Long> ids = new ArrayList<>(indexOf.keySet());
+        for (int i = 0; i < ids.size(); i += IN_CHUNK) {
+            for (LoanEntity loan : loanRepository.findAllById(ids.subList(i, Math.min(ids.size(), i + IN_CHUNK)))) {
+                loans.put(loan.getId(), loan);
+            }
+        }
+
+        Map<Integer, Double> lateFeeByDays = new HashMap<>();
+        Map<String, List<Long>> byCustomer = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> e : indexOf.entrySet()) {
+            int i = e.getValue();
+            LoanEntity loan = loans.get(e.getKey());
+            Map<String, Object> item = returns.get(i);
+            try {
+                if (loan == null) throw new IllegalArgumentException("Préstamo no encontrado");
+                if (loan.isPaid() || loan.getEndDate() != null) throw new IllegalArgumentException("Ya el préstamo fue devuelto");
+
+                List<String> damaged = toolNameList(item.get("damaged"), "damaged");
+                List<String> discarded = toolNameList(item.get("discarded"), "discarded");
+                double repairCost = Double.parseDouble(String.valueOf(item.getOrDefault("repairCost", "0")));
+                loan.setDamagedTools(damaged);
+                loan.setDiscardedTools(discarded);
+                loan.setEndDate(today);
+
+                int lateDays = today.isAfter(loan.getDueDate()) ? (int) ChronoUnit.DAYS.between(loan.getDueDate(), today) : 0;
+                loan.setFine(lateFeeByDays.computeIfAbsent(lateDays, this::pricingCalculateLateFee));
+                if (repairCost > 0) {
+                    for (String toolName : loan.getToolNames()) {
+                        if (!discarded.contains(toolName) && damaged.contains(toolName)) loan.setFine(loan.getFine() + repairCost);
+                    }
+                }
+
+                byCustomer.computeIfAbsent(loan.getRutCustomer(), k -> new ArrayList<>()).add(loan.getId());
+            } catch (RuntimeException ex) {
+                results.put(i, batchResult(i, e.getKey(), ex.getMessage()));
+                loans.remove(e.getKey());
+            }
+        }
+
+        List<LoanEntity> toSave = new ArrayList<>();
+        for (List<Long> customerLoans : byCustomer.values()) for (Long id : customerLoans) toSave.add(loans.get(id));
+        Set<String> savedRuts = new HashSet<>(byCustomer.keySet());
+
+        String batchId = UUID.randomUUID().toString();
+        Map<String, Long> returnIdByCustomer = new LinkedHashMap<>();
+        persistBatch(toSave, savedRuts, () -> {
+            // cierre condicional: lo que /return u otro lote cerró después de la lectura no se guarda ni se devuelve
+            Set<Long> closed = new HashSet<>();
+            List<Long> open = new ArrayList<>(loans.keySet());
+            for (int i = 0; i < open.size(); i += IN_CHUNK) {
+                closed.addAll(loanRepository.closeOpen(open.subList(i, Math.min(open.size(), i + IN_CHUNK)), today));
+            }
+            toSave.removeIf(loan -> !closed.contains(loan.getId()));
+            for (Long id : open) {
+                if (closed.contains(id)) continue;
+                results.put(indexOf.get(id), batchResult(indexOf.get(id), id, "Ya el préstamo fue devuelto"));
+                byCustomer.get(loans.remove(id).getRutCustomer()).remove(id);
+            }
+            byCustomer.values().removeIf(List::isEmpty);
+            savedRuts.retainAll(byCustomer.keySet());
+        }, () -> byCustomer.forEach((rut, loanIds) -> returnIdByCustomer.put(rut,
+                loanReturnRelay.open("loan-return-" + batchId + "-" + rut, rut, loanIds, returnItems(loanIds, loans)).getId())));
+
+        for (Map.Entry<String, Long> e : returnIdByCustomer.entrySet()) {
+            String inventory = loanReturnRelay.deliver(e.getValue());
+            for (Long id : byCustomer.get(e.getKey())) {
+                int i = indexOf.get(id);
+                Map<String, Object> result = batchResult(i, id, null);
+                result.put("inventory", inventory);
+                results.put(i, result);
+            }
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    // Una devolución a inventory por cliente: "nombre|acción" -> unidades
+    private List<Map<String, Object>> returnItems(List<Long> loanIds, Map<Long, LoanEntity> loans) {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (Long id : loanIds) {
+            LoanEntity loan = loans.get(id);
+            for (String toolName : loan.getToolNames()) {
+                String action = loan.getDiscardedTools().contains(toolName) ? "deactivate"
+                        : loan.getDamagedTools().contains(toolName) ? "repair" : "available";
+                quantities.merge(toolName + "|" + action, 1, Integer::sum);
+            }
+        }
+        List<Map<String, Object>> items = new ArrayList<>();
+        quantities.forEach((key, qty) -> {
+            String[] nameAction = key.split("\\|", 2);
+            Map<String, Object> item = inventoryItem(nameAction[0], nameAction[1]);
+            item.put("quantity", qty);
+            items.add(item);
+        });
+        return items;
+    }
+
+    // ---------------- Pasos de la devolución en lote (LoanReturnRelay) ----------------
+
+    // Sin transacción: llamada remota. Con la misma reference inventory no vuelve a devolver.
+    public List<Map<String, Object>> returnToInventory(String reference, String rutCustomer, List<Map<String, Object>> items) {
+        return inventoryBatch(INV_RETURN_BATCH, rutCustomer, items, reference, "No se pudo devolver herramientas en inventory-service");
+    }
+
+    // Se llama dentro de la transacción que borra la devolución pendiente: reposición de lo dado de baja
+    // (promedio por unidad de las filas que usó inventory)
+    public void applyDiscardFines(List<Long> loanIds, List<Map<String, Object>> returned) {
+        Map<String, Double> discardUnitValue = new HashMap<>();
+        for (Map<String, Object> result : returned) {
+            if ("deactivate".equals(String.valueOf(result.get("action")))) {
+                discardUnitValue.put(String.valueOf(result.get("name")), getTotalValue(result) / Math.max(1, quantityOf(result)));
+            }
+        }
+        if (discardUnitValue.isEmpty()) return;
+
+        for (LoanEntity loan : loanRepository.findAllById(loanIds)) {
+            double replacement = 0;
+            for (String toolName : loan.getToolNames()) {
+                if (loan.getDiscardedTools().contains(toolName)) replacement += discardUnitValue.getOrDefault(toolName, 0.0);
+            }
+            if (replacement > 0) {
+                loan.setFine(loan.getFine() + replacement);
+                loanRepository.save(loan);
+            }
+        }
+    }
+
     // ------------------ Helpers básicos ------------------
 
     @Transactional
@@ -361,4 +793,149 @@ public class LoanService {
         List<LoanEntity> loans = loanRepository.findByrutCustomer(rutCustomer);
         return loans;
     }
+
+    // ------------------ Listados paginados (keyset por id) ------------------
+    // Respuesta: { "items": [...], "next": <id para ?after=, o null si no hay más> }
+
+    private int pageSize(Integer limit) {
+        if (limit == null || limit <= 0) throw new IllegalArgumentException("limit debe ser > 0");
+        return Math.min(limit, maxPageSize);
+    }
+
+    private long cursor(Long after) {
+        return after != null ? after : 0L;
+    }
+
+    private Long nextCursor(List<LoanEntity> items, int size) {
+        return items.size() < size ? null : items.get(items.size() - 1).getId();
+    }
+
+    private Map<String, Object> page(List<LoanEntity> items, int size) {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("items", items);
+        resp.put("next", nextCursor(items, size));
+        return resp;
+    }
+
+    private void validateRange(LocalDate from, LocalDate to) {
+        if (from != null && to != null && to.isBefore(from)) throw new IllegalArgumentException("Rango inválido (to < from)");
+    }
+
+    @Transactional
+    public Map<String, Object> pageAllLoans(Long after, Integer limit) {
+        int size = pageSize(limit);
+        return page(loanRepository.findByIdGreaterThanOrderByIdAsc(cursor(after), Limit.of(size)), size);
+    }
+
+    @Transactional
+    public Map<String, Object> pageLoansByCustomerRut(String rutCustomer, Long after, Integer limit) {
+        int size = pageSize(limit);
+        return page(loanRepository.findByRutCustomerAndIdGreaterThanOrderByIdAsc(rutCustomer, cursor(after), Limit.of(size)), size);
+    }
+
+    @Transactional
+    public Map<String, Object> pageOverdueActiveLoans(LocalDate from, LocalDate to, Long after, Integer limit) {
+        validateRange(from, to);
+        int size = pageSize(limit);
+        LocalDate today = LocalDate.now();
+
+        List<LoanEntity> items = (from != null && to != null)
+                ? loanRepository.findByEndDateIsNullAndStartDateBetweenAndDueDateBeforeAndIdGreaterThanOrderByIdAsc(from, to, today, cursor(after), Limit.of(size))
+                : loanRepository.findByEndDateIsNullAndDueDateBeforeAndIdGreaterThanOrderByIdAsc(today, cursor(after), Limit.of(size));
+        return page(items, size);
+    }
+
+    // Página de préstamos activos en los mismos grupos que listActiveLoansGrouped, separados en SQL: cada grupo es
+    // un rango keyset propio del índice parcial (afterOverdue / afterCurrent), así cada uno trae hasta limit préstamos.
+    // next: { afterOverdue, afterCurrent } para la página siguiente (un grupo ya terminado queda en su último id y
+    // vuelve vacío), o null cuando ninguno de los dos tiene más
+    @Transactional
+    public Map<String, Object> pageActiveLoansGrouped(LocalDate from, LocalDate to, Long afterOverdue, Long afterCurrent,
+                                                      Integer limit) {
+        validateRange(from, to);
+        int size = pageSize(limit);
+        LocalDate today = LocalDate.now();
+        boolean ranged = from != null && to != null;
+
+        List<LoanEntity> overdue = ranged
+                ? loanRepository.findByEndDateIsNullAndStartDateBetweenAndDueDateBeforeAndIdGreaterThanOrderByIdAsc(from, to, today, cursor(afterOverdue), Limit.of(size))
+                : loanRepository.findByEndDateIsNullAndDueDateBeforeAndIdGreaterThanOrderByIdAsc(today, cursor(afterOverdue), Limit.of(size));
+        List<LoanEntity> current = ranged
+                ? loanRepository.findCurrentActivePageByStartDateBetween(from, to, today, cursor(afterCurrent), Limit.of(size))
+                : loanRepository.findCurrentActivePage(today, cursor(afterCurrent), Limit.of(size));
+
+        Map<String, Object> next = null;
+        if (nextCursor(overdue, size) != null || nextCursor(current, size) != null) {
+            next = new LinkedHashMap<>();
+            next.put("afterOverdue", overdue.isEmpty() ? cursor(afterOverdue) : overdue.get(overdue.size() - 1).getId());
+            next.put("afterCurrent", current.isEmpty() ? cursor(afterCurrent) : current.get(current.size() - 1).getId());
+        }
+
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("Atrasos", overdue);
+        resp.put("Vigentes", current);
+        resp.put("next", next);
+        return resp;
+    }
+
+    // ------------------ Streaming NDJSON ------------------
+    // Recorre un cursor del servidor y escribe un préstamo por línea; cada entidad se saca del
+    // contexto de persistencia después de escribirla, así la memoria no crece con el resultado.
+
+    public void writeNdjson(Supplier<Stream<LoanEntity>> query, OutputStream out) {
+        writeNdjson(query, out, loan -> loan, loan -> loan);
+    }
+
+    // line: lo que se escribe por cada fila; loan: la entidad de la fila (para sacarla del contexto)
+    private <T> void writeNdjson(Supplier<Stream<T>> query, OutputStream out,
+                                 Function<T, Object> line, Function<T, LoanEntity> loan) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.executeWithoutResult(status -> {
+            try (Stream<T> rows = query.get()) {
+                rows.forEach(row -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(line.apply(row)));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    entityManager.detach(loan.apply(row));
+                });
+            }
+        });
+    }
+
+    public void writeAllLoansNdjson(OutputStream out) {
+        writeNdjson(() -> loanRepository.streamAllByOrderByIdAsc(), out);
+    }
+
+    public void writeLoansByCustomerNdjson(String rutCustomer, OutputStream out) {
+        writeNdjson(() -> loanRepository.streamByRutCustomerOrderByIdAsc(rutCustomer), out);
+    }
+
+    public void writeOverdueActiveLoansNdjson(LocalDate from, LocalDate to, OutputStream out) {
+        validateRange(from, to);
+        LocalDate today = LocalDate.now();
+        if (from != null && to != null) {
+            writeNdjson(() -> loanRepository.streamByEndDateIsNullAndStartDateBetweenAndDueDateBeforeOrderByIdAsc(from, to, today), out);
+        } else {
+            writeNdjson(() -> loanRepository.streamByEndDateIsNullAndDueDateBeforeOrderByIdAsc(today), out);
+        }
+    }
+
+    // /active/grouped en NDJSON: los activos en orden de id, cada uno con "group" (Atrasos / Vigentes) calculado en SQL
+    public void writeActiveLoansGroupedNdjson(LocalDate from, LocalDate to, OutputStream out) {
+        validateRange(from, to);
+        LocalDate today = LocalDate.now();
+        Supplier<Stream<Object[]>> query = (from != null && to != null)
+                ? () -> loanRepository.streamActiveWithOverdueFlagByStartDateBetween(from, to, today)
+                : () -> loanRepository.streamActiveWithOverdueFlag(today);
+        writeNdjson(query, out, row -> {
+            ObjectNode line = objectMapper.createObjectNode();
+            line.put("group", Boolean.TRUE.equals(row[1]) ? "Atrasos" : "Vigentes");
+            line.setAll((ObjectNode) objectMapper.valueToTree(row[0]));
+            return line;
+        }, row -> (LoanEntity) row[0]);
+    }
 }
@@ -0,0 +1,245 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.events.LoanOverdueEvent;
+import com.example.loanservice.repositories.LoanRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Préstamos activos en memoria, ordenados por vencimiento en una rueda de tiempo jerárquica (por días):
+//   nivel 0: 64 casillas de 1 día (bloque de 64 días actual)
+//   nivel 1: 64 casillas de 64 días (bloque de 4096 días actual)
+//   overflow: vencimientos más lejanos
+// Al cambiar el día se vacía la casilla que vence y esos préstamos pasan a "atrasados" (con LoanOverdueEvent),
+// así GET /active/overdue responde desde memoria en O(resultado).
+// Se reconstruye desde findByEndDateIsNull() al arrancar y cada resync-ms. Entremedio, cada refresh-ms se releen los
+// préstamos con updated_at reciente (creados o devueltos en otras instancias), con refresh-overlap-ms de traslape
+// para las transacciones que confirman después de que se leyó su updated_at.
+@Service
+public class OverdueTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(OverdueTracker.class);
+
+    private static final int SLOTS = 64;
+    private static final long LEVEL1_SPAN = (long) SLOTS * SLOTS;
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${loan.overdue-tracker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${loan.overdue-tracker.refresh-overlap-ms:60000}")
+    private long refreshOverlapMs;
+
+    private final List<Set<Long>> level0 = newLevel();
+    private final List<Set<Long>> level1 = newLevel();
+    private final Map<Long, Set<Long>> overflow = new HashMap<>();   // bloque de 4096 días -> préstamos
+
+    private final Map<Long, LoanEntity> pending = new HashMap<>();          // activos aún no vencidos
+    private final Map<Long, Set<Long>> slotOf = new HashMap<>();            // préstamo -> casilla donde está
+    private final Map<Long, LoanEntity> overdue = new LinkedHashMap<>();    // activos atrasados
+
+    private long currentDay;
+    private volatile boolean ready = false;
+
+    // updated_at más reciente ya aplicado (reloj de la base)
+    private LocalDateTime lastSeen;
+
+    private static List<Set<Long>> newLevel() {
+        List<Set<Long>> level = new ArrayList<>(SLOTS);
+        for (int i = 0; i < SLOTS; i++) level.add(new HashSet<>());
+        return level;
+    }
+
+    // ------------------ Rueda ------------------
+
+    // Día en que el préstamo pasa a atrasado: el siguiente a su dueDate
+    private long expiryDay(LoanEntity loan) {
+        return loan.getDueDate().toEpochDay() + 1;
+    }
+
+    private void place(long idLoan, long expiry) {
+        Set<Long> slot;
+        if (expiry / SLOTS == currentDay / SLOTS) {
+            slot = level0.get((int) (expiry % SLOTS));
+        } else if (expiry / LEVEL1_SPAN == currentDay / LEVEL1_SPAN) {
+            slot = level1.get((int) ((expiry / SLOTS) % SLOTS));
+        } else {
+            slot = overflow.computeIfAbsent(expiry / LEVEL1_SPAN, k -> new HashSet<>());
+        }
+        slot.add(idLoan);
+        slotOf.put(idLoan, slot);
+    }
+
+    private void markOverdue(LoanEntity loan, LocalDate detectedOn, boolean publish) {
+        overdue.put(loan.getId(), loan);
+        if (publish) {
+            eventPublisher.publishEvent(new LoanOverdueEvent(loan.getId(), loan.getRutCustomer(), loan.getDueDate(), detectedOn));
+        }
+    }
+
+    private void add(LoanEntity loan, boolean publish) {
+        if (loan.getEndDate() != null) return;
+        // sin dueDate nunca se atrasa (como listActiveLoansGrouped)
+        if (loan.getDueDate() == null) return;
+
+        long expiry = expiryDay(loan);
+        if (expiry <= currentDay) {
+            markOverdue(loan, LocalDate.ofEpochDay(currentDay), publish);
+            return;
+        }
+        pending.put(loan.getId(), loan);
+        place(loan.getId(), expiry);
+    }
+
+    private void remove(long idLoan) {
+        overdue.remove(idLoan);
+        pending.remove(idLoan);
+        Set<Long> slot = slotOf.remove(idLoan);
+        if (slot != null) slot.remove(idLoan);
+    }
+
+    // Mueve el contenido de una casilla de nivel superior a su lugar según el día actual
+    private void cascade(Set<Long> slot) {
+        if (slot == null || slot.isEmpty()) return;
+        List<Long> ids = new ArrayList<>(slot);
+        slot.clear();
+        for (Long id : ids) place(id, expiryDay(pending.get(id)));
+    }
+
+    // Avanza día por día hasta "today", venciendo las casillas de nivel 0
+    void advanceTo(LocalDate today) {
+        long target = today.toEpochDay();
+        while (currentDay < target) {
+            currentDay++;
+            if (currentDay % LEVEL1_SPAN == 0) cascade(overflow.remove(currentDay / LEVEL1_SPAN));
+            if (currentDay % SLOTS == 0) cascade(level1.get((int) ((currentDay / SLOTS) % SLOTS)));
+
+            Set<Long> expired = level0.get((int) (currentDay % SLOTS));
+            for (Long id : expired) {
+                slotOf.remove(id);
+                markOverdue(pending.remove(id), LocalDate.ofEpochDay(currentDay), true);
+            }
+            expired.clear();
+        }
+    }
+
+    // ------------------ Ciclo de vida ------------------
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        rebuild();
+    }
+
+    @Scheduled(initialDelayString = "${loan.overdue-tracker.resync-ms:3600000}",
+            fixedDelayString = "${loan.overdue-tracker.resync-ms:3600000}")
+    public void rebuild() {
+        if (!enabled) return;
+        LocalDateTime mark = loanRepository.lastUpdatedAt();
+        List<LoanEntity> active = loanRepository.findByEndDateIsNull();
+
+        synchronized (this) {
+            level0.forEach(Set::clear);
+            level1.forEach(Set::clear);
+            overflow.clear();
+            pending.clear();
+            slotOf.clear();
+            overdue.clear();
+
+            currentDay = LocalDate.now().toEpochDay();
+            for (LoanEntity loan : active) add(loan, false);
+            lastSeen = mark;
+            ready = true;
+        }
+        log.info("OverdueTracker: {} préstamos activos, {} atrasados", active.size(), overdue.size());
+    }
+
+    // Una lectura por índice de los préstamos que cambiaron desde lastSeen (menos el traslape). Volver a aplicar
+    // uno ya conocido no cambia nada; si llega una versión anterior a la que aplicó onLoanSaved, el siguiente
+    // refresco la corrige (sigue dentro del traslape).
+    @Scheduled(initialDelayString = "${loan.overdue-tracker.refresh-ms:5000}",
+            fixedDelayString = "${loan.overdue-tracker.refresh-ms:5000}")
+    public void refresh() {
+        if (!enabled || !ready) return;
+        LocalDateTime since;
+        synchronized (this) {
+            since = lastSeen == null ? LocalDateTime.of(1970, 1, 1, 0, 0) : lastSeen.minusNanos(refreshOverlapMs * 1_000_000);
+        }
+        List<LoanEntity> changed = loanRepository.findByUpdatedAtAfter(since);
+
+        synchronized (this) {
+            advanceTo(LocalDate.now());
+            for (LoanEntity loan : changed) {
+                remove(loan.getId());
+                add(loan, false);
+                if (lastSeen == null || loan.getUpdatedAt().isAfter(lastSeen)) lastSeen = loan.getUpdatedAt();
+            }
+        }
+    }
+
+    // Cambio de día: vence casillas y publica eventos aunque nadie consulte
+    @Scheduled(cron = "${loan.overdue-tracker.tick-cron:0 0 * * * *}")
+    public synchronized void tick() {
+        if (ready) advanceTo(LocalDate.now());
+    }
+
+    // ------------------ Uso desde LoanService ------------------
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    // Registra un préstamo recién creado o devuelto cuando la transacción confirma (si hace rollback, no cambia nada)
+    public void onLoanSaved(LoanEntity loan) {
+        if (!enabled) return;
+        Runnable apply = () -> {
+            synchronized (this) {
+                if (!ready) return;
+                remove(loan.getId());
+                add(loan, true);
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    // Atrasados, opcionalmente filtrados por startDate (mismo filtro que listOverdueActiveLoans)
+    public synchronized List<LoanEntity> overdue(LocalDate from, LocalDate to) {
+        advanceTo(LocalDate.now());
+
+        List<LoanEntity> out = new ArrayList<>(overdue.size());
+        for (LoanEntity loan : overdue.values()) {
+            if (from != null && to != null) {
+                LocalDate start = loan.getStartDate();
+                if (start == null || start.isBefore(from) || start.isAfter(to)) continue;
+            }
+            out.add(loan);
+        }
+        return out;
+    }
+}
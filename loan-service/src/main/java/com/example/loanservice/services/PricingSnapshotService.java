@@ -0,0 +1,80 @@
+package com.example.loanservice.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Copia local (inmutable y versionada) de la config de pricing-service.
+// Se refresca por polling con ETag; si la copia es más vieja que max-staleness-ms, LoanService vuelve a la llamada remota.
+@Service
+public class PricingSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(PricingSnapshotService.class);
+
+    private static final String PRICING_CONFIG = "http://pricing-service/api/v1/pricing/config";
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Value("${loan.pricing.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${loan.pricing.snapshot.max-staleness-ms:60000}")
+    private long maxStalenessMs;
+
+    public record PricingSnapshot(String etag, double rentalFeeDaily, double lateFeeDaily, long fetchedAt) {
+
+        PricingSnapshot touch() {
+            return new PricingSnapshot(etag, rentalFeeDaily, lateFeeDaily, System.currentTimeMillis());
+        }
+    }
+
+    private final AtomicReference<PricingSnapshot> current = new AtomicReference<>();
+
+    @Scheduled(initialDelayString = "${loan.pricing.snapshot.initial-delay-ms:5000}",
+            fixedDelayString = "${loan.pricing.snapshot.refresh-ms:15000}")
+    public void refresh() {
+        if (!enabled) return;
+
+        PricingSnapshot previous = current.get();
+        HttpHeaders headers = new HttpHeaders();
+        if (previous != null) headers.setIfNoneMatch(previous.etag());
+
+        try {
+            ResponseEntity<Map> resp = restTemplate.exchange(PRICING_CONFIG, HttpMethod.GET, new HttpEntity<>(headers), Map.class);
+
+            if (resp.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED) && previous != null) {
+                current.set(previous.touch());
+                return;
+            }
+            Map<?, ?> body = resp.getBody();
+            if (!resp.getStatusCode().is2xxSuccessful() || body == null) return;
+
+            current.set(new PricingSnapshot(
+                    resp.getHeaders().getETag(),
+                    Double.parseDouble(String.valueOf(body.get("rentalFeeDaily"))),
+                    Double.parseDouble(String.valueOf(body.get("lateFeeDaily"))),
+                    System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            // se mantiene la copia anterior hasta que venza el límite de antigüedad
+            log.warn("No se pudo refrescar la config de pricing-service: {}", e.getMessage());
+        }
+    }
+
+    // Snapshot vigente, o null si no hay o superó el límite de antigüedad
+    public PricingSnapshot fresh() {
+        PricingSnapshot s = current.get();
+        if (!enabled || s == null) return null;
+        if (System.currentTimeMillis() - s.fetchedAt() > maxStalenessMs) return null;
+        return s;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.client.RestTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+// Import y devolución en lote contra Postgres real, con inventory-service simulado (RestTemplate mock):
+// 10k préstamos importados y devueltos (tiempos en el log, no se exige un tiempo) y /return con /return/batch
+// compitiendo por el mismo préstamo: las herramientas vuelven a inventory una sola vez.
+@SpringBootTest(properties = {
+        "spring.config.name=loan-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true",
+        "spring.jpa.properties.hibernate.order_updates=true",
+        "loan.inventory-replica.enabled=false",
+        "loan.pricing.snapshot.enabled=false",
+        "loan.overdue-tracker.enabled=false",
+        "loan.saga.relay-enabled=false",
+        "loan.return-relay.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class LoanBatchTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LoanBatchTest.class);
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @MockitoBean
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private LoanService loanService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // devoluciones recibidas por inventory, por cliente
+    private final Map<String, AtomicInteger> inventoryReturns = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jdbcTemplate.execute("TRUNCATE loan, loan_return_outbox, customer_standing");
+        inventoryReturns.clear();
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(List.class)))
+                .thenAnswer(call -> {
+                    Map<String, Object> body = (Map<String, Object>) ((HttpEntity<?>) call.getArgument(2)).getBody();
+                    inventoryReturns.computeIfAbsent(String.valueOf(body.get("rutPerson")), k -> new AtomicInteger()).incrementAndGet();
+                    List<Map<String, Object>> results = new ArrayList<>();
+                    for (Map<String, Object> item : (List<Map<String, Object>>) body.get("items")) {
+                        Map<String, Object> result = new HashMap<>(item);
+                        result.put("totalValue", 0);
+                        results.add(result);
+                    }
+                    return ResponseEntity.ok(results);
+                });
+    }
+
+    // Préstamos vigentes (sin atraso ni llamada a pricing), uno por cliente si customers = count
+    private List<Long> importLoans(int count, int customers) {
+        LocalDate today = LocalDate.now();
+        List<LoanEntity> loans = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            LoanEntity loan = new LoanEntity();
+            loan.setRutCustomer(String.format("%08d-%d", i % customers, i % 10));
+            loan.setToolNames(List.of("Taladro", "Sierra " + (i % 20)));
+            loan.setStartDate(today);
+            loan.setDueDate(today.plusDays(7));
+            loan.setRentalFee(7000);
+            loans.add(loan);
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Map<String, Object> result : loanService.createLoansBatch(loans, false)) {
+            assertThat(result.get("status")).isEqualTo("OK");
+            ids.add(((Number) result.get("idLoan")).longValue());
+        }
+        return ids;
+    }
+
+    private static List<Map<String, Object>> returnItems(List<Long> ids) {
+        List<Map<String, Object>> returns = new ArrayList<>();
+        for (Long id : ids) returns.add(new HashMap<>(Map.of("idLoan", id)));
+        return returns;
+    }
+
+    @Test
+    void importsAndReturnsTenThousandLoans() {
+        int count = 10_000;
+
+        long started = System.nanoTime();
+        List<Long> ids = importLoans(count, 500);
+        long importMs = (System.nanoTime() - started) / 1_000_000;
+
+        started = System.nanoTime();
+        List<Map<String, Object>> results = loanService.returnToolsBatch(returnItems(ids));
+        long returnMs = (System.nanoTime() - started) / 1_000_000;
+
+        log.info("Import de {} préstamos en {} ms ({} préstamos/s); devolución en lote en {} ms ({} préstamos/s)",
+                count, importMs, count * 1000L / Math.max(1, importMs), returnMs, count * 1000L / Math.max(1, returnMs));
+
+        assertThat(results).hasSize(count).allSatisfy(r -> {
+            assertThat(r.get("status")).isEqualTo("OK");
+            assertThat(r.get("inventory")).isEqualTo(LoanReturnRelay.DONE);
+        });
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM loan WHERE end_date IS NULL", Long.class)).isZero();
+        assertThat(inventoryReturns).hasSize(500).allSatisfy((rut, calls) -> assertThat(calls.get()).isEqualTo(1));
+    }
+
+    // El mismo préstamo por /return y /return/batch a la vez: uno lo cierra y devuelve, el otro responde
+    // "Ya el préstamo fue devuelto" sin llamar a inventory
+    @Test
+    void concurrentSingleAndBatchReturnReturnTheToolsOnce() throws Exception {
+        List<Long> ids = importLoans(200, 200);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> single = new ArrayList<>();
+            List<Future<Map<String, Object>>> batch = new ArrayList<>();
+            for (Long id : ids) {
+                CountDownLatch start = new CountDownLatch(1);
+                single.add(pool.submit(() -> {
+                    start.await();
+                    try {
+                        loanService.returnTools(id, 0, 0, null, null);
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        assertThat(e.getMessage()).isEqualTo("Ya el préstamo fue devuelto");
+                        return false;
+                    }
+                }));
+                batch.add(pool.submit(() -> {
+                    start.await();
+                    return loanService.returnToolsBatch(returnItems(List.of(id))).get(0);
+                }));
+                start.countDown();
+            }
+
+            for (int i = 0; i < ids.size(); i++) {
+                boolean singleWon = single.get(i).get();
+                Map<String, Object> batchResult = batch.get(i).get();
+                assertThat(singleWon).isNotEqualTo("OK".equals(batchResult.get("status")));
+                if (singleWon) assertThat(batchResult.get("error")).isEqualTo("Ya el préstamo fue devuelto");
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM loan WHERE end_date IS NULL", Long.class)).isZero();
+        assertThat(inventoryReturns).hasSize(200).allSatisfy((rut, calls) -> assertThat(calls.get()).isEqualTo(1));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.loanservice.services;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Planes de las consultas de préstamos activos / atrasados contra Postgres real, con 100k préstamos de los que
+// solo 2% sigue activo: cada consulta debe usar su índice (los parciales de LoanSchemaMigrations o los de
+// LoanEntity) y nunca recorrer toda la tabla. Las consultas son las que generan los métodos de LoanRepository.
+@SpringBootTest(properties = {
+        "spring.config.name=loan-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "loan.inventory-replica.enabled=false",
+        "loan.pricing.snapshot.enabled=false",
+        "loan.overdue-tracker.enabled=false",
+        "loan.saga.relay-enabled=false",
+        "loan.return-relay.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class LoanQueryPlanTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LoanQueryPlanTest.class);
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final LocalDate today = LocalDate.now();
+
+    @BeforeAll
+    void seed() {
+        jdbcTemplate.execute("TRUNCATE loan");
+        jdbcTemplate.update("INSERT INTO loan (id, rut_customer, start_date, due_date, end_date, tool_names, " +
+                "damaged_tools, discarded_tools, rental_fee, fine, paid) " +
+                "SELECT g, lpad((g % 5000)::text, 8, '0') || '-1', d - 7, d, " +
+                "CASE WHEN g % 50 = 0 THEN NULL ELSE d END, '{Taladro}', '{}', '{}', 7000, 0, g % 50 <> 0 AND g % 10 <> 0 " +
+                "FROM generate_series(1, 100000) g, LATERAL (SELECT ?::date - 30 + (g % 60) AS d) due", today);
+        jdbcTemplate.execute("ANALYZE loan");
+    }
+
+    private String plan(String sql) {
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class));
+        log.info("{}\n{}", sql, plan);
+        return plan;
+    }
+
+    private String date(LocalDate day) {
+        return "DATE '" + day + "'";
+    }
+
+    // findByEndDateIsNullAndDueDateBefore / streamByEndDateIsNullAndDueDateBeforeOrderByIdAsc
+    @Test
+    void overdueReadsOnlyActiveLoans() {
+        String plan = plan("SELECT * FROM loan WHERE end_date IS NULL AND due_date < " + date(today) + " ORDER BY id");
+
+        assertThat(plan).containsAnyOf("idx_loan_active_due_date", "idx_loan_active_id").doesNotContain("Seq Scan");
+    }
+
+    // findByEndDateIsNullAndStartDateBetween(AndDueDateBefore)
+    @Test
+    void activeByStartDateRangeUsesThePartialStartDateIndex() {
+        String plan = plan("SELECT * FROM loan WHERE end_date IS NULL AND start_date BETWEEN " +
+                date(today.minusDays(20)) + " AND " + date(today.minusDays(10)) + " AND due_date < " + date(today));
+
+        assertThat(plan).containsAnyOf("idx_loan_active_start_date", "idx_loan_active_due_date").doesNotContain("Seq Scan");
+    }
+
+    // Páginas keyset de /active, /active/overdue y de los dos grupos de /active/grouped: en orden de id por el
+    // índice parcial, no por loan_pkey (que recorrería también los préstamos cerrados)
+    @Test
+    void activePagesUseThePartialIdIndex() {
+        String overdue = plan("SELECT * FROM loan WHERE end_date IS NULL AND due_date < " + date(today) +
+                " AND id > 40000 ORDER BY id LIMIT 100");
+        String current = plan("SELECT * FROM loan WHERE end_date IS NULL AND (due_date IS NULL OR due_date >= " +
+                date(today) + ") AND id > 40000 ORDER BY id LIMIT 100");
+        String active = plan("SELECT * FROM loan WHERE end_date IS NULL AND id > 40000 ORDER BY id LIMIT 100");
+
+        assertThat(overdue).contains("idx_loan_active_id").doesNotContain("loan_pkey", "Seq Scan");
+        assertThat(current).contains("idx_loan_active_id").doesNotContain("loan_pkey", "Seq Scan");
+        assertThat(active).contains("idx_loan_active_id").doesNotContain("loan_pkey", "Seq Scan");
+    }
+
+    // findActiveWithOverdueFlag (/active/grouped): solo los activos, desde un índice parcial
+    @Test
+    void groupedActiveReadsOnlyActiveLoans() {
+        String plan = plan("SELECT l.*, CASE WHEN l.due_date < " + date(today) + " THEN true ELSE false END " +
+                "FROM loan l WHERE l.end_date IS NULL ORDER BY l.id");
+
+        assertThat(plan).contains("idx_loan_active_").doesNotContain("Seq Scan");
+    }
+
+    // Elegibilidad de un cliente (existsBy... y customer_standing)
+    @Test
+    void customerEligibilityUsesTheCustomerIndexes() {
+        String rut = "'00000042-1'";
+        String overdue = plan("SELECT 1 FROM loan WHERE rut_customer = " + rut + " AND end_date IS NULL AND due_date < " +
+                date(today) + " LIMIT 1");
+        String unpaid = plan("SELECT 1 FROM loan WHERE rut_customer = " + rut + " AND paid = false AND end_date IS NOT NULL LIMIT 1");
+        String standing = plan("SELECT l.rut_customer, min(CASE WHEN l.end_date IS NULL THEN l.due_date END), " +
+                "sum(CASE WHEN l.end_date IS NOT NULL AND l.paid = false THEN 1 ELSE 0 END) " +
+                "FROM loan l WHERE l.rut_customer IN (" + rut + ", '00000043-1') GROUP BY l.rut_customer");
+
+        assertThat(overdue).containsAnyOf("idx_loan_rut_customer_end_date", "idx_loan_active_due_date").doesNotContain("Seq Scan");
+        assertThat(unpaid).containsAnyOf("idx_loan_unpaid_closed", "idx_loan_rut_customer").doesNotContain("Seq Scan");
+        assertThat(standing).contains("idx_loan_rut_customer").doesNotContain("Seq Scan");
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.config.LoanSchemaMigrations;
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.repositories.LoanRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Listas de herramientas como text[] en la fila de loan, contra Postgres real: 10k préstamos se guardan en
+// INSERT por lotes y se leen con una sola consulta. Como referencia se mide el esquema anterior
+// (@ElementCollection: tablas loan_tool_names / loan_damaged_tools / loan_discarded_tools, 1 + 3N consultas),
+// emulado con las mismas sentencias por JDBC, y se comprueba que LoanSchemaMigrations lo migra. Tiempos en el log.
+@SpringBootTest(properties = {
+        "spring.config.name=loan-test",
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "loan.inventory-replica.enabled=false",
+        "loan.pricing.snapshot.enabled=false",
+        "loan.overdue-tracker.enabled=false",
+        "loan.saga.relay-enabled=false",
+        "loan.return-relay.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class LoanStorageTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LoanStorageTest.class);
+
+    private static final int LOANS = 10_000;
+
+    private static final String[] LEGACY = {"loan_tool_names", "loan_damaged_tools", "loan_discarded_tools"};
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private LoanSchemaMigrations migrations;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void clean() {
+        jdbcTemplate.execute("TRUNCATE loan");
+        for (String table : LEGACY) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + table + "_legacy");
+        }
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    private static List<LoanEntity> loans() {
+        LocalDate today = LocalDate.now();
+        List<LoanEntity> loans = new ArrayList<>();
+        for (int i = 0; i < LOANS; i++) {
+            LoanEntity loan = new LoanEntity();
+            loan.setRutCustomer(String.format("%08d-%d", i % 500, i % 10));
+            loan.setStartDate(today.minusDays(10));
+            loan.setDueDate(today.minusDays(3));
+            loan.setEndDate(today);
+            loan.setToolNames(List.of("Taladro", "Sierra " + (i % 20), "Martillo"));
+            loan.setDamagedTools(i % 3 == 0 ? List.of("Taladro") : List.of());
+            loan.setDiscardedTools(i % 7 == 0 ? List.of("Martillo") : List.of());
+            loans.add(loan);
+        }
+        return loans;
+    }
+
+    private long saveAll(List<LoanEntity> loans) {
+        long started = System.nanoTime();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> loanRepository.saveAll(loans));
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+
+    @Test
+    void savesAndLoadsTenThousandLoansInBatchesAndOneQuery() {
+        statistics.clear();
+        long saveMs = saveAll(loans());
+        long saveStatements = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        long started = System.nanoTime();
+        List<LoanEntity> loaded = loanRepository.findAll();
+        long loadMs = (System.nanoTime() - started) / 1_000_000;
+
+        log.info("text[]: guardar {} préstamos en {} ms ({} sentencias preparadas), leerlos en {} ms ({} consultas)",
+                LOANS, saveMs, saveStatements, loadMs, statistics.getPrepareStatementCount());
+
+        assertThat(loaded).hasSize(LOANS);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(loaded).filteredOn(l -> l.getDamagedTools().contains("Taladro")).hasSize((LOANS + 2) / 3);
+        assertThat(loaded).allSatisfy(l -> assertThat(l.getToolNames()).hasSize(3));
+    }
+
+    // El esquema anterior con los mismos datos: una fila por herramienta en cada tabla, lectura 1 + 3N y
+    // guardado "borrar y reinsertar" por colección. Después la migración deja todo en los text[] de loan
+    @Test
+    void legacyElementCollectionLayoutAndMigration() {
+        List<LoanEntity> loans = loans();
+        saveAll(loans);
+
+        for (String table : LEGACY) {
+            jdbcTemplate.execute("CREATE TABLE " + table + " (loan_id bigint NOT NULL, tool_name varchar(255))");
+        }
+        String[] columns = {"tool_names", "damaged_tools", "discarded_tools"};
+
+        // mismas sentencias que Hibernate, también en batch JDBC
+        long started = System.nanoTime();
+        for (int c = 0; c < LEGACY.length; c++) {
+            List<Object[]> deletes = new ArrayList<>();
+            List<Object[]> inserts = new ArrayList<>();
+            for (LoanEntity loan : loans) {
+                deletes.add(new Object[]{loan.getId()});
+                List<String> list = c == 0 ? loan.getToolNames() : c == 1 ? loan.getDamagedTools() : loan.getDiscardedTools();
+                for (String name : list) inserts.add(new Object[]{loan.getId(), name});
+            }
+            jdbcTemplate.batchUpdate("DELETE FROM " + LEGACY[c] + " WHERE loan_id = ?", deletes);
+            jdbcTemplate.batchUpdate("INSERT INTO " + LEGACY[c] + " (loan_id, tool_name) VALUES (?, ?)", inserts);
+        }
+        long legacySaveMs = (System.nanoTime() - started) / 1_000_000;
+
+        started = System.nanoTime();
+        long rows = 0;
+        for (Long id : jdbcTemplate.queryForList("SELECT id FROM loan", Long.class)) {
+            for (String table : LEGACY) {
+                rows += jdbcTemplate.queryForList("SELECT tool_name FROM " + table + " WHERE loan_id = ?", String.class, id).size();
+            }
+        }
+        long legacyLoadMs = (System.nanoTime() - started) / 1_000_000;
+
+        log.info("@ElementCollection (emulado): reescribir las listas de {} préstamos en {} ms, leerlas en {} ms " +
+                "({} consultas, {} filas)", LOANS, legacySaveMs, legacyLoadMs, 1 + 3L * LOANS, rows);
+
+        // los préstamos "antiguos" solo tienen las listas en las tablas separadas
+        for (String column : columns) jdbcTemplate.execute("UPDATE loan SET " + column + " = NULL");
+        migrations.migrate();
+
+        for (String table : LEGACY) {
+            assertThat(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NULL", Boolean.class, table)).isTrue();
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM loan WHERE cardinality(tool_names) = 3", Long.class))
+                .isEqualTo(LOANS);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM loan WHERE damaged_tools = '{Taladro}'", Long.class))
+                .isEqualTo((LOANS + 2) / 3);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM loan WHERE discarded_tools = '{}'", Long.class))
+                .isEqualTo(LOANS - (LOANS + 6) / 7);
+    }
+}
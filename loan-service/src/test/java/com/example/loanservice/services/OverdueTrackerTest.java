@@ -0,0 +1,145 @@
+package com.example.loanservice.services;
+
+import com.example.loanservice.entities.LoanEntity;
+import com.example.loanservice.events.LoanOverdueEvent;
+import com.example.loanservice.repositories.LoanRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OverdueTrackerTest {
+
+    private LoanRepository loanRepository;
+    private ApplicationEventPublisher eventPublisher;
+    private OverdueTracker tracker;
+    private final LocalDate today = LocalDate.now();
+
+    @BeforeEach
+    void setUp() {
+        loanRepository = mock(LoanRepository.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        tracker = new OverdueTracker();
+        ReflectionTestUtils.setField(tracker, "loanRepository", loanRepository);
+        ReflectionTestUtils.setField(tracker, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(tracker, "enabled", true);
+        ReflectionTestUtils.setField(tracker, "refreshOverlapMs", 60000L);
+    }
+
+    private static LoanEntity loan(long id, LocalDate dueDate) {
+        LoanEntity loan = new LoanEntity();
+        loan.setId(id);
+        loan.setRutCustomer("11111111-" + id);
+        loan.setStartDate(dueDate.minusDays(7));
+        loan.setDueDate(dueDate);
+        return loan;
+    }
+
+    private void start(LoanEntity... active) {
+        when(loanRepository.findByEndDateIsNull()).thenReturn(new ArrayList<>(List.of(active)));
+        tracker.rebuild();
+    }
+
+    private List<Long> overdueIds() {
+        return tracker.overdue(null, null).stream().map(LoanEntity::getId).toList();
+    }
+
+    @Test
+    void rebuildSeparatesOverdueFromPending() {
+        start(loan(1, today.minusDays(1)), loan(2, today), loan(3, today.plusDays(1)));
+
+        assertThat(tracker.isReady()).isTrue();
+        assertThat(overdueIds()).containsExactly(1L);
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void loanBecomesOverdueTheDayAfterItsDueDate() {
+        start(loan(1, today.plusDays(3)));
+
+        tracker.advanceTo(today.plusDays(3));
+        assertThat(overdueIds()).isEmpty();
+
+        tracker.advanceTo(today.plusDays(4));
+        assertThat(overdueIds()).containsExactly(1L);
+
+        ArgumentCaptor<LoanOverdueEvent> event = ArgumentCaptor.forClass(LoanOverdueEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertThat(event.getValue().idLoan()).isEqualTo(1L);
+        assertThat(event.getValue().detectedOn()).isEqualTo(today.plusDays(4));
+    }
+
+    // Vencimientos en el nivel 1 (más allá del bloque de 64 días) y en overflow (más allá del de 4096) bajan
+    // de nivel al avanzar y vencen el día exacto
+    @Test
+    void cascadesFromUpperLevelsAndOverflow() {
+        LocalDate level1Due = today.plusDays(200);
+        LocalDate overflowDue = today.plusDays(9000);
+        start(loan(1, level1Due), loan(2, overflowDue));
+
+        tracker.advanceTo(level1Due);
+        assertThat(overdueIds()).isEmpty();
+        tracker.advanceTo(level1Due.plusDays(1));
+        assertThat(overdueIds()).containsExactly(1L);
+
+        tracker.advanceTo(overflowDue);
+        assertThat(overdueIds()).containsExactly(1L);
+        tracker.advanceTo(overflowDue.plusDays(1));
+        assertThat(overdueIds()).containsExactly(1L, 2L);
+
+        verify(eventPublisher, times(2)).publishEvent(any(LoanOverdueEvent.class));
+    }
+
+    @Test
+    void manyLoansInTheSameSlotExpireTogether() {
+        List<LoanEntity> loans = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) loans.add(loan(id, today.plusDays(70)));
+        start(loans.toArray(LoanEntity[]::new));
+
+        tracker.advanceTo(today.plusDays(71));
+        assertThat(overdueIds()).hasSize(100);
+    }
+
+    @Test
+    void returnedLoanLeavesTheWheel() {
+        LoanEntity pending = loan(1, today.plusDays(10));
+        LoanEntity late = loan(2, today.minusDays(2));
+        start(pending, late);
+
+        pending.setEndDate(today);
+        late.setEndDate(today);
+        tracker.onLoanSaved(pending);
+        tracker.onLoanSaved(late);
+
+        tracker.advanceTo(today.plusDays(30));
+        assertThat(overdueIds()).isEmpty();
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void refreshAppliesLoansChangedOnOtherInstances() {
+        LoanEntity returnedElsewhere = loan(1, today.minusDays(3));
+        start(returnedElsewhere, loan(2, today.minusDays(5)));
+        assertThat(overdueIds()).containsExactly(1L, 2L);
+
+        LoanEntity closed = loan(1, today.minusDays(3));
+        closed.setEndDate(today);
+        closed.setUpdatedAt(LocalDateTime.now());
+        LoanEntity created = loan(3, today.minusDays(1));
+        created.setUpdatedAt(LocalDateTime.now());
+        when(loanRepository.findByUpdatedAtAfter(any())).thenReturn(List.of(closed, created));
+
+        tracker.refresh();
+        assertThat(overdueIds()).containsExactly(2L, 3L);
+    }
+}
@@ -3,6 +3,7 @@ package com.example.pricingservice.controllers;
 import com.example.pricingservice.entities.PricingConfigEntity;
 import com.example.pricingservice.services.PricingConfigService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -16,10 +17,16 @@ public class PricingConfigController {
     @Autowired
     private PricingConfigService pricingService;
 
+    // ETag = versión de la config; con If-None-Match igual responde 304 sin cuerpo (polling de loan-service)
     @GetMapping("/config")
-    public ResponseEntity<?> getConfig() {
+    public ResponseEntity<?> getConfig(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         try {
-            return ResponseEntity.ok(pricingService.getConfig());
+            PricingConfigEntity cfg = pricingService.getConfig();
+            String etag = "\"" + (cfg.getVersion() == null ? 0 : cfg.getVersion()) + "\"";
+            if (etag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+            return ResponseEntity.ok().eTag(etag).body(cfg);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
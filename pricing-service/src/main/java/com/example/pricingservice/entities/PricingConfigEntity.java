@@ -22,5 +22,8 @@ public class PricingConfigEntity {
     // RF4.2 Tarifa diaria de multa por atraso (GENERAL)
     private double lateFeeDaily;
 
+    // Sube en cada cambio de tarifas; loan-service lo usa (ETag) para refrescar su copia local
+    private Long version;
+
     // opcional: si quieres cobrar reposición por baja, el toolValue viene desde inventory por tool (RF4.3)
 }
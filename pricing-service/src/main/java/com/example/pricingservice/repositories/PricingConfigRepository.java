@@ -2,14 +2,24 @@ package com.example.pricingservice.repositories;
 
 import com.example.pricingservice.entities.PricingConfigEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
 public interface PricingConfigRepository extends JpaRepository<PricingConfigEntity,Long> {
-    public List<PricingConfigEntity> findByToolValueEquals(String toolValue);
-    public List<PricingConfigEntity> findByToolValueGreaterThanEqual(String toolValue);
-    public List<PricingConfigEntity> findByToolValueLessThanEqual(String toolValue);
     public List<PricingConfigEntity> findAll();
+
+    // Cambio de tarifa y versión en un solo UPDATE: la fila queda bloqueada hasta el commit, así dos cambios
+    // a la vez nunca leen la misma versión ni pisan la otra tarifa
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE PricingConfigEntity c SET c.rentalFeeDaily = :value, c.version = COALESCE(c.version, 0) + 1 WHERE c.id = :id")
+    int updateRentalFeeDaily(@Param("id") Long id, @Param("value") double value);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE PricingConfigEntity c SET c.lateFeeDaily = :value, c.version = COALESCE(c.version, 0) + 1 WHERE c.id = :id")
+    int updateLateFeeDaily(@Param("id") Long id, @Param("value") double value);
 }
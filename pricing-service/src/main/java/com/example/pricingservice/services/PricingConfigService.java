@@ -30,6 +30,7 @@ public class PricingConfigService {
             PricingConfigEntity cfg = new PricingConfigEntity();
             cfg.setRentalFeeDaily(0);
             cfg.setLateFeeDaily(0);
+            cfg.setVersion(1L);
             return pricingConfigRepository.save(cfg);
         }
         return all.get(0);
@@ -51,17 +52,17 @@ public class PricingConfigService {
     @Transactional
     public PricingConfigEntity updateRentalFeeDaily(double newValue) {
         if (newValue < 0) throw new IllegalArgumentException("rentalFeeDaily inválido");
-        PricingConfigEntity cfg = getOrCreateConfig();
-        cfg.setRentalFeeDaily(newValue);
-        return pricingConfigRepository.save(cfg);
+        Long id = getOrCreateConfig().getId();
+        pricingConfigRepository.updateRentalFeeDaily(id, newValue);
+        return pricingConfigRepository.findById(id).orElseThrow();
     }
 
     @Transactional
     public PricingConfigEntity updateLateFeeDaily(double newValue) {
         if (newValue < 0) throw new IllegalArgumentException("lateFeeDaily inválido");
-        PricingConfigEntity cfg = getOrCreateConfig();
-        cfg.setLateFeeDaily(newValue);
-        return pricingConfigRepository.save(cfg);
+        Long id = getOrCreateConfig().getId();
+        pricingConfigRepository.updateLateFeeDaily(id, newValue);
+        return pricingConfigRepository.findById(id).orElseThrow();
     }
 
     // ------------------ RF4.3 Valor reposición por herramienta (inventory-service) ------------------
@@ -0,0 +1,120 @@
+package com.example.pricingservice.services;
+
+import com.example.pricingservice.entities.PricingConfigEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.RestTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Cambios de tarifa en paralelo contra Postgres real: cada uno sube la versión en uno (ninguno repite la
+// versión de otro, que loan-service usa como ETag) y un cambio de multa no pisa un cambio de arriendo.
+// Sin config server (spring.config.name apunta a un archivo que no existe) y solo con la capa JPA.
+@DataJpaTest(properties = {
+        "spring.config.name=pricing-test",
+        "spring.cloud.config.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(PricingConfigService.class)
+@Testcontainers(disabledWithoutDocker = true)
+class PricingConfigConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int UPDATES = 200;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @MockitoBean
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private PricingConfigService pricingConfigService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void clean() {
+        jdbcTemplate.execute("TRUNCATE pricing_config");
+        jdbcTemplate.update("INSERT INTO pricing_config (rental_fee_daily, late_fee_daily, version) VALUES (7000, 500, 1)");
+    }
+
+    // Corre las tareas a la vez (todas esperan la misma señal)
+    private <T> List<T> race(List<Callable<T>> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(pool.submit(() -> {
+                    go.await();
+                    return task.call();
+                }));
+            }
+            go.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> f : futures) results.add(f.get(60, TimeUnit.SECONDS));
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void parallelUpdatesGetDistinctVersions() throws Exception {
+        long initial = pricingConfigService.getConfig().getVersion();   // 1
+
+        List<Callable<PricingConfigEntity>> tasks = new ArrayList<>();
+        for (int i = 0; i < UPDATES; i++) {
+            double value = 1000 + i;
+            tasks.add(i % 2 == 0
+                    ? () -> pricingConfigService.updateRentalFeeDaily(value)
+                    : () -> pricingConfigService.updateLateFeeDaily(value));
+        }
+        List<PricingConfigEntity> results = race(tasks);
+
+        Set<Long> versions = new HashSet<>();
+        for (PricingConfigEntity cfg : results) versions.add(cfg.getVersion());
+        assertThat(versions).hasSize(UPDATES);
+        assertThat(pricingConfigService.getConfig().getVersion()).isEqualTo(initial + UPDATES);
+    }
+
+    // El arriendo y la multa cambian a la vez: quedan los dos (antes el save de uno reescribía la fila
+    // completa con el valor viejo del otro)
+    @Test
+    void rentalAndLateFeeChangesDoNotOverwriteEachOther() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            double rental = 5000 + round;
+            double late = 300 + round;
+            race(List.<Callable<PricingConfigEntity>>of(
+                    () -> pricingConfigService.updateRentalFeeDaily(rental),
+                    () -> pricingConfigService.updateLateFeeDaily(late)));
+
+            PricingConfigEntity cfg = pricingConfigService.getConfig();
+            assertThat(cfg.getRentalFeeDaily()).isEqualTo(rental);
+            assertThat(cfg.getLateFeeDaily()).isEqualTo(late);
+        }
+    }
+}